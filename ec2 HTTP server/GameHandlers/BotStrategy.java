@@ -0,0 +1,74 @@
+package GameHandlers;
+
+// The bot's bidding and card play, on card masks. Used for bots, offline users and
+// timed-out turns in live games, and for every seat in GameSimulator.
+public final class BotStrategy {
+    private BotStrategy() {}
+
+    // Bids the expected trick count from HandStrengthTable when one is mapped,
+    // otherwise the counting heuristic.
+    public static int chooseBet(long hand, Suits trumpSuit, int maxBet) {
+        double expected = HandStrengthTable.expectedTricks(hand, trumpSuit, maxBet);
+        if (expected < 0) {
+            return heuristicBet(hand, trumpSuit, maxBet);
+        }
+        return Math.max(0, Math.min((int) Math.round(expected), maxBet));
+    }
+
+    // Counts aces, high trumps, and any trump at all once the hand is down to two cards.
+    public static int heuristicBet(long hand, Suits trumpSuit, int maxBet) {
+        int bidCounter = 0;
+        boolean shortHand = CardMask.count(hand) < 3;
+        for (long rest = hand; rest != 0; rest &= rest - 1) {
+            int value = CardMask.trickValue(Long.numberOfTrailingZeros(rest), trumpSuit, null);
+            if (value == 14 || value > 26 || (value > 20 && shortHand)) {
+                bidCounter++;
+            }
+        }
+        return Math.min(bidCounter, maxBet);
+    }
+
+    // topDog is the card currently winning the trick, or NO_CARD when leading. A bot
+    // that has made its bet ducks; otherwise it tries to take the trick as cheaply
+    // as it can.
+    public static int chooseCard(
+        long hand,
+        int handsWon,
+        int bet,
+        Suits trumpSuit,
+        Suits leadSuit,
+        int topDog
+    ) {
+        if (hand == 0L) {
+            return CardMask.NO_CARD;
+        }
+        long valid = CardMask.playable(hand, leadSuit);
+        if (topDog == CardMask.NO_CARD) {
+            if (handsWon == bet) {
+                return CardMask.lowestValue(valid, trumpSuit, leadSuit);
+            }
+            return chooseInitiatorWinCard(hand, valid, trumpSuit, leadSuit);
+        }
+        int topValue = CardMask.trickValue(topDog, trumpSuit, leadSuit);
+        int best = handsWon == bet
+            ? CardMask.highestBelow(valid, trumpSuit, leadSuit, topValue)
+            : CardMask.lowestAbove(valid, trumpSuit, leadSuit, topValue);
+        if (best == CardMask.NO_CARD) {
+            return CardMask.lowestValue(valid, trumpSuit, leadSuit);
+        }
+        return best;
+    }
+
+    // Leads with the strongest card, keeping trumps back unless the hand is all trump.
+    private static int chooseInitiatorWinCard(long hand, long valid, Suits trumpSuit, Suits leadSuit) {
+        long trumps = CardMask.suitMask(trumpSuit);
+        if ((hand & ~trumps) != 0) {
+            valid &= ~trumps;
+        }
+        int best = CardMask.highestValue(valid, trumpSuit, leadSuit);
+        if (best == CardMask.NO_CARD) {
+            return CardMask.lowestValue(CardMask.playable(hand, leadSuit), trumpSuit, leadSuit);
+        }
+        return best;
+    }
+}
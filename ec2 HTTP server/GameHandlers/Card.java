@@ -1,39 +1,57 @@
 package GameHandlers;
 
-public class Card {
+// Immutable card constants. There are exactly 52 instances, built once; use Card.of
+// to look one up. Keys and display names are precomputed.
+public final class Card {
+    private static final int SUIT_SIZE = 13;
+    private static final Card[] CARDS = buildCards();
+
+    private final int index;
     private final int rank;
     private final Suits suit;
-    private int playedByIndex = -1;
+    private final String key;
+    private final String name;
+
+    private Card(int rank, Suits suit) {
+        this.index = suit.ordinal() * SUIT_SIZE + rank - 2;
+        this.rank = rank;
+        this.suit = suit;
+        this.key = rankToKey(rank) + suit.getKeyLetter();
+        this.name = rankToLabel(rank) + " of " + suit.getDisplayName();
+    }
 
-    public Card(int rank, Suits suit) {
+    public static Card of(int rank, Suits suit) {
         if (rank < 2 || rank > 14) {
             throw new IllegalArgumentException("Rank must be between 2 and 14.");
         }
         if (suit == null) {
             throw new IllegalArgumentException("Suit cannot be null.");
         }
-        this.rank = rank;
-        this.suit = suit;
+        return CARDS[suit.ordinal() * SUIT_SIZE + rank - 2];
     }
 
-    public int getRank() {
-        return rank;
+    // By CardMask index (0-51).
+    public static Card of(int index) {
+        if (index < 0 || index >= CARDS.length) {
+            throw new IllegalArgumentException("Card index must be between 0 and " + (CARDS.length - 1) + ".");
+        }
+        return CARDS[index];
     }
 
-    public Suits getSuit() {
-        return suit;
+    public int getIndex() {
+        return index;
     }
 
-    public int getPlayedByIndex() {
-        return playedByIndex;
+    public int getRank() {
+        return rank;
     }
 
-    public void setPlayedByIndex(int playedByIndex) {
-        this.playedByIndex = playedByIndex;
+    public Suits getSuit() {
+        return suit;
     }
 
     public String getKey() {
-        return rankToKey(rank) + suit.getKeyLetter();
+        return key;
     }
 
     public int getTrickValue(Suits trumpSuit, Suits leadSuit) {
@@ -47,6 +65,18 @@ public class Card {
         return value;
     }
 
+    private static Card[] buildCards() {
+        Suits[] suits = Suits.values();
+        Card[] cards = new Card[suits.length * SUIT_SIZE];
+        for (Suits suit : suits) {
+            for (int rank = 2; rank <= 14; rank++) {
+                Card card = new Card(rank, suit);
+                cards[card.index] = card;
+            }
+        }
+        return cards;
+    }
+
     private static String rankToKey(int rank) {
         switch (rank) {
             case 11:
@@ -79,6 +109,6 @@ public class Card {
 
     @Override
     public String toString() {
-        return rankToLabel(rank) + " of " + suit.getDisplayName();
+        return name;
     }
 }
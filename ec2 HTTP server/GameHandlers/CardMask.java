@@ -0,0 +1,160 @@
+package GameHandlers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Primitive card model for the trick engine. A card is an int 0-51 laid out as
+// suit.ordinal() * 13 + (rank - 2), so each suit is a contiguous 13-bit run and a
+// higher bit within a suit is a higher rank. Hands and trick sets are long masks;
+// Card constants are only looked up at the JSON boundary.
+public final class CardMask {
+    public static final int DECK_SIZE = 52;
+    public static final int NO_CARD = -1;
+    private static final int SUIT_SIZE = 13;
+    private static final int TRUMP_BONUS = 20;
+    private static final Suits[] SUITS = Suits.values();
+    private static final long[] SUIT_MASKS = buildSuitMasks();
+    private static final Map<String, Integer> CARDS_BY_KEY = buildKeyIndex();
+
+    private CardMask() {}
+
+    public static int index(int rank, Suits suit) {
+        return suit.ordinal() * SUIT_SIZE + rank - 2;
+    }
+
+    public static int index(Card card) {
+        return card.getIndex();
+    }
+
+    public static int rank(int card) {
+        return card % SUIT_SIZE + 2;
+    }
+
+    public static Suits suit(int card) {
+        return SUITS[card / SUIT_SIZE];
+    }
+
+    public static long bit(int card) {
+        return 1L << card;
+    }
+
+    public static long suitMask(Suits suit) {
+        return suit != null ? SUIT_MASKS[suit.ordinal()] : 0L;
+    }
+
+    public static int count(long mask) {
+        return Long.bitCount(mask);
+    }
+
+    public static String key(int card) {
+        return Card.of(card).getKey();
+    }
+
+    public static Card toCard(int card) {
+        return Card.of(card);
+    }
+
+    // Ascending card order, i.e. grouped by suit and then by rank.
+    public static List<Card> toCards(long mask) {
+        List<Card> cards = new ArrayList<>(Long.bitCount(mask));
+        for (long rest = mask; rest != 0; rest &= rest - 1) {
+            cards.add(toCard(Long.numberOfTrailingZeros(rest)));
+        }
+        return cards;
+    }
+
+    // Accepts the client key format ("10h", "qs"); returns NO_CARD when it is not a card.
+    public static int parseKey(String key) {
+        if (key == null) {
+            return NO_CARD;
+        }
+        Integer card = CARDS_BY_KEY.get(key.trim().toLowerCase(Locale.ROOT));
+        return card != null ? card : NO_CARD;
+    }
+
+    // Cards the holder may play: the lead suit if they have any of it, otherwise anything.
+    public static long playable(long hand, Suits leadSuit) {
+        long following = hand & suitMask(leadSuit);
+        return following != 0 ? following : hand;
+    }
+
+    // Same ordering as Card.getTrickValue.
+    public static int trickValue(int card, Suits trumpSuit, Suits leadSuit) {
+        Suits suit = suit(card);
+        if (leadSuit != null && suit != trumpSuit && suit != leadSuit) {
+            return 0;
+        }
+        return suit == trumpSuit ? rank(card) + TRUMP_BONUS : rank(card);
+    }
+
+    // The highest trump if any was played, otherwise the highest card of the lead suit.
+    public static int trickWinner(long trick, Suits trumpSuit, Suits leadSuit) {
+        long trumps = trick & suitMask(trumpSuit);
+        if (trumps != 0) {
+            return highest(trumps);
+        }
+        long following = trick & suitMask(leadSuit);
+        return following != 0 ? highest(following) : NO_CARD;
+    }
+
+    public static int lowestValue(long mask, Suits trumpSuit, Suits leadSuit) {
+        return lowestAbove(mask, trumpSuit, leadSuit, -1);
+    }
+
+    public static int highestValue(long mask, Suits trumpSuit, Suits leadSuit) {
+        return highestBelow(mask, trumpSuit, leadSuit, Integer.MAX_VALUE);
+    }
+
+    // Lowest-valued card worth strictly more than floor; ties go to the lowest index.
+    public static int lowestAbove(long mask, Suits trumpSuit, Suits leadSuit, int floor) {
+        int best = NO_CARD;
+        int bestValue = Integer.MAX_VALUE;
+        for (long rest = mask; rest != 0; rest &= rest - 1) {
+            int card = Long.numberOfTrailingZeros(rest);
+            int value = trickValue(card, trumpSuit, leadSuit);
+            if (value > floor && value < bestValue) {
+                best = card;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+
+    // Highest-valued card worth strictly less than ceiling; ties go to the lowest index.
+    public static int highestBelow(long mask, Suits trumpSuit, Suits leadSuit, int ceiling) {
+        int best = NO_CARD;
+        int bestValue = -1;
+        for (long rest = mask; rest != 0; rest &= rest - 1) {
+            int card = Long.numberOfTrailingZeros(rest);
+            int value = trickValue(card, trumpSuit, leadSuit);
+            if (value < ceiling && value > bestValue) {
+                best = card;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+
+    private static int highest(long mask) {
+        return 63 - Long.numberOfLeadingZeros(mask);
+    }
+
+    private static Map<String, Integer> buildKeyIndex() {
+        Map<String, Integer> cards = new HashMap<>(DECK_SIZE * 2);
+        for (int card = 0; card < DECK_SIZE; card++) {
+            cards.put(key(card), card);
+        }
+        return cards;
+    }
+
+    private static long[] buildSuitMasks() {
+        long[] masks = new long[SUITS.length];
+        for (int i = 0; i < SUITS.length; i++) {
+            masks[i] = ((1L << SUIT_SIZE) - 1) << (i * SUIT_SIZE);
+        }
+        return masks;
+    }
+}
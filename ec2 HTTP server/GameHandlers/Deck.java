@@ -1,52 +1,51 @@
 package GameHandlers;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.SplittableRandom;
 
+// One reusable deck per game: the 52 CardMask indexes in an int array, refilled and
+// shuffled in place each round, so dealing allocates nothing.
 public class Deck {
-    private final List<Card> cards;
+    private final int[] cards;
+    private int remaining;
 
     public Deck() {
-        this.cards = new ArrayList<>();
-        loadDeck();
-        shuffle();
+        this.cards = new int[CardMask.DECK_SIZE];
+        this.remaining = 0;
     }
 
-    private void loadDeck() {
-        cards.clear();
-        for (Suits suit : Suits.values()) {
-            for (int rank = 2; rank <= 14; rank++) {
-                cards.add(new Card(rank, suit));
-            }
+    // Restores all 52 cards and Fisher-Yates shuffles them with the given generator.
+    public void shuffle(SplittableRandom random) {
+        for (int i = 0; i < cards.length; i++) {
+            cards[i] = i;
         }
+        for (int i = cards.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = cards[i];
+            cards[i] = cards[j];
+            cards[j] = swap;
+        }
+        remaining = cards.length;
     }
 
-    public void shuffle() {
-        Collections.shuffle(cards);
-    }
-
-    public Card draw() {
-        if (cards.isEmpty()) {
-            return null;
+    public int draw() {
+        if (remaining == 0) {
+            return CardMask.NO_CARD;
         }
-        return cards.remove(cards.size() - 1);
+        return cards[--remaining];
     }
 
     public int size() {
-        return cards.size();
+        return remaining;
     }
 
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
-        boolean first = true;
-        for (Card card : cards) {
-            if (!first) {
+        for (int i = remaining - 1; i >= 0; i--) {
+            if (i < remaining - 1) {
                 builder.append(", ");
             }
-            builder.append(card.toString());
-            first = false;
+            builder.append(Card.of(cards[i]));
         }
         return builder.toString();
     }
@@ -2,26 +2,27 @@ package GameHandlers;
 
 import HTTPHandlers.PostGameState;
 import HTTPHandlers.PostUserInfo;
+import HTTPHandlers.ServerClock;
 import HTTPHandlers.ServerLog;
+import HTTPHandlers.ServerTime;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class Game {
     private static final String SCOPE = "Game";
-    public static int IDTracker = 0;
-    private static final int MAX_PLAYERS = 5;
-    private static final int MAX_HAND_CARDS = 10;
-    private static final int EXTRA_NO_TRUMP_ROUND = 11;
-    private static final int EXTRA_TRUMP_ROUND = 12;
-    private static final int TOTAL_ROUNDS = 21;
     private static final long BOT_TURN_DELAY_MS = 2_000;
     private static final long PLAYER_TURN_DELAY_MS = 30_000;
     private static final long OFFLINE_BOT_DELAY_MS = 10_000;
@@ -46,27 +47,47 @@ public class Game {
 
     private final int gameID;
     private final ArrayList<Player> players;
-    private State state;
+    private final GameMailbox mailbox;
+    // Volatile, like seats, so GameRegistry can index the game without its lock.
+    private volatile State state;
     private GamePhase phase;
-    private Deck deck;
+    private final Deck deck;
+    // Shuffles replay exactly from the seed: the generator restarts with each game.
+    private final long seed;
+    private SplittableRandom random;
     private int round;
     private int initiatorIndex;
     private int currentTurnIndex;
     private Card trump;
     private Suits leadSuit;
-    private Card topDog;
-    private final ArrayList<Card> tableCards;
-    private final ArrayList<Card> displayCards;
+    // Winning card of the trick in progress, the trick's cards as a mask, and who
+    // played each of them.
+    private int topDog = CardMask.NO_CARD;
+    private long trickMask;
+    private final int[] trickSeats = new int[CardMask.DECK_SIZE];
+    // Cards from finished tricks this round, and per seat the suits (as card masks)
+    // it has failed to follow. Only the Monte Carlo bots read these.
+    private long playedThisRound;
+    private final long[] voidsBySeat = new long[GameRules.MAX_PLAYERS];
+    // Bets and tricks won by round and seat, kept for the game's GameResult.
+    private final byte[] roundBets = new byte[GameRules.TOTAL_ROUNDS * GameRules.MAX_PLAYERS];
+    private final byte[] roundTricks = new byte[GameRules.TOTAL_ROUNDS * GameRules.MAX_PLAYERS];
+    // Copy of players replaced on every seat change, for lock-free readers.
+    private volatile Player[] seats = new Player[0];
+    private final ArrayList<PlayedCard> tableCards;
+    private final ArrayList<PlayedCard> displayCards;
     private int lastTrickWinnerIndex;
     private int trickCounter;
 
-    private final ScheduledExecutorService scheduler;
-    private ScheduledFuture<?> turnTimeout;
-    private ScheduledFuture<?> botOnlyTimeout;
-    private ScheduledFuture<?> trickCompleteTimeout;
-    private ScheduledFuture<?> unlockNotifyTimeout;
-    private ScheduledFuture<?> betSummaryTimeout;
+    private ServerClock.Timeout turnTimeout;
+    private ServerClock.Timeout botOnlyTimeout;
+    private ServerClock.Timeout trickCompleteTimeout;
+    private ServerClock.Timeout unlockNotifyTimeout;
+    private ServerClock.Timeout betSummaryTimeout;
     private long turnToken;
+    private CompletableFuture<Integer> botDecision;
+    private MonteCarloStrategy.Situation botSituation;
+    private long botDecisionToken;
     private long pauseUntilMs;
     private long turnDeadlineMs;
     private long roundDealStartMs;
@@ -76,9 +97,36 @@ public class Game {
     private long bidResultUntilMs;
     private boolean betSummaryPending;
     private boolean trickPending;
+    private long stateVersion;
+    // Set while GameJournal replays this game's events: timers, pushes and journal
+    // appends are skipped until resumeAfterRestore().
+    private boolean replaying;
+    // Events this game has journaled, START included; a snapshot saves the count so
+    // restore knows where the journal takes over (see GameSnapshot).
+    private int journalEvents;
+    // Deadlines the timers are re-armed from when the game comes back from a
+    // snapshot; timersSaved is cleared by the first journal event applied on top.
+    private long trickDeadlineMs;
+    private long botOnlyDeadlineMs;
+    private long savedTurnDeadlineMs;
+    private long reconnectGraceUntilMs;
+    private boolean timersSaved;
 
     public Game(User host) {
-        this.gameID = ++IDTracker;
+        this(host, ThreadLocalRandom.current().nextLong());
+    }
+
+    public Game(User host, long seed) {
+        this(GameRegistry.nextGameID(), seed);
+        addPlayer(host);
+    }
+
+    private Game(int gameID, long seed) {
+        this.gameID = gameID;
+        this.deck = new Deck();
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
+        this.mailbox = new GameMailbox("game " + gameID);
         this.players = new ArrayList<>();
         this.state = State.LOBBY;
         this.phase = GamePhase.WAITING;
@@ -98,16 +146,80 @@ public class Game {
         this.bidResultUntilMs = 0;
         this.betSummaryPending = false;
         this.trickPending = false;
-        this.scheduler = Executors.newSingleThreadScheduledExecutor();
-        addPlayer(host);
+    }
+
+    // Rebuilds a journaled game up to its first deal. GameJournal then replays the
+    // recorded events through the replay* methods and calls resumeAfterRestore().
+    static Game restore(int gameID, long seed, List<Player> seats) {
+        Game game = new Game(gameID, seed);
+        synchronized (game) {
+            game.replaying = true;
+            for (Player seat : seats) {
+                game.addPlayer(seat);
+            }
+            game.startGame();
+        }
+        return game;
     }
 
     public int getGameID() {
         return this.gameID;
     }
 
+    public long getSeed() {
+        return seed;
+    }
+
+    // Game commands run one at a time on this game's mailbox; see GameMailbox.
+    public void execute(Runnable command) {
+        mailbox.execute(command);
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> command) {
+        return mailbox.submit(command);
+    }
+
+    public <T> T call(Callable<T> command) {
+        return mailbox.call(command);
+    }
+
+    public void call(Runnable command) {
+        mailbox.call(command);
+    }
+
+    // Counts an event for snapshots and says whether to append it to the journal;
+    // replayed events are in the journal already.
+    private boolean journalEvent() {
+        journalEvents++;
+        timersSaved = false;
+        return !replaying;
+    }
+
+    // Timer callbacks are delivered through the mailbox like any other command.
+    private ServerClock.Timeout scheduleCommand(Runnable command, long delay, TimeUnit unit) {
+        if (replaying) {
+            return null;
+        }
+        return ServerTime.schedule(() -> mailbox.execute(command), delay, unit);
+    }
+
+    // Callers iterate outside the game lock, so hand out a copy.
     public synchronized ArrayList<Player> getPlayers() {
-        return players;
+        return new ArrayList<>(players);
+    }
+
+    private void seatsChanged() {
+        seats = players.toArray(new Player[0]);
+        GameRegistry.refresh(gameID);
+    }
+
+    // Lock-free views for GameRegistry; the seat array must not be modified.
+    Player[] seatsView() {
+        return seats;
+    }
+
+    State stateView() {
+        return state;
     }
 
     public synchronized State getState() {
@@ -123,7 +235,7 @@ public class Game {
     }
 
     public synchronized int getCardsDealt() {
-        return cardsForRound(round);
+        return GameRules.cardsForRound(round);
     }
 
     public synchronized Card getTrump() {
@@ -134,7 +246,7 @@ public class Game {
         return leadSuit;
     }
 
-    public synchronized List<Card> getTableCards() {
+    public synchronized List<PlayedCard> getTableCards() {
         if (!tableCards.isEmpty()) {
             return new ArrayList<>(tableCards);
         }
@@ -201,6 +313,15 @@ public class Game {
         return bidResultUntilMs;
     }
 
+    // Bumped once per pushed game state; clients acknowledge versions to get deltas.
+    public synchronized long nextStateVersion() {
+        return ++stateVersion;
+    }
+
+    public synchronized long getStateVersion() {
+        return stateVersion;
+    }
+
     public synchronized void addPlayer(Player p) {
         if (p == null) {
             return;
@@ -214,10 +335,11 @@ public class Game {
             );
             return;
         }
-        if (players.size() >= MAX_PLAYERS) {
+        if (players.size() >= GameRules.MAX_PLAYERS) {
             return;
         }
         players.add(p);
+        seatsChanged();
         p.setGameID(this.gameID);
         p.setSeatIndex(players.size() - 1);
         ServerLog.info(SCOPE, "Player added to game " + gameID + ": " + p.getUsername());
@@ -228,6 +350,7 @@ public class Game {
         for (int i = 0; i < players.size(); i++) {
             players.get(i).setSeatIndex(i);
         }
+        seatsChanged();
         ServerLog.info(
             SCOPE,
             "Removed " + p.getUsername() + " from game " + gameID + ". Remaining players=" + players.size()
@@ -243,10 +366,20 @@ public class Game {
             return false;
         }
 
-        Bot replacement = new Bot(generateBotName());
+        Bot replacement = replaceWithBot(index, generateBotName());
+        ServerLog.info(
+            SCOPE,
+            "Replaced forfeiting user " + user.getUsername() + " with " + replacement.getUsername() + " in game " + gameID
+        );
+        return true;
+    }
+
+    private Bot replaceWithBot(int index, String botName) {
+        User user = (User) players.get(index);
+        Bot replacement = new Bot(botName);
         replacement.setGameID(gameID);
         replacement.setSeatIndex(index);
-        replacement.setHand(new ArrayList<>(user.getHand()));
+        replacement.setHandMask(user.getHandMask());
         replacement.setBet(user.getBet());
         replacement.handsWon = user.getHandsWon();
         replacement.score = user.getScore();
@@ -254,17 +387,18 @@ public class Game {
         replacement.setCardBack(user.getCardBack());
         replacement.setCardFront(user.getCardFront());
 
-        user.getHand().clear();
+        user.setHandMask(0L);
         players.set(index, replacement);
-        ServerLog.info(
-            SCOPE,
-            "Replaced forfeiting user " + user.getUsername() + " with " + replacement.getUsername() + " in game " + gameID
-        );
-        return true;
+        seatsChanged();
+        if (journalEvent()) {
+            GameJournal.recordReplace(gameID, index, botName);
+        }
+        return replacement;
     }
 
     public synchronized void setState(State state) {
         this.state = state;
+        GameRegistry.refresh(gameID);
         State userState = state.equals(State.COMPLETED) ? State.LOBBY : state;
         ServerLog.info(SCOPE, "Game " + gameID + " state changed to " + state);
         for (Player player : players) {
@@ -287,7 +421,12 @@ public class Game {
         setState(State.INGAME);
         phase = GamePhase.BETTING;
         round = 1;
+        LobbyView.markDirty(gameID);
         initiatorIndex = 0;
+        random = new SplittableRandom(seed);
+        if (journalEvent()) {
+            GameJournal.recordStart(gameID, seed, players);
+        }
         startRound();
         updateBotOnlyTimer();
     }
@@ -296,7 +435,7 @@ public class Game {
         int count = players.size();
         String botCardBack = preferredBotCardBack();
         String botCardFront = preferredBotCardFront();
-        for (int i = count; i < MAX_PLAYERS; i++) {
+        for (int i = count; i < GameRules.MAX_PLAYERS; i++) {
             Bot bot = new Bot(generateBotName());
             bot.setCardBack(botCardBack);
             bot.setCardFront(botCardFront);
@@ -348,11 +487,14 @@ public class Game {
         for (Player player : players) {
             player.resetForRound();
         }
-        deck = new Deck();
+        deck.shuffle(random);
         tableCards.clear();
         displayCards.clear();
         leadSuit = null;
-        topDog = null;
+        topDog = CardMask.NO_CARD;
+        trickMask = 0L;
+        playedThisRound = 0L;
+        Arrays.fill(voidsBySeat, 0L);
         trump = null;
         pauseUntilMs = 0;
         trickPending = false;
@@ -362,21 +504,22 @@ public class Game {
         bidResultUntilMs = 0;
         betSummaryPending = false;
         if (betSummaryTimeout != null) {
-            betSummaryTimeout.cancel(false);
+            betSummaryTimeout.cancel();
             betSummaryTimeout = null;
         }
 
-        int cardsThisRound = cardsForRound(round);
+        int cardsThisRound = GameRules.cardsForRound(round);
         long handDealDuration = Math.max(0, cardsThisRound) * ROUND_DEAL_CARD_STAGGER_MS;
         dealCards(cardsThisRound);
-        boolean hasTrumpThisRound = hasTrumpForRound(round);
+        boolean hasTrumpThisRound = GameRules.hasTrumpForRound(round);
         roundDealTrumpDelayMs = hasTrumpThisRound ? handDealDuration + ROUND_DEAL_TRUMP_AFTER_HAND_MS : 0;
         if (hasTrumpThisRound) {
-            trump = deck.draw();
+            int trumpCard = deck.draw();
+            trump = trumpCard != CardMask.NO_CARD ? Card.of(trumpCard) : null;
         } else {
             trump = null;
         }
-        roundDealStartMs = System.currentTimeMillis();
+        roundDealStartMs = ServerTime.currentTimeMillis();
         roundDealEndMs =
             roundDealStartMs + computeRoundDealDurationMs(cardsThisRound, hasTrumpThisRound, roundDealTrumpDelayMs);
         pauseUntilMs = roundDealEndMs;
@@ -389,9 +532,9 @@ public class Game {
     private void dealCards(int count) {
         for (int i = 0; i < count; i++) {
             for (Player player : players) {
-                Card card = deck.draw();
-                if (card != null) {
-                    player.getHand().add(card);
+                int card = deck.draw();
+                if (card != CardMask.NO_CARD) {
+                    player.addCard(card);
                 }
             }
         }
@@ -407,7 +550,7 @@ public class Game {
         if (player == null || player != players.get(currentTurnIndex)) {
             return false;
         }
-        if (System.currentTimeMillis() < pauseUntilMs) {
+        if (ServerTime.currentTimeMillis() < pauseUntilMs) {
             return false;
         }
         if (trickPending) {
@@ -416,12 +559,15 @@ public class Game {
         if (bet < 0) {
             bet = 0;
         }
-        int maxBet = cardsForRound(round);
+        int maxBet = GameRules.cardsForRound(round);
         if (bet > maxBet) {
             bet = maxBet;
         }
         cancelTurnTimeout();
         player.setBet(bet);
+        if (journalEvent()) {
+            GameJournal.recordBet(gameID, currentTurnIndex, bet);
+        }
         advanceAfterBet();
         advanceAfterStateChange();
         return true;
@@ -434,14 +580,14 @@ public class Game {
         if (player == null || player != players.get(currentTurnIndex)) {
             return false;
         }
-        if (System.currentTimeMillis() < pauseUntilMs) {
+        if (ServerTime.currentTimeMillis() < pauseUntilMs) {
             return false;
         }
         if (trickPending) {
             return false;
         }
-        Card chosen = findCardInHand(player, cardKey);
-        if (chosen == null) {
+        int chosen = findCardInHand(player, cardKey);
+        if (chosen == CardMask.NO_CARD) {
             return false;
         }
         if (!isValidPlay(player, chosen)) {
@@ -449,6 +595,9 @@ public class Game {
         }
         cancelTurnTimeout();
         playCard(player, chosen);
+        if (journalEvent()) {
+            GameJournal.recordPlay(gameID, currentTurnIndex, chosen);
+        }
         advanceAfterPlay();
         advanceAfterStateChange();
         return true;
@@ -456,7 +605,7 @@ public class Game {
 
     private boolean roundComplete() {
         for (Player player : players) {
-            if (!player.getHand().isEmpty()) {
+            if (player.getHandMask() != 0L) {
                 return false;
             }
         }
@@ -465,61 +614,46 @@ public class Game {
 
     private void endRound() {
         for (Player player : players) {
-            int delta = scoreChange(player);
+            int slot = (round - 1) * GameRules.MAX_PLAYERS + player.getSeatIndex();
+            roundBets[slot] = (byte) player.getBet();
+            roundTricks[slot] = (byte) player.getHandsWon();
+            int delta = GameRules.scoreChange(player.getBet(), player.getHandsWon());
             player.addScore(delta);
         }
         lastTrickWinnerIndex = -1;
-        if (round >= TOTAL_ROUNDS) {
+        if (round >= GameRules.TOTAL_ROUNDS) {
             phase = GamePhase.COMPLETED;
             notifyState();
             GameHandler.end(this);
             return;
         }
-        initiatorIndex = round % players.size();
+        initiatorIndex = GameRules.initiatorAfterRound(round, players.size());
         round += 1;
+        LobbyView.markDirty(gameID);
         startRound();
     }
 
-    private int scoreChange(Player player) {
-        if (player.getBet() > player.getHandsWon()) {
-            return -player.getBet();
-        }
-        if (player.getBet() < player.getHandsWon()) {
-            return -player.getHandsWon();
-        }
-        return player.getBet() == 0 ? 20 : player.getBet() * 10;
-    }
-
-    private void playCard(Player player, Card card) {
+    private void playCard(Player player, int card) {
         if (tableCards.isEmpty() && !displayCards.isEmpty()) {
             displayCards.clear();
         }
-        player.getHand().remove(card);
-        card.setPlayedByIndex(player.getSeatIndex());
-        tableCards.add(card);
+        player.removeCard(card);
+        tableCards.add(new PlayedCard(Card.of(card), player.getSeatIndex()));
+        trickSeats[card] = player.getSeatIndex();
+        trickMask |= CardMask.bit(card);
         if (leadSuit == null) {
-            leadSuit = card.getSuit();
-        }
-        updateTopDog(card);
-    }
-
-    private void updateTopDog(Card card) {
-        if (topDog == null) {
-            topDog = card;
-            return;
-        }
-        int candidateValue = card.getTrickValue(trump != null ? trump.getSuit() : null, leadSuit);
-        int topValue = topDog.getTrickValue(trump != null ? trump.getSuit() : null, leadSuit);
-        if (candidateValue > topValue) {
-            topDog = card;
+            leadSuit = CardMask.suit(card);
+        } else if (CardMask.suit(card) != leadSuit) {
+            voidsBySeat[player.getSeatIndex()] |= CardMask.suitMask(leadSuit);
         }
+        topDog = CardMask.trickWinner(trickMask, trumpSuit(), leadSuit);
     }
 
     private void endSubRound() {
-        if (topDog == null) {
+        if (topDog == CardMask.NO_CARD) {
             return;
         }
-        int winnerIndex = topDog.getPlayedByIndex();
+        int winnerIndex = trickSeats[topDog];
         if (winnerIndex >= 0 && winnerIndex < players.size()) {
             players.get(winnerIndex).incrementHandsWon();
             initiatorIndex = winnerIndex;
@@ -529,8 +663,10 @@ public class Game {
         displayCards.addAll(tableCards);
         tableCards.clear();
         leadSuit = null;
-        topDog = null;
-        pauseUntilMs = System.currentTimeMillis() + TRICK_PAUSE_MS;
+        topDog = CardMask.NO_CARD;
+        playedThisRound |= trickMask;
+        trickMask = 0L;
+        pauseUntilMs = ServerTime.currentTimeMillis() + TRICK_PAUSE_MS;
         trickCounter += 1;
     }
 
@@ -551,61 +687,47 @@ public class Game {
         return next;
     }
 
-    private boolean isValidPlay(Player player, Card card) {
-        if (leadSuit == null) {
-            return true;
-        }
-        if (card.getSuit() == leadSuit) {
-            return true;
-        }
-        for (Card handCard : player.getHand()) {
-            if (handCard.getSuit() == leadSuit) {
-                return false;
-            }
-        }
-        return true;
+    private boolean isValidPlay(Player player, int card) {
+        return (CardMask.playable(player.getHandMask(), leadSuit) & CardMask.bit(card)) != 0;
     }
 
-    private Card findCardInHand(Player player, String cardKey) {
-        if (cardKey == null) {
-            return null;
-        }
-        String normalized = cardKey.trim().toLowerCase();
-        for (Card card : player.getHand()) {
-            if (card.getKey().equals(normalized)) {
-                return card;
-            }
+    private int findCardInHand(Player player, String cardKey) {
+        int card = CardMask.parseKey(cardKey);
+        if (card == CardMask.NO_CARD || !player.hasCard(card)) {
+            return CardMask.NO_CARD;
         }
-        return null;
+        return card;
+    }
+
+    private Suits trumpSuit() {
+        return trump != null ? trump.getSuit() : null;
     }
 
     private void scheduleTurn() {
         cancelTurnTimeout();
         turnDeadlineMs = 0;
-        if (state != State.INGAME || phase == GamePhase.COMPLETED) {
+        if (state != State.INGAME || phase == GamePhase.COMPLETED
+            || betSummaryPending || !hasOnlineHuman() || trickPending) {
+            // Nobody is due to act, so no search should be running.
+            dropBotDecision();
             return;
         }
-        if (betSummaryPending) {
-            return;
-        }
-        if (!hasOnlineHuman()) {
-            return;
-        }
-        if (trickPending) {
-            return;
-        }
-        long now = System.currentTimeMillis();
+        long now = ServerTime.currentTimeMillis();
         long delay = pauseUntilMs > now ? pauseUntilMs - now : 0;
         Player current = players.get(currentTurnIndex);
         long token = ++turnToken;
+        // The first turn after a snapshot restore keeps the deadline it was saved with.
+        long savedDelay = savedTurnDeadlineMs > 0 ? Math.max(0, savedTurnDeadlineMs - now) : -1;
+        savedTurnDeadlineMs = 0;
         if (isAutoPlayer(current)) {
-            long autoDelay = delay + getTurnDelayMs(current);
+            startBotDecision(current, token);
+            long autoDelay = savedDelay >= 0 ? savedDelay : delay + getTurnDelayMs(current);
             turnDeadlineMs = now + autoDelay;
-            turnTimeout = scheduler.schedule(() -> onAutoTurn(token), autoDelay, TimeUnit.MILLISECONDS);
+            turnTimeout = scheduleCommand(() -> onAutoTurn(token), autoDelay, TimeUnit.MILLISECONDS);
         } else {
-            long timeoutDelay = delay + PLAYER_TURN_DELAY_MS;
+            long timeoutDelay = savedDelay >= 0 ? savedDelay : delay + PLAYER_TURN_DELAY_MS;
             turnDeadlineMs = now + timeoutDelay;
-            turnTimeout = scheduler.schedule(() -> onTurnTimeout(token), timeoutDelay, TimeUnit.MILLISECONDS);
+            turnTimeout = scheduleCommand(() -> onTurnTimeout(token), timeoutDelay, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -614,7 +736,7 @@ public class Game {
             if (token != turnToken) {
                 return;
             }
-            if (System.currentTimeMillis() < pauseUntilMs) {
+            if (ServerTime.currentTimeMillis() < pauseUntilMs) {
                 return;
             }
             Player current = players.get(currentTurnIndex);
@@ -622,9 +744,9 @@ public class Game {
                 int bet = calculateAIBet(current);
                 handleBet(current, bet);
             } else if (phase == GamePhase.PLAYING) {
-                Card choice = chooseAICard(current);
-                if (choice != null) {
-                    handlePlay(current, choice.getKey());
+                int choice = chooseAICard(current);
+                if (choice != CardMask.NO_CARD) {
+                    handlePlay(current, CardMask.key(choice));
                 }
             }
         }
@@ -635,7 +757,7 @@ public class Game {
             if (token != turnToken) {
                 return;
             }
-            if (System.currentTimeMillis() < pauseUntilMs) {
+            if (ServerTime.currentTimeMillis() < pauseUntilMs) {
                 return;
             }
             if (state != State.INGAME || phase == GamePhase.COMPLETED) {
@@ -645,176 +767,139 @@ public class Game {
             if (!isAutoPlayer(current)) {
                 return;
             }
+            CompletableFuture<Integer> decision = botDecisionToken == token ? botDecision : null;
+            if (decision != null && !decision.isDone()) {
+                // Still thinking: take the turn once the search finishes (it is time-boxed).
+                decision.whenComplete((choice, error) -> mailbox.execute(() -> onAutoTurn(token)));
+                return;
+            }
+            Integer decided = takeBotDecision(token);
             if (phase == GamePhase.BETTING) {
-                int bet = calculateAIBet(current);
+                int bet = decided != null ? decided : calculateAIBet(current);
                 handleBet(current, bet);
             } else if (phase == GamePhase.PLAYING) {
-                Card choice = chooseAICard(current);
-                if (choice != null) {
-                    handlePlay(current, choice.getKey());
+                int choice = decided != null && current.hasCard(decided) && isValidPlay(current, decided)
+                    ? decided
+                    : chooseAICard(current);
+                if (choice != CardMask.NO_CARD) {
+                    handlePlay(current, CardMask.key(choice));
                 }
             }
         }
     }
 
-    private long getTurnDelayMs(Player player) {
-        if (player instanceof Bot) {
-            return BOT_TURN_DELAY_MS;
-        }
-        if (player instanceof User) {
-            User user = (User) player;
-            if (!user.isOnline()) {
-                return OFFLINE_BOT_DELAY_MS;
-            }
+    // Bots start searching as soon as their turn is scheduled, so the thinking overlaps
+    // the turn delay instead of adding to it. A turn rescheduled without anything the
+    // bot sees changing (a connect, a reconciler pass) keeps the search in flight;
+    // otherwise the old search is cancelled so it stops using its CPU share.
+    private void startBotDecision(Player player, long token) {
+        if (!MonteCarloStrategy.isEnabled() || !(player instanceof Bot)) {
+            dropBotDecision();
+            return;
         }
-        return PLAYER_TURN_DELAY_MS;
-    }
-
-    private int calculateAIBet(Player player) {
-        int bidCounter = 0;
-        for (Card card : player.getHand()) {
-            int value = card.getTrickValue(trump != null ? trump.getSuit() : null, null);
-            if (value == 14 || value > 26 || (value > 20 && player.getHand().size() < 3)) {
-                bidCounter++;
-            }
+        if (phase != GamePhase.BETTING && phase != GamePhase.PLAYING) {
+            dropBotDecision();
+            return;
         }
-        int maxBet = cardsForRound(round);
-        if (bidCounter > maxBet) {
-            bidCounter = maxBet;
+        MonteCarloStrategy.Situation situation = captureSituation(player, token);
+        if (botDecision != null && !botDecision.isCompletedExceptionally() && situation.sameAs(botSituation)) {
+            botDecisionToken = token;
+            MonteCarloStrategy.noteReused();
+            return;
         }
-        return bidCounter;
+        dropBotDecision();
+        botDecisionToken = token;
+        botSituation = situation;
+        botDecision = MonteCarloStrategy.decide(situation);
     }
 
-    private int cardsForRound(int roundNumber) {
-        if (roundNumber <= MAX_HAND_CARDS) {
-            return roundNumber;
+    private void dropBotDecision() {
+        if (botDecision != null) {
+            botDecision.cancel(false);
         }
-        if (roundNumber == EXTRA_NO_TRUMP_ROUND || roundNumber == EXTRA_TRUMP_ROUND) {
-            return MAX_HAND_CARDS;
-        }
-        int descendingIndex = roundNumber - EXTRA_TRUMP_ROUND;
-        int cards = MAX_HAND_CARDS - descendingIndex;
-        return Math.max(1, cards);
-    }
-
-    private boolean hasTrumpForRound(int roundNumber) {
-        return roundNumber != EXTRA_NO_TRUMP_ROUND;
+        botDecision = null;
+        botSituation = null;
     }
 
-    private Card chooseAICard(Player player) {
-        if (player.getHand().isEmpty()) {
-            return null;
-        }
-        if (topDog == null) {
-            if (player.getHandsWon() == player.getBet()) {
-                return chooseLowestValidCard(player);
+    private Integer takeBotDecision(long token) {
+        CompletableFuture<Integer> decision = botDecision;
+        botDecision = null;
+        botSituation = null;
+        if (decision == null || botDecisionToken != token || decision.isCompletedExceptionally()) {
+            if (decision != null) {
+                decision.cancel(false);
             }
-            return chooseInitiatorWinCard(player);
-        }
-        if (player.getHandsWon() == player.getBet()) {
-            return chooseHighestNonWinningCard(player);
+            return null;
         }
-        return chooseLowestWinningCard(player);
+        return decision.getNow(null);
     }
 
-    private Card chooseInitiatorWinCard(Player player) {
-        boolean hasNonTrump = false;
-        Suits trumpSuit = trump != null ? trump.getSuit() : null;
-        for (Card card : player.getHand()) {
-            if (trumpSuit == null || card.getSuit() != trumpSuit) {
-                hasNonTrump = true;
-                break;
-            }
-        }
-        Card best = null;
-        int bestValue = -1;
-        for (Card card : player.getHand()) {
-            if (!isValidPlay(player, card)) {
-                continue;
-            }
-            if (hasNonTrump && trumpSuit != null && card.getSuit() == trumpSuit) {
-                continue;
-            }
-            int value = card.getTrickValue(trumpSuit, leadSuit);
-            if (value > bestValue) {
-                best = card;
-                bestValue = value;
-            }
-        }
-        if (best == null) {
-            return chooseLowestWinningCard(player);
-        }
-        return best;
+    private MonteCarloStrategy.Situation captureSituation(Player player, long token) {
+        int count = players.size();
+        int[] handSizes = new int[count];
+        int[] bets = new int[count];
+        int[] handsWon = new int[count];
+        for (int seat = 0; seat < count; seat++) {
+            Player seated = players.get(seat);
+            handSizes[seat] = seated.getHandSize();
+            bets[seat] = seated.hasPlacedBet() ? seated.getBet() : -1;
+            handsWon[seat] = seated.getHandsWon();
+        }
+        int[] trickCards = new int[count];
+        for (int i = 0; i < tableCards.size(); i++) {
+            trickCards[i] = tableCards.get(i).getCard().getIndex();
+        }
+        int leader = tableCards.isEmpty() ? currentTurnIndex : tableCards.get(0).getSeat();
+        long seen = playedThisRound | trickMask | (trump != null ? CardMask.bit(trump.getIndex()) : 0L);
+        return new MonteCarloStrategy.Situation(
+            player.getSeatIndex(),
+            count,
+            GameRules.cardsForRound(round),
+            trumpSuit(),
+            seen,
+            Arrays.copyOf(voidsBySeat, count),
+            handSizes,
+            player.getHandMask(),
+            bets,
+            handsWon,
+            phase == GamePhase.BETTING ? initiatorIndex : leader,
+            trickCards,
+            tableCards.size(),
+            seed ^ (token * 0x9E3779B97F4A7C15L)
+        );
     }
 
-    private Card chooseLowestValidCard(Player player) {
-        Card best = null;
-        int bestValue = Integer.MAX_VALUE;
-        Suits trumpSuit = trump != null ? trump.getSuit() : null;
-        for (Card card : player.getHand()) {
-            if (!isValidPlay(player, card)) {
-                continue;
-            }
-            int value = card.getTrickValue(trumpSuit, leadSuit);
-            if (value < bestValue) {
-                best = card;
-                bestValue = value;
+    private long getTurnDelayMs(Player player) {
+        if (player instanceof Bot) {
+            return BOT_TURN_DELAY_MS;
+        }
+        if (player instanceof User) {
+            User user = (User) player;
+            if (!user.isOnline()) {
+                return OFFLINE_BOT_DELAY_MS;
             }
         }
-        return best;
+        return PLAYER_TURN_DELAY_MS;
     }
 
-    private Card chooseHighestNonWinningCard(Player player) {
-        if (topDog == null) {
-            return chooseLowestValidCard(player);
-        }
-        Suits trumpSuit = trump != null ? trump.getSuit() : null;
-        int topValue = topDog.getTrickValue(trumpSuit, leadSuit);
-        Card best = null;
-        int bestValue = -1;
-        for (Card card : player.getHand()) {
-            if (!isValidPlay(player, card)) {
-                continue;
-            }
-            int value = card.getTrickValue(trumpSuit, leadSuit);
-            if (value < topValue && value > bestValue) {
-                best = card;
-                bestValue = value;
-            }
-        }
-        if (best == null) {
-            return chooseLowestValidCard(player);
-        }
-        return best;
+    private int calculateAIBet(Player player) {
+        return BotStrategy.chooseBet(player.getHandMask(), trumpSuit(), GameRules.cardsForRound(round));
     }
 
-    private Card chooseLowestWinningCard(Player player) {
-        if (topDog == null) {
-            return chooseLowestValidCard(player);
-        }
-        Suits trumpSuit = trump != null ? trump.getSuit() : null;
-        int topValue = topDog.getTrickValue(trumpSuit, leadSuit);
-        Card best = null;
-        int bestValue = Integer.MAX_VALUE;
-        for (Card card : player.getHand()) {
-            if (!isValidPlay(player, card)) {
-                continue;
-            }
-            int value = card.getTrickValue(trumpSuit, leadSuit);
-            if (value > topValue && value < bestValue) {
-                best = card;
-                bestValue = value;
-            }
-        }
-        if (best == null) {
-            return chooseLowestValidCard(player);
-        }
-        return best;
+    private int chooseAICard(Player player) {
+        return BotStrategy.chooseCard(
+            player.getHandMask(),
+            player.getHandsWon(),
+            player.getBet(),
+            trumpSuit(),
+            leadSuit,
+            topDog
+        );
     }
 
     private void cancelTurnTimeout() {
         if (turnTimeout != null) {
-            turnTimeout.cancel(false);
+            turnTimeout.cancel();
             turnTimeout = null;
         }
         turnDeadlineMs = 0;
@@ -823,22 +908,21 @@ public class Game {
     public synchronized void shutdown() {
         cancelTurnTimeout();
         if (betSummaryTimeout != null) {
-            betSummaryTimeout.cancel(false);
+            betSummaryTimeout.cancel();
             betSummaryTimeout = null;
         }
         if (trickCompleteTimeout != null) {
-            trickCompleteTimeout.cancel(false);
+            trickCompleteTimeout.cancel();
             trickCompleteTimeout = null;
         }
         if (unlockNotifyTimeout != null) {
-            unlockNotifyTimeout.cancel(false);
+            unlockNotifyTimeout.cancel();
             unlockNotifyTimeout = null;
         }
         if (botOnlyTimeout != null) {
-            botOnlyTimeout.cancel(false);
+            botOnlyTimeout.cancel();
             botOnlyTimeout = null;
         }
-        scheduler.shutdownNow();
     }
 
     public synchronized void refreshTurnTimer() {
@@ -853,8 +937,9 @@ public class Game {
             return;
         }
         if (hasOnlineHuman()) {
+            botOnlyDeadlineMs = 0;
             if (botOnlyTimeout != null) {
-                botOnlyTimeout.cancel(false);
+                botOnlyTimeout.cancel();
                 botOnlyTimeout = null;
                 ServerLog.info(
                     SCOPE,
@@ -866,9 +951,15 @@ public class Game {
         if (botOnlyTimeout != null) {
             return;
         }
-        botOnlyTimeout = scheduler.schedule(() -> {
+        long now = ServerTime.currentTimeMillis();
+        long delay = botOnlyDeadlineMs > 0
+            ? Math.max(0, botOnlyDeadlineMs - now)
+            : ALL_PLAYERS_DISCONNECTED_END_DELAY_MS;
+        botOnlyDeadlineMs = now + delay;
+        botOnlyTimeout = scheduleCommand(() -> {
             synchronized (this) {
                 botOnlyTimeout = null;
+                botOnlyDeadlineMs = 0;
                 if (state != State.INGAME) {
                     return;
                 }
@@ -881,11 +972,11 @@ public class Game {
                 );
                 GameHandler.end(this);
             }
-        }, ALL_PLAYERS_DISCONNECTED_END_DELAY_MS, TimeUnit.MILLISECONDS);
+        }, delay, TimeUnit.MILLISECONDS);
         ServerLog.info(
             SCOPE,
             "Scheduled disconnected game-end timer for game " + gameID + " in "
-                + TimeUnit.MILLISECONDS.toSeconds(ALL_PLAYERS_DISCONNECTED_END_DELAY_MS)
+                + TimeUnit.MILLISECONDS.toSeconds(delay)
                 + " seconds."
         );
     }
@@ -904,6 +995,9 @@ public class Game {
     }
 
     private void notifyState() {
+        if (replaying) {
+            return;
+        }
         PostGameState.postGameState(this);
     }
 
@@ -959,40 +1053,35 @@ public class Game {
     }
 
     private String resolveBidResultStatus() {
-        int total = totalBets();
-        int dealt = cardsForRound(round);
-        if (total == dealt) {
-            return "EVEN_BID";
-        }
-        if (total > dealt) {
-            return "OVER_BID";
-        }
-        return "UNDER_BID";
+        return GameRules.bidResultStatus(totalBets(), GameRules.cardsForRound(round));
     }
 
     private void scheduleBetSummaryPause() {
         betSummaryPending = true;
         bidResultStatus = resolveBidResultStatus();
-        long now = System.currentTimeMillis();
+        long now = ServerTime.currentTimeMillis();
         bidResultUntilMs = now + BET_SUMMARY_PAUSE_MS;
         pauseUntilMs = Math.max(pauseUntilMs, bidResultUntilMs);
         if (betSummaryTimeout != null) {
-            betSummaryTimeout.cancel(false);
+            betSummaryTimeout.cancel();
         }
-        betSummaryTimeout = scheduler.schedule(() -> {
-            synchronized (this) {
-                betSummaryTimeout = null;
-                if (state != State.INGAME || phase != GamePhase.BETTING || !betSummaryPending) {
-                    return;
-                }
-                betSummaryPending = false;
-                bidResultStatus = null;
-                bidResultUntilMs = 0;
-                phase = GamePhase.PLAYING;
-                currentTurnIndex = initiatorIndex;
-                advanceAfterStateChange();
-            }
-        }, BET_SUMMARY_PAUSE_MS, TimeUnit.MILLISECONDS);
+        betSummaryTimeout = scheduleCommand(this::closeBetting, BET_SUMMARY_PAUSE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void closeBetting() {
+        betSummaryTimeout = null;
+        if (state != State.INGAME || phase != GamePhase.BETTING || !betSummaryPending) {
+            return;
+        }
+        if (journalEvent()) {
+            GameJournal.recordBetsClosed(gameID);
+        }
+        betSummaryPending = false;
+        bidResultStatus = null;
+        bidResultUntilMs = 0;
+        phase = GamePhase.PLAYING;
+        currentTurnIndex = initiatorIndex;
+        advanceAfterStateChange();
     }
 
     private boolean isAutoPlayer(Player player) {
@@ -1023,59 +1112,384 @@ public class Game {
             return;
         }
         trickPending = true;
-        long now = System.currentTimeMillis();
+        long now = ServerTime.currentTimeMillis();
         pauseUntilMs = Math.max(pauseUntilMs, now + FINAL_CARD_DELAY_MS + TRICK_PAUSE_MS);
         if (trickCompleteTimeout != null) {
-            trickCompleteTimeout.cancel(false);
+            trickCompleteTimeout.cancel();
         }
-        trickCompleteTimeout = scheduler.schedule(() -> {
+        trickDeadlineMs = now + FINAL_CARD_DELAY_MS;
+        trickCompleteTimeout = scheduleCommand(this::resolveTrick, FINAL_CARD_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void resolveTrick() {
+        if (state != State.INGAME || phase == GamePhase.COMPLETED) {
+            trickPending = false;
+            return;
+        }
+        int winnerIndex = topDog != CardMask.NO_CARD ? trickSeats[topDog] : -1;
+        endSubRound();
+        if (journalEvent()) {
+            GameJournal.recordTrick(gameID, winnerIndex);
+        }
+        if (roundComplete()) {
+            advanceAfterStateChange();
+            scheduleRoundEnd();
+            return;
+        }
+        currentTurnIndex = initiatorIndex;
+        trickPending = false;
+        advanceAfterStateChange();
+    }
+
+    // Tracked so shutdown() also cancels the round-end pause.
+    private void scheduleRoundEnd() {
+        trickDeadlineMs = ServerTime.currentTimeMillis() + TRICK_PAUSE_MS;
+        trickCompleteTimeout = scheduleCommand(this::finishRound, TRICK_PAUSE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void finishRound() {
+        trickPending = false;
+        if (state != State.INGAME || phase == GamePhase.COMPLETED) {
+            return;
+        }
+        if (journalEvent()) {
+            GameJournal.recordRoundEnd(gameID, round);
+        }
+        endRound();
+    }
+
+    // Journal replay: each method applies one recorded event the way the live game
+    // did, and returns false if the event does not fit the rebuilt state.
+    synchronized boolean replayBet(int seat, int bet) {
+        pauseUntilMs = 0;
+        return seat < players.size() && handleBet(players.get(seat), bet);
+    }
+
+    synchronized boolean replayBetsClosed() {
+        if (phase != GamePhase.BETTING || !betSummaryPending) {
+            return false;
+        }
+        closeBetting();
+        return true;
+    }
+
+    synchronized boolean replayPlay(int seat, int card) {
+        pauseUntilMs = 0;
+        return seat < players.size() && card < CardMask.DECK_SIZE && handlePlay(players.get(seat), CardMask.key(card));
+    }
+
+    synchronized boolean replayTrick(int winnerSeat) {
+        if (!trickPending || topDog == CardMask.NO_CARD || trickSeats[topDog] != winnerSeat) {
+            return false;
+        }
+        resolveTrick();
+        return true;
+    }
+
+    synchronized boolean replayRoundEnd(int endedRound) {
+        if (!trickPending || !tableCards.isEmpty() || !roundComplete() || round != endedRound) {
+            return false;
+        }
+        finishRound();
+        return true;
+    }
+
+    // The forfeiting user leaves as GameHandler.forfeitUser left them.
+    synchronized boolean replayReplace(int seat, String botName) {
+        if (state != State.INGAME || seat >= players.size() || !(players.get(seat) instanceof User)) {
+            return false;
+        }
+        User user = (User) players.get(seat);
+        replaceWithBot(seat, botName);
+        user.markGameForfeited(gameID);
+        user.setGameID(-1);
+        return true;
+    }
+
+    // Ends the replay and re-arms whichever pause the last event left pending: from
+    // the deadlines a snapshot saved, or afresh once journal events were applied.
+    synchronized void resumeAfterRestore() {
+        replaying = false;
+        if (state == State.WAITING) {
+            scheduleReconnectGrace();
+            return;
+        }
+        long now = ServerTime.currentTimeMillis();
+        if (!timersSaved) {
+            pauseUntilMs = 0;
+            botOnlyDeadlineMs = 0;
+        }
+        // Pauses that ran out while the server was down never cleared the last trick.
+        if (!trickPending && tableCards.isEmpty() && now >= pauseUntilMs) {
+            displayCards.clear();
+        }
+        if (!timersSaved) {
+            if (betSummaryPending) {
+                scheduleBetSummaryPause();
+            } else if (trickPending && !tableCards.isEmpty()) {
+                trickPending = false;
+                scheduleTrickResolution();
+            } else if (trickPending) {
+                scheduleRoundEnd();
+            }
+        } else {
+            if (betSummaryPending) {
+                betSummaryTimeout = scheduleCommand(
+                    this::closeBetting,
+                    Math.max(0, bidResultUntilMs - now),
+                    TimeUnit.MILLISECONDS
+                );
+            } else if (trickPending) {
+                trickCompleteTimeout = scheduleCommand(
+                    tableCards.isEmpty() ? this::finishRound : this::resolveTrick,
+                    Math.max(0, trickDeadlineMs - now),
+                    TimeUnit.MILLISECONDS
+                );
+            }
+            savedTurnDeadlineMs = turnDeadlineMs;
+            timersSaved = false;
+        }
+        updateBotOnlyTimer();
+        advanceAfterStateChange();
+    }
+
+    // Nobody is connected when a waiting game comes back from a snapshot, so it gets
+    // the same grace as an in-game table before the usual empty-lobby rule applies.
+    private void scheduleReconnectGrace() {
+        reconnectGraceUntilMs = ServerTime.currentTimeMillis() + ALL_PLAYERS_DISCONNECTED_END_DELAY_MS;
+        botOnlyTimeout = scheduleCommand(() -> {
             synchronized (this) {
-                if (state != State.INGAME || phase == GamePhase.COMPLETED) {
-                    trickPending = false;
-                    return;
+                botOnlyTimeout = null;
+                if (state == State.WAITING && !hasOnlineHuman()) {
+                    ServerLog.info(SCOPE, "Nobody reconnected to restored waiting game " + gameID + ". Ending game.");
+                    GameHandler.end(this);
                 }
-                endSubRound();
-                if (roundComplete()) {
-                    advanceAfterStateChange();
-                    scheduler.schedule(() -> {
-                        synchronized (this) {
-                            if (state != State.INGAME || phase == GamePhase.COMPLETED) {
-                                trickPending = false;
-                                return;
-                            }
-                            trickPending = false;
-                            endRound();
-                        }
-                    }, TRICK_PAUSE_MS, TimeUnit.MILLISECONDS);
-                    return;
+            }
+        }, ALL_PLAYERS_DISCONNECTED_END_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized boolean inReconnectGrace() {
+        return ServerTime.currentTimeMillis() < reconnectGraceUntilMs;
+    }
+
+    // The record GameHistory keeps once the game ends: seats as they are now, and
+    // every round that was scored.
+    synchronized GameResult result() {
+        int seats = players.size();
+        int scored = phase == GamePhase.COMPLETED ? round : Math.max(0, round - 1);
+        String[] names = new String[seats];
+        String[] subs = new String[seats];
+        int[] scores = new int[seats];
+        for (int seat = 0; seat < seats; seat++) {
+            Player player = players.get(seat);
+            names[seat] = player.getUsername();
+            subs[seat] = player instanceof User ? ((User) player).getSub() : "";
+            scores[seat] = player.getScore();
+        }
+        byte[] bets = new byte[scored * seats];
+        byte[] tricks = new byte[scored * seats];
+        for (int r = 0; r < scored; r++) {
+            System.arraycopy(roundBets, r * GameRules.MAX_PLAYERS, bets, r * seats, seats);
+            System.arraycopy(roundTricks, r * GameRules.MAX_PLAYERS, tricks, r * seats, seats);
+        }
+        return new GameResult(
+            gameID,
+            seed,
+            ServerTime.currentTimeMillis(),
+            phase == GamePhase.COMPLETED,
+            scored,
+            names,
+            subs,
+            scores,
+            bets,
+            tricks
+        );
+    }
+
+    synchronized int getJournalEvents() {
+        return journalEvents;
+    }
+
+    // One game's state as of this instant, taken under the game lock so the capture is
+    // consistent without pausing the game for more than the copy.
+    synchronized byte[] captureSnapshot() {
+        return captureSnapshot(false);
+    }
+
+    // For comparing game state across a restart (JournalReplayCheck): what a restart
+    // does not carry over, the clock-derived deadlines and the push version counter,
+    // is written as 0.
+    synchronized byte[] captureSnapshot(boolean comparable) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(gameID);
+            out.writeLong(seed);
+            out.writeByte(state.ordinal());
+            out.writeByte(phase.ordinal());
+            out.writeByte(round);
+            out.writeByte(initiatorIndex);
+            out.writeByte(currentTurnIndex);
+            out.writeByte(trump != null ? trump.getIndex() : CardMask.NO_CARD);
+            out.writeByte(leadSuit != null ? leadSuit.ordinal() : -1);
+            out.writeLong(playedThisRound);
+            out.writeByte(players.size());
+            for (int seat = 0; seat < players.size(); seat++) {
+                Player player = players.get(seat);
+                if (player instanceof User) {
+                    User user = (User) player;
+                    out.writeBoolean(true);
+                    out.writeUTF(user.getSub());
+                    out.writeUTF(user.getUsername());
+                } else {
+                    Bot bot = (Bot) player;
+                    out.writeBoolean(false);
+                    out.writeUTF(bot.getUsername());
+                    out.writeUTF(bot.getCardBack());
+                    out.writeUTF(bot.getCardFront());
                 }
-                currentTurnIndex = initiatorIndex;
-                trickPending = false;
-                advanceAfterStateChange();
+                out.writeLong(player.getHandMask());
+                out.writeByte(player.getBet());
+                out.writeByte(player.getHandsWon());
+                out.writeShort(player.getScore());
+                out.writeBoolean(player.hasVoted());
+                out.writeLong(voidsBySeat[seat]);
             }
-        }, FINAL_CARD_DELAY_MS, TimeUnit.MILLISECONDS);
+            writePlayedCards(out, tableCards);
+            writePlayedCards(out, displayCards);
+            out.writeByte(lastTrickWinnerIndex);
+            out.writeByte(trickCounter);
+            out.writeLong(comparable ? 0 : pauseUntilMs);
+            out.writeLong(comparable ? 0 : turnDeadlineMs);
+            out.writeLong(comparable ? 0 : roundDealStartMs);
+            out.writeLong(comparable ? 0 : roundDealEndMs);
+            out.writeLong(roundDealTrumpDelayMs);
+            out.writeUTF(bidResultStatus != null ? bidResultStatus : "");
+            out.writeLong(comparable ? 0 : bidResultUntilMs);
+            out.writeLong(comparable ? 0 : trickDeadlineMs);
+            out.writeLong(comparable ? 0 : botOnlyDeadlineMs);
+            out.writeBoolean(betSummaryPending);
+            out.writeBoolean(trickPending);
+            out.writeLong(comparable ? 0 : stateVersion);
+            out.writeInt(journalEvents);
+            out.write(roundBets);
+            out.write(roundTricks);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writePlayedCards(DataOutputStream out, List<PlayedCard> cards) throws IOException {
+        out.writeByte(cards.size());
+        for (PlayedCard played : cards) {
+            out.writeByte(played.getCard().getIndex());
+            out.writeByte(played.getSeat());
+        }
+    }
+
+    private static void readPlayedCards(DataInputStream in, List<PlayedCard> cards) throws IOException {
+        int count = in.readUnsignedByte();
+        for (int i = 0; i < count; i++) {
+            cards.add(new PlayedCard(Card.of(in.readUnsignedByte()), in.readUnsignedByte()));
+        }
+    }
+
+    // Rebuilds a game from captureSnapshot(). Users are looked up (or recreated
+    // offline) by sub. The game stays in replay mode until resumeAfterRestore().
+    static Game readSnapshot(DataInputStream in) throws IOException {
+        Game game = new Game(in.readInt(), in.readLong());
+        synchronized (game) {
+            game.readSnapshotState(in);
+        }
+        return game;
+    }
+
+    private void readSnapshotState(DataInputStream in) throws IOException {
+        replaying = true;
+        timersSaved = true;
+        state = State.values()[in.readUnsignedByte()];
+        phase = GamePhase.values()[in.readUnsignedByte()];
+        round = in.readUnsignedByte();
+        initiatorIndex = in.readUnsignedByte();
+        currentTurnIndex = in.readUnsignedByte();
+        int trumpCard = in.readByte();
+        trump = trumpCard != CardMask.NO_CARD ? Card.of(trumpCard) : null;
+        int leadOrdinal = in.readByte();
+        leadSuit = leadOrdinal >= 0 ? Suits.values()[leadOrdinal] : null;
+        playedThisRound = in.readLong();
+        int seats = in.readUnsignedByte();
+        for (int seat = 0; seat < seats; seat++) {
+            Player player;
+            if (in.readBoolean()) {
+                player = User.restoreUser(in.readUTF(), in.readUTF());
+            } else {
+                Bot bot = new Bot(in.readUTF());
+                bot.setCardBack(in.readUTF());
+                bot.setCardFront(in.readUTF());
+                player = bot;
+            }
+            addPlayer(player);
+            player.setHandMask(in.readLong());
+            player.setBet(in.readByte());
+            player.handsWon = in.readUnsignedByte();
+            player.score = in.readShort();
+            player.hasVoted = in.readBoolean();
+            voidsBySeat[seat] = in.readLong();
+        }
+        readPlayedCards(in, tableCards);
+        readPlayedCards(in, displayCards);
+        for (PlayedCard played : tableCards) {
+            int card = played.getCard().getIndex();
+            trickSeats[card] = played.getSeat();
+            trickMask |= CardMask.bit(card);
+        }
+        topDog = trickMask != 0 ? CardMask.trickWinner(trickMask, trumpSuit(), leadSuit) : CardMask.NO_CARD;
+        lastTrickWinnerIndex = in.readByte();
+        trickCounter = in.readUnsignedByte();
+        pauseUntilMs = in.readLong();
+        turnDeadlineMs = in.readLong();
+        roundDealStartMs = in.readLong();
+        roundDealEndMs = in.readLong();
+        roundDealTrumpDelayMs = in.readLong();
+        String status = in.readUTF();
+        bidResultStatus = status.isEmpty() ? null : status;
+        bidResultUntilMs = in.readLong();
+        trickDeadlineMs = in.readLong();
+        botOnlyDeadlineMs = in.readLong();
+        betSummaryPending = in.readBoolean();
+        trickPending = in.readBoolean();
+        stateVersion = in.readLong();
+        journalEvents = in.readInt();
+        in.readFully(roundBets);
+        in.readFully(roundTricks);
+        // The generator is not serializable, but each round's shuffle is its only use,
+        // so replaying those shuffles puts it where the next round expects it.
+        random = new SplittableRandom(seed);
+        for (int dealt = 0; dealt < round && phase != GamePhase.WAITING; dealt++) {
+            deck.shuffle(random);
+        }
     }
 
     public synchronized boolean isActionLocked() {
-        return System.currentTimeMillis() < pauseUntilMs;
+        return ServerTime.currentTimeMillis() < pauseUntilMs;
     }
 
     private void scheduleUnlockNotification() {
         if (unlockNotifyTimeout != null) {
-            unlockNotifyTimeout.cancel(false);
+            unlockNotifyTimeout.cancel();
             unlockNotifyTimeout = null;
         }
-        long now = System.currentTimeMillis();
+        long now = ServerTime.currentTimeMillis();
         long delay = pauseUntilMs > now ? pauseUntilMs - now : 0;
         if (delay <= 0) {
             return;
         }
-        unlockNotifyTimeout = scheduler.schedule(() -> {
+        unlockNotifyTimeout = scheduleCommand(() -> {
             synchronized (this) {
                 if (state != State.INGAME || phase == GamePhase.COMPLETED) {
                     return;
                 }
-                if (System.currentTimeMillis() < pauseUntilMs) {
+                if (ServerTime.currentTimeMillis() < pauseUntilMs) {
                     return;
                 }
                 if (tableCards.isEmpty() && !displayCards.isEmpty()) {
@@ -5,64 +5,68 @@ import HTTPHandlers.PostAllUsersToLobby;
 import HTTPHandlers.PostGameState;
 import HTTPHandlers.PostUserInfo;
 import HTTPHandlers.ServerLog;
-import org.json.JSONObject;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class GameHandler {
     private static final String SCOPE = "GameHandler";
-    private static final HashMap<Integer, Game> games = new HashMap<>();
-    private static final HashMap<Integer, Game> history = new HashMap<>();
 
     public static Game getGame(int gameID) {
-        return games.get(gameID);
+        return GameRegistry.get(gameID);
     }
 
     public static void start(Game game) {
         if (game == null) {
             return;
         }
-        ServerLog.info(SCOPE, "Starting game " + game.getGameID());
-        game.startGame();
-        PostAllGamesInfo.postAllGamesToLobby();
+        game.execute(() -> {
+            ServerLog.info(SCOPE, "Starting game " + game.getGameID() + " (seed " + game.getSeed() + ")");
+            game.startGame();
+            PostAllGamesInfo.postAllGamesToLobby();
+        });
     }
 
-    public static void handleBet(User user, int bet) {
-        if (user == null || user.getGameID() == -1) {
-            return;
-        }
-        Game game = getGame(user.getGameID());
+    // Bets and plays are queued on the game's mailbox; callers may await the result.
+    public static CompletableFuture<Boolean> handleBet(User user, int bet) {
+        Game game = user != null ? getGame(user.getGameID()) : null;
         if (game == null) {
-            return;
+            return CompletableFuture.completedFuture(false);
         }
-        game.handleBet(user, bet);
+        return game.submit(() -> game.handleBet(user, bet));
     }
 
-    public static void handlePlay(User user, String cardKey) {
-        if (user == null || user.getGameID() == -1) {
-            return;
-        }
-        Game game = getGame(user.getGameID());
+    public static CompletableFuture<Boolean> handlePlay(User user, String cardKey) {
+        Game game = user != null ? getGame(user.getGameID()) : null;
         if (game == null) {
-            return;
+            return CompletableFuture.completedFuture(false);
         }
-        game.handlePlay(user, cardKey);
+        return game.submit(() -> game.handlePlay(user, cardKey));
     }
 
+    // Membership changes run on the mailbox of the game the user is in (if any) and
+    // are awaited, so the caller's follow-up pushes see the result.
     public static void forfeitUser(User user) {
         if (user == null) {
             return;
         }
+        onUserGame(user, () -> forfeitUserInGame(user));
+    }
+
+    private static void onUserGame(User user, Runnable command) {
+        Game game = getGame(user.getGameID());
+        if (game == null) {
+            command.run();
+        } else {
+            game.call(command);
+        }
+    }
+
+    private static void forfeitUserInGame(User user) {
         if (user.getGameID() != -1) {
             user.markGameForfeited(user.getGameID());
         }
         if (user.getGameID() == -1) {
-            if (cleanupOrphanedMemberships()) {
-                PostAllGamesInfo.postAllGamesToLobby();
-            }
             return;
         }
         Game game = getGame(user.getGameID());
@@ -72,9 +76,6 @@ public class GameHandler {
             user.unsetVote();
             PostUserInfo.postUserInfo(user);
             PostAllUsersToLobby.postAllUsersToLobby();
-            if (cleanupOrphanedMemberships()) {
-                PostAllGamesInfo.postAllGamesToLobby();
-            }
             return;
         }
 
@@ -92,9 +93,6 @@ public class GameHandler {
                     "All players forfeited for game " + gameId + ". Ending immediately."
                 );
                 end(game);
-                if (cleanupOrphanedMemberships()) {
-                    PostAllGamesInfo.postAllGamesToLobby();
-                }
                 return;
             }
             if (replaced) {
@@ -105,7 +103,6 @@ public class GameHandler {
                     PostGameState.postGameState(active);
                 }
             }
-            cleanupOrphanedMemberships();
             PostAllGamesInfo.postAllGamesToLobby();
             return;
         }
@@ -114,7 +111,6 @@ public class GameHandler {
         if (game.getPlayers().isEmpty()) {
             end(game);
         } else {
-            cleanupOrphanedMemberships();
             PostAllGamesInfo.postAllGamesToLobby();
         }
         PostAllUsersToLobby.postAllUsersToLobby();
@@ -122,10 +118,17 @@ public class GameHandler {
 
     public static void addGameToLobby(Game game) {
         ServerLog.info(SCOPE, "Adding game " + game.getGameID() + " to lobby");
-        games.put(game.getGameID(), game);
+        GameRegistry.register(game);
         game.setState(State.WAITING);
     }
 
+    // Registers a game rebuilt from a snapshot or the journal and restarts its clocks.
+    static void restoreGame(Game game) {
+        GameRegistry.register(game);
+        game.call(game::resumeAfterRestore);
+        ServerLog.info(SCOPE, "Restored game " + game.getGameID() + " at round " + game.getRound());
+    }
+
     public static void end(Game game) {
         if (game == null) {
             return;
@@ -143,6 +146,10 @@ public class GameHandler {
         if (game == null) {
             return;
         }
+        game.call(() -> removeUserFromGame(game, u));
+    }
+
+    private static void removeUserFromGame(Game game, Player u) {
         if (game.getState() == State.INGAME && u instanceof User) {
             ServerLog.info(
                 SCOPE,
@@ -156,7 +163,6 @@ public class GameHandler {
             end(game);
             return;
         }
-        cleanupOrphanedMemberships();
         PostAllGamesInfo.postAllGamesToLobby();
         if (u instanceof User) {
             PostAllUsersToLobby.postAllUsersToLobby();
@@ -197,6 +203,11 @@ public class GameHandler {
         if (game == null || u == null) {
             return false;
         }
+        return game.call(() -> addUserToGame(game, u));
+    }
+
+    private static boolean addUserToGame(Game game, User u) {
+        int gameID = game.getGameID();
         if (u.hasForfeitedGame(gameID)) {
             ServerLog.warn(
                 SCOPE,
@@ -211,7 +222,6 @@ public class GameHandler {
         }
         game.addPlayer(u);
         u.setState(State.WAITING);
-        cleanupOrphanedMemberships();
         ServerLog.info(SCOPE, u.getUsername() + " added to game " + game.getGameID());
         return true;
     }
@@ -235,64 +245,21 @@ public class GameHandler {
         return ready;
     }
 
-    public static JSONObject getLobbyGames() {
-        cleanupOrphanedMemberships();
-        JSONObject lobby = new JSONObject();
-        for (Game game : new ArrayList<>(games.values())) {
-            ArrayList<Player> players = getRenderablePlayers(game);
-            if (players.isEmpty()) {
-                continue;
-            }
-            JSONObject gameJson = new JSONObject();
-            String host = players.get(0).getUsername();
-            gameJson.put("host", host);
-            for (int i = 0; i < 5; i++) {
-                boolean hasPlayer = i < players.size();
-                Player player = hasPlayer ? players.get(i) : null;
-                boolean voted = hasPlayer && player.hasVoted();
-                if (!hasPlayer) {
-                    gameJson.put("player" + (i + 1), "Empty");
-                } else {
-                    JSONObject playerJson = new JSONObject();
-                    playerJson.put("name", player.getUsername());
-                    playerJson.put("isBot", player instanceof Bot);
-                    if (player instanceof User) {
-                        User user = (User) player;
-                        playerJson.put("isOffline", !user.isOnline());
-                        playerJson.put("cardBack", user.getCardBack());
-                        playerJson.put("cardFront", user.getCardFront());
-                    } else if (player instanceof Bot) {
-                        Bot bot = (Bot) player;
-                        playerJson.put("isOffline", false);
-                        playerJson.put("cardBack", bot.getCardBack());
-                        playerJson.put("cardFront", bot.getCardFront());
-                    }
-                    gameJson.put("player" + (i + 1), playerJson);
-                }
-                gameJson.put("player" + (i + 1) + "Voted", voted);
-            }
-            gameJson.put("hostVoted", !players.isEmpty() && players.get(0).hasVoted());
-            gameJson.put("state", game.getState().toString());
-            gameJson.put("round", game.getRound());
-            lobby.put(String.valueOf(game.getGameID()), gameJson);
-        }
-        return lobby;
-    }
-
+    // The lobby's "games" object, from the materialized LobbyView.
     public static String getLobbyGamesJson() {
-        return getLobbyGames().toString();
+        return LobbyView.render();
     }
 
     public static void handleUserConnected(User user) {
         if (user == null) {
             return;
         }
-        boolean cleaned = cleanupOrphanedMemberships();
+        onUserGame(user, () -> handleUserConnectedInGame(user));
+    }
+
+    private static void handleUserConnectedInGame(User user) {
         if (user.getGameID() == -1) {
             user.setState(State.LOBBY);
-            if (cleaned) {
-                PostAllGamesInfo.postAllGamesToLobby();
-            }
             return;
         }
         if (user.hasForfeitedGame(user.getGameID())) {
@@ -303,18 +270,12 @@ public class GameHandler {
                     + ". Forcing lobby state."
             );
             forfeitUser(user);
-            if (cleaned) {
-                PostAllGamesInfo.postAllGamesToLobby();
-            }
             return;
         }
         Game game = getGame(user.getGameID());
         if (game == null) {
             user.setState(State.LOBBY);
             user.setGameID(-1);
-            if (cleaned) {
-                PostAllGamesInfo.postAllGamesToLobby();
-            }
             return;
         }
         if (game.getState() == State.WAITING) {
@@ -325,23 +286,34 @@ public class GameHandler {
         game.updateBotOnlyTimer();
         game.refreshTurnTimer();
         PostGameState.postGameState(game);
-        if (cleaned) {
-            PostAllGamesInfo.postAllGamesToLobby();
-        }
     }
 
     public static void handleUserDisconnected(User user) {
+        if (user == null) {
+            handleUserDisconnectedInGame(null);
+            return;
+        }
+        onUserGame(user, () -> handleUserDisconnectedInGame(user));
+    }
+
+    // Like handleUserDisconnected, but queued on the game's mailbox instead of
+    // awaited, for callers that must not block on a busy game.
+    public static void handleUserDisconnectedLater(User user) {
+        if (user == null) {
+            return;
+        }
+        Game game = getGame(user.getGameID());
+        if (game != null) {
+            game.execute(() -> handleUserDisconnectedInGame(user));
+        }
+    }
+
+    private static void handleUserDisconnectedInGame(User user) {
         if (user == null || user.getGameID() == -1) {
-            if (cleanupOrphanedMemberships()) {
-                PostAllGamesInfo.postAllGamesToLobby();
-            }
             return;
         }
         Game game = getGame(user.getGameID());
         if (game == null) {
-            if (cleanupOrphanedMemberships()) {
-                PostAllGamesInfo.postAllGamesToLobby();
-            }
             return;
         }
         if (game.getState() == State.WAITING && !game.hasOnlineHumanPlayers()) {
@@ -350,9 +322,6 @@ public class GameHandler {
                 "No online players remain in waiting game " + game.getGameID() + ". Ending immediately."
             );
             end(game);
-            if (cleanupOrphanedMemberships()) {
-                PostAllGamesInfo.postAllGamesToLobby();
-            }
             return;
         }
         if (!game.hasHumanPlayers()) {
@@ -361,31 +330,28 @@ public class GameHandler {
                 "Game " + game.getGameID() + " has no human players. Ending immediately."
             );
             end(game);
-            if (cleanupOrphanedMemberships()) {
-                PostAllGamesInfo.postAllGamesToLobby();
-            }
             return;
         }
         game.updateBotOnlyTimer();
         game.refreshTurnTimer();
         PostGameState.postGameState(game);
-        if (cleanupOrphanedMemberships()) {
-            PostAllGamesInfo.postAllGamesToLobby();
-        }
     }
 
     private static void endInternal(Game game, boolean doHistoryStore, boolean postLobby) {
-        if (game == null || getGame(game.getGameID()) == null) {
+        // Claim the game first so concurrent end requests tear it down only once.
+        if (game == null || !GameRegistry.remove(game)) {
             return;
         }
         game.setState(State.COMPLETED);
+        // Taken before detaching, while every seat is still in place.
+        GameResult result = doHistoryStore ? game.result() : null;
         ArrayList<Player> snapshot = new ArrayList<>(game.getPlayers());
         for (Player player : snapshot) {
             detachPlayerFromGame(game, player);
         }
-        games.remove(game.getGameID());
         if (doHistoryStore) {
-            history.put(game.getGameID(), game);
+            GameHistory.record(result);
+            GameJournal.recordEnd(game.getGameID());
         }
         game.shutdown();
         if (postLobby) {
@@ -393,106 +359,66 @@ public class GameHandler {
         }
     }
 
-    private static boolean cleanupOrphanedMemberships() {
+    // Repairs one game's memberships; MembershipReconciler runs this on the game's
+    // mailbox for each game marked dirty, and for every game in its periodic audit.
+    // Seats whose user has moved to another game are forfeited (in game) or freed
+    // (waiting), and a game left with nobody to play it is ended. Returns true if
+    // the lobby list changed.
+    static boolean reconcile(Game game) {
+        if (game == null || getGame(game.getGameID()) != game) {
+            return false;
+        }
         boolean changed = false;
-        ArrayList<Game> snapshot = new ArrayList<>(games.values());
-        ArrayList<Game> gamesToEnd = new ArrayList<>();
-        Set<Integer> gamesToRefresh = new LinkedHashSet<>();
-
-        for (Game game : snapshot) {
-            if (game == null || getGame(game.getGameID()) == null) {
+        for (Player player : game.getPlayers()) {
+            if (!(player instanceof User)) {
                 continue;
             }
-            ArrayList<Player> playerSnapshot = new ArrayList<>(game.getPlayers());
-            boolean gameChanged = false;
-
-            for (Player player : playerSnapshot) {
-                if (!(player instanceof User)) {
-                    continue;
-                }
-                User user = (User) player;
-                if (user.getGameID() == game.getGameID()) {
-                    continue;
-                }
-                ServerLog.warn(
-                    SCOPE,
-                    "Detected stale membership for " + user.getUsername()
-                        + " in game " + game.getGameID()
-                        + " while active gameID is " + user.getGameID()
-                );
+            User user = (User) player;
+            if (user.getGameID() == game.getGameID()) {
+                continue;
+            }
+            ServerLog.warn(
+                SCOPE,
+                "Detected stale membership for " + user.getUsername()
+                    + " in game " + game.getGameID()
+                    + " while active gameID is " + user.getGameID()
+            );
 
-                if (game.getState() == State.INGAME) {
-                    user.markGameForfeited(game.getGameID());
-                    boolean replaced = game.replaceUserWithBot(user);
-                    if (!replaced) {
-                        game.removePlayer(user);
-                    }
-                    game.updateBotOnlyTimer();
-                    game.refreshTurnTimer();
-                    PostUserInfo.postUserInfo(user);
-                    gamesToRefresh.add(game.getGameID());
-                } else {
+            if (game.getState() == State.INGAME) {
+                user.markGameForfeited(game.getGameID());
+                boolean replaced = game.replaceUserWithBot(user);
+                if (!replaced) {
                     game.removePlayer(user);
                 }
-                changed = true;
-                gameChanged = true;
-            }
-
-            if (game.getPlayers().isEmpty()) {
-                gamesToEnd.add(game);
-                continue;
-            }
-            if (game.getState() == State.INGAME && !game.hasHumanPlayers()) {
-                gamesToEnd.add(game);
-                continue;
-            }
-            if (game.getState() == State.WAITING && !game.hasOnlineHumanPlayers()) {
-                gamesToEnd.add(game);
-                continue;
-            }
-            if (gameChanged && game.getState() == State.INGAME) {
-                gamesToRefresh.add(game.getGameID());
+                game.updateBotOnlyTimer();
+                game.refreshTurnTimer();
+                PostUserInfo.postUserInfo(user);
+            } else {
+                game.removePlayer(user);
             }
+            changed = true;
         }
 
-        for (Game game : gamesToEnd) {
-            if (game == null || getGame(game.getGameID()) == null) {
-                continue;
-            }
+        if (
+            game.getPlayers().isEmpty()
+                || (game.getState() == State.INGAME && !game.hasHumanPlayers())
+                || (
+                    game.getState() == State.WAITING
+                        && !game.hasOnlineHumanPlayers()
+                        && !game.inReconnectGrace()
+                )
+        ) {
             ServerLog.info(
                 SCOPE,
                 "Cleaning up abandoned game " + game.getGameID() + " during membership reconciliation."
             );
             boolean doHistoryStore = !game.getState().equals(State.WAITING);
             endInternal(game, doHistoryStore, false);
-            changed = true;
-            gamesToRefresh.remove(game.getGameID());
+            return true;
         }
-
-        for (Integer gameId : gamesToRefresh) {
-            Game active = getGame(gameId);
-            if (active != null && active.getState() == State.INGAME) {
-                PostGameState.postGameState(active);
-            }
+        if (changed && game.getState() == State.INGAME) {
+            PostGameState.postGameState(game);
         }
-
         return changed;
     }
-
-    private static ArrayList<Player> getRenderablePlayers(Game game) {
-        ArrayList<Player> players = new ArrayList<>();
-        if (game == null) {
-            return players;
-        }
-        for (Player player : game.getPlayers()) {
-            if (player instanceof User) {
-                User user = (User) player;
-                if (user.getGameID() != game.getGameID()) {
-                    continue;
-                }
-            }
-            players.add(player);
-        }
-        return players;
-    }
 }
@@ -0,0 +1,378 @@
+package GameHandlers;
+
+import HTTPHandlers.LatencyStats;
+import HTTPHandlers.ServerConfig;
+import HTTPHandlers.ServerLog;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Results of finished games, kept on disk instead of on the heap. Each GameResult is
+// appended to the current segment file; the gameID -> position index lives in a
+// direct buffer (8 bytes per game ID, outside the heap), and only the most recently
+// ended or read results stay in an LRU on the heap. Once there are more than
+// maxSegments, the oldest is deleted and its games are forgotten. The index covers
+// only the IDs from the lowest game in a retained segment up, and is compacted to
+// that window whenever a segment is deleted, so it is bounded like the disk is.
+//
+// Record: [int length][int crc32][GameResult.encode()]. At startup the segments are
+// scanned to rebuild the index; a torn or mismatched record ends a segment.
+public final class GameHistory {
+    private static final String SCOPE = "GameHistory";
+    private static final int FRAME_BYTES = 8;
+    private static final int INITIAL_INDEX_SLOTS = 1 << 12;
+    // Index entries pack (segment + 1) << OFFSET_BITS | offset; zero is "absent".
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final boolean ENABLED = ServerConfig.getBoolean("ohhell.history.enabled", true);
+    private static final Path DIR = Path.of(ServerConfig.getString("ohhell.history.dir", "history"));
+    private static final long SEGMENT_BYTES =
+        Math.max(64 * 1024, ServerConfig.getLong("ohhell.history.segmentBytes", 64L * 1024 * 1024));
+    private static final int MAX_SEGMENTS = Math.max(1, ServerConfig.getInt("ohhell.history.maxSegments", 32));
+    private static final int CACHE_SIZE = Math.max(1, ServerConfig.getInt("ohhell.history.cacheSize", 256));
+
+    private static final CRC32 crc = new CRC32();
+    private static final ArrayDeque<Long> segments = new ArrayDeque<>();
+    private static LongBuffer index = ByteBuffer.allocateDirect(INITIAL_INDEX_SLOTS * Long.BYTES).asLongBuffer();
+    // Game ID at index slot 0.
+    private static int indexBase = 1;
+    private static final TreeMap<Long, Integer> lowestIDBySegment = new TreeMap<>();
+    private static FileChannel channel;
+    private static long segmentSeq;
+    private static long segmentSize;
+    private static long oldestSeq;
+
+    private static final Map<Integer, GameResult> recent = new LinkedHashMap<>(CACHE_SIZE * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, GameResult> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static final LongAdder appendedCount = new LongAdder();
+    private static final LongAdder appendedBytes = new LongAdder();
+    private static final LongAdder failedCount = new LongAdder();
+    private static final LongAdder cacheHits = new LongAdder();
+    private static final LongAdder diskReads = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder deletedSegments = new LongAdder();
+    private static final LatencyStats appendLatency = new LatencyStats();
+    private static volatile int indexedGames;
+    // Highest ID ever indexed, retained or not; reserved at startup.
+    private static int highestGameID;
+
+    private GameHistory() {}
+
+    // Indexes the segments already on disk and opens a new one for appends. Call once
+    // at startup, before games can end; until then results only reach the LRU.
+    public static synchronized void open() {
+        if (!ENABLED || channel != null) {
+            return;
+        }
+        try {
+            Files.createDirectories(DIR);
+            long startNanos = System.nanoTime();
+            List<Long> seqs = listSegments();
+            for (long seq : seqs) {
+                indexSegment(seq);
+                segments.addLast(seq);
+            }
+            openSegment(seqs.isEmpty() ? 1 : seqs.get(seqs.size() - 1) + 1);
+            dropOldSegments();
+            // New games must not reuse an ID the index still answers for.
+            GameRegistry.reserveGameIDs(highestGameID);
+            ServerLog.info(
+                SCOPE,
+                "Indexed " + indexedGames + " finished games from " + seqs.size() + " segments in "
+                    + (System.nanoTime() - startNanos) / 1_000_000 + " ms"
+            );
+        } catch (IOException | RuntimeException e) {
+            ServerLog.error(SCOPE, "Could not open game history in " + DIR.toAbsolutePath() + "; keeping recent games in memory only.", e);
+            channel = null;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(GameHistory::close, "game-history-shutdown"));
+    }
+
+    public static synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            ServerLog.warn(SCOPE, "Could not close history segment " + segmentSeq + ": " + e.getMessage());
+        }
+        channel = null;
+    }
+
+    // Appends without forcing: the page cache survives a server crash, and a record
+    // lost to a host crash costs one game's summary, not a table in progress.
+    static void record(GameResult result) {
+        long startNanos = System.nanoTime();
+        byte[] bytes = result.encode();
+        synchronized (GameHistory.class) {
+            recent.put(result.getGameID(), result);
+            if (channel == null) {
+                return;
+            }
+            try {
+                if (segmentSize + FRAME_BYTES + bytes.length > SEGMENT_BYTES && segmentSize > 0) {
+                    rotate();
+                }
+                ByteBuffer frame = ByteBuffer.allocate(FRAME_BYTES + bytes.length);
+                crc.reset();
+                crc.update(bytes);
+                frame.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+                long offset = segmentSize;
+                while (frame.hasRemaining()) {
+                    segmentSize += channel.write(frame, segmentSize);
+                }
+                putIndex(result.getGameID(), segmentSeq, offset);
+                appendedCount.increment();
+                appendedBytes.add(frame.capacity());
+            } catch (IOException e) {
+                failedCount.increment();
+                ServerLog.error(SCOPE, "Could not append game " + result.getGameID() + " to history.", e);
+                return;
+            }
+        }
+        appendLatency.recordNanos(System.nanoTime() - startNanos);
+    }
+
+    // The result of a finished game, or null if it is unknown or has aged out.
+    public static GameResult find(int gameID) {
+        long entry;
+        synchronized (GameHistory.class) {
+            GameResult cached = recent.get(gameID);
+            if (cached != null) {
+                cacheHits.increment();
+                return cached;
+            }
+            long slot = (long) gameID - indexBase;
+            entry = gameID > 0 && slot >= 0 && slot < index.capacity() ? index.get((int) slot) : 0;
+            if (entry == 0 || segmentOf(entry) < oldestSeq) {
+                misses.increment();
+                return null;
+            }
+        }
+        GameResult result;
+        try {
+            result = read(segmentOf(entry), entry & OFFSET_MASK);
+        } catch (NoSuchFileException e) {
+            misses.increment();
+            return null;
+        } catch (IOException e) {
+            failedCount.increment();
+            ServerLog.error(SCOPE, "Could not read game " + gameID + " from history.", e);
+            return null;
+        }
+        diskReads.increment();
+        synchronized (GameHistory.class) {
+            recent.put(gameID, result);
+        }
+        return result;
+    }
+
+    private static GameResult read(long seq, long offset) throws IOException {
+        try (FileChannel file = FileChannel.open(segmentPath(seq), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(FRAME_BYTES);
+            readFully(file, header, offset);
+            int length = header.getInt(0);
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(file, body, offset + FRAME_BYTES);
+            CRC32 check = new CRC32();
+            check.update(body.array());
+            if ((int) check.getValue() != header.getInt(4)) {
+                throw new IOException("Checksum mismatch in history segment " + seq + " at " + offset + ".");
+            }
+            return GameResult.decode(new DataInputStream(new ByteArrayInputStream(body.array())));
+        }
+    }
+
+    private static void readFully(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("History record past the end of its segment.");
+            }
+        }
+    }
+
+    private static long segmentOf(long entry) {
+        return (entry >>> OFFSET_BITS) - 1;
+    }
+
+    private static void putIndex(int gameID, long seq, long offset) {
+        if (gameID <= 0) {
+            return;
+        }
+        lowestIDBySegment.merge(seq, gameID, Math::min);
+        highestGameID = Math.max(highestGameID, gameID);
+        if (indexedGames == 0) {
+            indexBase = gameID;
+        }
+        if (gameID < indexBase || (long) gameID - indexBase >= index.capacity()) {
+            reindex(Math.min(indexBase, gameID));
+        }
+        int slot = gameID - indexBase;
+        if (index.get(slot) == 0) {
+            indexedGames++;
+        }
+        index.put(slot, (seq + 1) << OFFSET_BITS | offset);
+    }
+
+    // Copies the entries still in retained segments into a buffer covering base up to
+    // the highest ID, dropping the rest; the buffer shrinks as well as grows.
+    private static void reindex(int base) {
+        int slots = INITIAL_INDEX_SLOTS;
+        while (slots < (long) highestGameID - base + 1) {
+            slots <<= 1;
+        }
+        LongBuffer rebuilt = ByteBuffer.allocateDirect(slots * Long.BYTES).asLongBuffer();
+        int kept = 0;
+        for (int slot = 0; slot < index.capacity(); slot++) {
+            long entry = index.get(slot);
+            long gameID = (long) indexBase + slot;
+            if (entry == 0 || segmentOf(entry) < oldestSeq || gameID < base || gameID - base >= slots) {
+                continue;
+            }
+            rebuilt.put((int) (gameID - base), entry);
+            kept++;
+        }
+        index = rebuilt;
+        indexBase = base;
+        indexedGames = kept;
+    }
+
+    // Rebuilds the index entries of one segment, stopping at a torn tail.
+    private static void indexSegment(long seq) throws IOException {
+        Path path = segmentPath(seq);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            long offset = 0;
+            long size = Files.size(path);
+            while (offset + FRAME_BYTES <= size) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || offset + FRAME_BYTES + length > size) {
+                    ServerLog.warn(SCOPE, "Torn record at the end of history segment " + seq + ".");
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                crc.reset();
+                crc.update(bytes);
+                if ((int) crc.getValue() != checksum) {
+                    ServerLog.warn(SCOPE, "Checksum mismatch at the end of history segment " + seq + ".");
+                    break;
+                }
+                putIndex(ByteBuffer.wrap(bytes).getInt(0), seq, offset);
+                offset += FRAME_BYTES + length;
+            }
+        }
+    }
+
+    private static void rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        openSegment(segmentSeq + 1);
+        dropOldSegments();
+    }
+
+    private static void openSegment(long seq) throws IOException {
+        channel = FileChannel.open(segmentPath(seq), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segmentSeq = seq;
+        segmentSize = 0;
+        segments.addLast(seq);
+    }
+
+    // The index is then compacted to the games of the retained segments.
+    private static void dropOldSegments() {
+        if (segments.size() <= MAX_SEGMENTS) {
+            return;
+        }
+        while (segments.size() > MAX_SEGMENTS) {
+            long seq = segments.removeFirst();
+            oldestSeq = seq + 1;
+            lowestIDBySegment.remove(seq);
+            try {
+                Files.deleteIfExists(segmentPath(seq));
+                deletedSegments.increment();
+            } catch (IOException e) {
+                ServerLog.warn(SCOPE, "Could not delete history segment " + seq + ": " + e.getMessage());
+            }
+        }
+        int lowest = highestGameID;
+        for (int gameID : lowestIDBySegment.values()) {
+            lowest = Math.min(lowest, gameID);
+        }
+        reindex(Math.max(1, lowest));
+    }
+
+    private static List<Long> listSegments() throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(DIR)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        seqs.add(Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())
+                        ));
+                    } catch (NumberFormatException e) {
+                        ServerLog.warn(SCOPE, "Ignoring unexpected file in history directory: " + name);
+                    }
+                }
+            });
+        }
+        seqs.sort(null);
+        return seqs;
+    }
+
+    private static Path segmentPath(long seq) {
+        return DIR.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+    }
+
+    public static JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        synchronized (GameHistory.class) {
+            json.put("enabled", channel != null);
+            json.put("segments", segments.size());
+            json.put("cached", recent.size());
+            json.put("indexBytes", (long) index.capacity() * Long.BYTES);
+            json.put("indexLowestGameID", indexBase);
+        }
+        json.put("indexedGames", indexedGames);
+        json.put("appended", appendedCount.sum());
+        json.put("bytes", appendedBytes.sum());
+        json.put("failed", failedCount.sum());
+        json.put("segmentsDeleted", deletedSegments.sum());
+        json.put("cacheHits", cacheHits.sum());
+        json.put("diskReads", diskReads.sum());
+        json.put("misses", misses.sum());
+        json.put("append", appendLatency.toJson());
+        return json;
+    }
+}
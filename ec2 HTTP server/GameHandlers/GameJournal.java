@@ -0,0 +1,598 @@
+package GameHandlers;
+
+import HTTPHandlers.HTTPServer;
+import HTTPHandlers.LatencyStats;
+import HTTPHandlers.ServerConfig;
+import HTTPHandlers.ServerLog;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only log of game mutations, replayed at startup to rebuild the games that
+// were in progress. Games encode each event into a few bytes and queue it without
+// blocking; one writer thread frames queued events into memory-mapped segment files
+// and forces each batch to disk once (group commit), so a bet or play never waits
+// on I/O. A game's deals follow from its seed, so its START event plus the bets,
+// plays, trick resolutions and replacements recorded since rebuild it exactly.
+// A segment is deleted once every game that wrote to it has ended.
+//
+// Record: [int length][int crc32][byte type][int gameID][payload]. A zero length
+// ends a segment's data; a short or mismatched record is a torn tail and ends it too.
+public final class GameJournal {
+    private static final String SCOPE = "GameJournal";
+    static final byte START = 1;
+    static final byte BET = 2;
+    static final byte BETS_CLOSED = 3;
+    static final byte PLAY = 4;
+    static final byte TRICK = 5;
+    static final byte ROUND_END = 6;
+    static final byte REPLACE = 7;
+    static final byte END = 8;
+    private static final byte SEAT_USER = 0;
+    private static final byte SEAT_BOT = 1;
+    private static final int HEADER_BYTES = 5;
+    private static final int FRAME_BYTES = 8;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final boolean ENABLED = ServerConfig.getBoolean("ohhell.journal.enabled", true);
+    private static final Path DIR = Path.of(ServerConfig.getString("ohhell.journal.dir", "journal"));
+    private static final int SEGMENT_BYTES = Math.max(
+        64 * 1024,
+        ServerConfig.getInt("ohhell.journal.segmentBytes", 16 * 1024 * 1024)
+    );
+    private static final long FLUSH_NANOS =
+        TimeUnit.MILLISECONDS.toNanos(Math.max(1, ServerConfig.getLong("ohhell.journal.flushMs", 5)));
+    private static final int MAX_QUEUED = Math.max(1_024, ServerConfig.getInt("ohhell.journal.maxQueued", 65_536));
+
+    private static final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger queued = new AtomicInteger();
+    // Games that lost an event to a full queue; the rest of their events are dropped.
+    private static final Set<Integer> truncatedGames = ConcurrentHashMap.newKeySet();
+    private static volatile boolean running;
+    private static Thread writer;
+
+    // Owned by the writer thread once it starts; replay fills them in before that.
+    private static final CRC32 crc = new CRC32();
+    private static final TreeMap<Long, Set<Integer>> segmentGames = new TreeMap<>();
+    private static final Set<Integer> liveGames = new HashSet<>();
+    private static FileChannel channel;
+    private static MappedByteBuffer segment;
+    private static long segmentSeq;
+    private static int syncedTo;
+
+    private static final LongAdder appendedCount = new LongAdder();
+    private static final LongAdder appendedBytes = new LongAdder();
+    private static final LongAdder batchCount = new LongAdder();
+    private static final LongAdder deletedSegments = new LongAdder();
+    private static final LongAdder failedCount = new LongAdder();
+    private static final LongAdder droppedCount = new LongAdder();
+    private static final LatencyStats syncLatency = new LatencyStats();
+    private static volatile int restoredGames;
+    private static volatile int replayedEvents;
+    private static volatile long replayMs;
+
+    private GameJournal() {}
+
+    // Replays the journal into GameHandler, then starts the writer. Call once at
+    // startup, before the server accepts requests. snapshotGames are the in-game
+    // tables GameSnapshot restored; the journal brings each one up to date.
+    public static synchronized void recover(Map<Integer, Game> snapshotGames) {
+        if (running) {
+            return;
+        }
+        if (!ENABLED) {
+            ServerLog.info(SCOPE, "Game journal disabled; games resume from the last snapshot only.");
+            restoreSnapshotGames(snapshotGames, false);
+            return;
+        }
+        try {
+            Files.createDirectories(DIR);
+            long startNanos = System.nanoTime();
+            long lastSeq = replay(snapshotGames);
+            replayMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            openSegment(lastSeq + 1);
+            dropFinishedSegments();
+        } catch (IOException | RuntimeException e) {
+            ServerLog.error(SCOPE, "Could not open the game journal in " + DIR.toAbsolutePath() + ".", e);
+            restoreSnapshotGames(snapshotGames, false);
+            return;
+        }
+        restoreSnapshotGames(snapshotGames, true);
+        ServerLog.info(
+            SCOPE,
+            "Replayed " + replayedEvents + " events in " + replayMs + " ms; restored "
+                + restoredGames + " games from " + DIR.toAbsolutePath()
+        );
+        running = true;
+        writer = HTTPServer.namedThreadFactory("game-journal-").newThread(GameJournal::runWriter);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(GameJournal::close, "game-journal-shutdown"));
+    }
+
+    // Stops the writer after it has written and forced everything queued so far.
+    public static void close() {
+        Thread current = writer;
+        if (!running || current == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(current);
+        try {
+            current.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static void recordStart(int gameID, long seed, List<Player> seats) {
+        if (!running) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + seats.size() * 48);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(START);
+            out.writeInt(gameID);
+            out.writeLong(seed);
+            out.writeByte(seats.size());
+            for (Player seat : seats) {
+                if (seat instanceof User) {
+                    User user = (User) seat;
+                    out.writeByte(SEAT_USER);
+                    out.writeUTF(user.getUsername());
+                    out.writeUTF(user.getCardBack());
+                    out.writeUTF(user.getCardFront());
+                    out.writeUTF(user.getSub());
+                } else {
+                    Bot bot = (Bot) seat;
+                    out.writeByte(SEAT_BOT);
+                    out.writeUTF(bot.getUsername());
+                    out.writeUTF(bot.getCardBack());
+                    out.writeUTF(bot.getCardFront());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        append(bytes.toByteArray());
+    }
+
+    static void recordBet(int gameID, int seat, int bet) {
+        if (running) {
+            append(event(BET, gameID, 2).put((byte) seat).put((byte) bet));
+        }
+    }
+
+    static void recordBetsClosed(int gameID) {
+        if (running) {
+            append(event(BETS_CLOSED, gameID, 0));
+        }
+    }
+
+    static void recordPlay(int gameID, int seat, int card) {
+        if (running) {
+            append(event(PLAY, gameID, 2).put((byte) seat).put((byte) card));
+        }
+    }
+
+    static void recordTrick(int gameID, int winnerSeat) {
+        if (running) {
+            append(event(TRICK, gameID, 1).put((byte) winnerSeat));
+        }
+    }
+
+    static void recordRoundEnd(int gameID, int round) {
+        if (running) {
+            append(event(ROUND_END, gameID, 1).put((byte) round));
+        }
+    }
+
+    static void recordReplace(int gameID, int seat, String botName) {
+        if (!running) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(REPLACE);
+            out.writeInt(gameID);
+            out.writeByte(seat);
+            out.writeUTF(botName);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        append(bytes.toByteArray());
+    }
+
+    static void recordEnd(int gameID) {
+        if (running) {
+            append(event(END, gameID, 0));
+        }
+    }
+
+    private static ByteBuffer event(byte type, int gameID, int payloadBytes) {
+        return ByteBuffer.allocate(HEADER_BYTES + payloadBytes).put(type).putInt(gameID);
+    }
+
+    private static void append(ByteBuffer event) {
+        append(event.array());
+    }
+
+    // A stalled disk must not grow the queue without limit, and games must not wait
+    // on it. Past maxQueued events, a game's events are dropped from the first one
+    // that does not fit. That game's journal stays a clean prefix, so after a crash it
+    // comes back as of that event, or as of its snapshot if that is newer. END always
+    // goes in so the game's segments can still be deleted.
+    private static void append(byte[] event) {
+        int gameID = ByteBuffer.wrap(event).getInt(1);
+        if (event[0] == END) {
+            truncatedGames.remove(gameID);
+        } else if (truncatedGames.contains(gameID)) {
+            droppedCount.increment();
+            return;
+        } else if (queued.get() >= MAX_QUEUED) {
+            droppedCount.increment();
+            if (truncatedGames.add(gameID)) {
+                ServerLog.warn(SCOPE, "Journal queue full; game " + gameID + " is no longer journaled.");
+            }
+            return;
+        }
+        queue.add(event);
+        queued.incrementAndGet();
+    }
+
+    // Each pass writes whatever queued during the previous flush window and forces it
+    // with a single msync, so the sync cost is shared by every event in the batch.
+    private static void runWriter() {
+        while (running) {
+            LockSupport.parkNanos(FLUSH_NANOS);
+            writeBatch();
+        }
+        writeBatch();
+        try {
+            segment.force();
+            channel.close();
+        } catch (IOException | RuntimeException e) {
+            ServerLog.error(SCOPE, "Could not close journal segment " + segmentSeq + ".", e);
+        }
+    }
+
+    private static void writeBatch() {
+        byte[] event = queue.poll();
+        if (event == null) {
+            return;
+        }
+        try {
+            do {
+                queued.decrementAndGet();
+                write(event);
+            } while ((event = queue.poll()) != null);
+            long startNanos = System.nanoTime();
+            segment.force(syncedTo, segment.position() - syncedTo);
+            syncLatency.recordNanos(System.nanoTime() - startNanos);
+            syncedTo = segment.position();
+            batchCount.increment();
+        } catch (IOException | RuntimeException e) {
+            failedCount.increment();
+            ServerLog.error(SCOPE, "Journal write failed.", e);
+        }
+    }
+
+    private static void write(byte[] event) throws IOException {
+        if (segment.remaining() < FRAME_BYTES + event.length) {
+            rotate();
+        }
+        crc.reset();
+        crc.update(event);
+        segment.putInt(event.length);
+        segment.putInt((int) crc.getValue());
+        segment.put(event);
+        appendedCount.increment();
+        appendedBytes.add(FRAME_BYTES + event.length);
+
+        int gameID = ByteBuffer.wrap(event).getInt(1);
+        segmentGames.computeIfAbsent(segmentSeq, seq -> new HashSet<>()).add(gameID);
+        if (event[0] == START) {
+            liveGames.add(gameID);
+        } else if (event[0] == END && liveGames.remove(gameID)) {
+            dropFinishedSegments();
+        }
+    }
+
+    private static void rotate() throws IOException {
+        segment.force();
+        channel.close();
+        openSegment(segmentSeq + 1);
+        dropFinishedSegments();
+    }
+
+    private static void openSegment(long seq) throws IOException {
+        channel = FileChannel.open(
+            segmentPath(seq),
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        );
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+        segmentSeq = seq;
+        syncedTo = 0;
+    }
+
+    // Older segments whose games have all ended are no longer needed for replay.
+    private static void dropFinishedSegments() {
+        Iterator<Map.Entry<Long, Set<Integer>>> entries = segmentGames.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Long, Set<Integer>> entry = entries.next();
+            if (entry.getKey() == segmentSeq) {
+                continue;
+            }
+            boolean live = false;
+            for (Integer gameID : entry.getValue()) {
+                if (liveGames.contains(gameID)) {
+                    live = true;
+                    break;
+                }
+            }
+            if (live) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(segmentPath(entry.getKey()));
+                entries.remove();
+                deletedSegments.increment();
+            } catch (IOException e) {
+                ServerLog.warn(SCOPE, "Could not delete journal segment " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static Path segmentPath(long seq) {
+        return DIR.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+    }
+
+    // Snapshot games the journal did not pick up. Segments of a live game are never
+    // deleted, so once the journal has been read, a journaled game missing from it
+    // has ended since the snapshot was taken.
+    private static void restoreSnapshotGames(Map<Integer, Game> snapshotGames, boolean journalRead) {
+        for (Game game : snapshotGames.values()) {
+            if (journalRead && game.getJournalEvents() > 0) {
+                ServerLog.info(SCOPE, "Game " + game.getGameID() + " ended after the last snapshot; not restoring it.");
+                game.shutdown();
+                continue;
+            }
+            GameHandler.restoreGame(game);
+        }
+        snapshotGames.clear();
+    }
+
+    // Reads every segment in order, keeps the events of games that started and never
+    // ended, and rebuilds those games, starting from their snapshot when there is
+    // one. Returns the last segment number seen.
+    private static long replay(Map<Integer, Game> snapshotGames) throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(DIR)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        seqs.add(Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())
+                        ));
+                    } catch (NumberFormatException e) {
+                        ServerLog.warn(SCOPE, "Ignoring unexpected file in journal directory: " + name);
+                    }
+                }
+            });
+        }
+        seqs.sort(null);
+
+        LinkedHashMap<Integer, List<byte[]>> eventsByGame = new LinkedHashMap<>();
+        int highestGameID = 0;
+        int events = 0;
+        long lastSeq = 0;
+        for (long seq : seqs) {
+            lastSeq = seq;
+            try (FileChannel file = FileChannel.open(segmentPath(seq), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+                while (buffer.remaining() >= FRAME_BYTES) {
+                    int length = buffer.getInt();
+                    if (length <= 0) {
+                        break;
+                    }
+                    int checksum = buffer.getInt();
+                    if (length < HEADER_BYTES || length > buffer.remaining()) {
+                        ServerLog.warn(SCOPE, "Torn record at the end of journal segment " + seq + ".");
+                        break;
+                    }
+                    byte[] event = new byte[length];
+                    buffer.get(event);
+                    crc.reset();
+                    crc.update(event);
+                    if ((int) crc.getValue() != checksum) {
+                        ServerLog.warn(SCOPE, "Checksum mismatch at the end of journal segment " + seq + ".");
+                        break;
+                    }
+                    events++;
+                    int gameID = ByteBuffer.wrap(event).getInt(1);
+                    highestGameID = Math.max(highestGameID, gameID);
+                    segmentGames.computeIfAbsent(seq, key -> new HashSet<>()).add(gameID);
+                    if (event[0] == START) {
+                        eventsByGame.remove(gameID);
+                        eventsByGame.put(gameID, new ArrayList<>());
+                        liveGames.add(gameID);
+                    } else if (event[0] == END) {
+                        eventsByGame.remove(gameID);
+                        liveGames.remove(gameID);
+                        continue;
+                    }
+                    List<byte[]> gameEvents = eventsByGame.get(gameID);
+                    if (gameEvents != null) {
+                        gameEvents.add(event);
+                    }
+                }
+            }
+        }
+        replayedEvents = events;
+        // Never hand out the ID of a game still in the journal, ended or not.
+        GameRegistry.reserveGameIDs(highestGameID);
+
+        int restored = 0;
+        for (Map.Entry<Integer, List<byte[]>> entry : eventsByGame.entrySet()) {
+            int gameID = entry.getKey();
+            Game snapshot = snapshotGames.remove(gameID);
+            Game game = null;
+            try {
+                game = snapshot != null ? continueGame(snapshot, entry.getValue()) : null;
+                if (game == null) {
+                    game = restoreGame(gameID, entry.getValue());
+                }
+            } catch (IOException | RuntimeException e) {
+                ServerLog.error(SCOPE, "Could not replay game " + gameID + ".", e);
+            }
+            if (game == null) {
+                liveGames.remove(gameID);
+                continue;
+            }
+            GameHandler.restoreGame(game);
+            restored++;
+        }
+        restoredGames = restored;
+        return lastSeq;
+    }
+
+    // Applies the events journaled after the snapshot was captured. Returns null if
+    // they do not fit, and the caller rebuilds the game from its START instead.
+    private static Game continueGame(Game snapshot, List<byte[]> events) throws IOException {
+        int from = snapshot.getJournalEvents();
+        if (from <= 0) {
+            return null;
+        }
+        for (int i = from; i < events.size(); i++) {
+            if (!apply(snapshot, events.get(i))) {
+                ServerLog.warn(
+                    SCOPE,
+                    "Journal event " + i + " does not apply to the snapshot of game " + snapshot.getGameID()
+                        + "; rebuilding it from the journal."
+                );
+                snapshot.shutdown();
+                return null;
+            }
+        }
+        return snapshot;
+    }
+
+    private static Game restoreGame(int gameID, List<byte[]> events) throws IOException {
+        DataInputStream start = payload(events.get(0));
+        long seed = start.readLong();
+        int seatCount = start.readUnsignedByte();
+        List<Player> seats = new ArrayList<>(seatCount);
+        for (int i = 0; i < seatCount; i++) {
+            byte kind = start.readByte();
+            String username = start.readUTF();
+            String cardBack = start.readUTF();
+            String cardFront = start.readUTF();
+            if (kind == SEAT_USER) {
+                // A user the snapshot restored keeps their newer cosmetics.
+                String sub = start.readUTF();
+                User user = User.findUser(sub);
+                if (user == null) {
+                    user = User.restoreUser(sub, username);
+                    user.setCardBack(cardBack);
+                    user.setCardFront(cardFront);
+                }
+                seats.add(user);
+            } else {
+                Bot bot = new Bot(username);
+                bot.setCardBack(cardBack);
+                bot.setCardFront(cardFront);
+                seats.add(bot);
+            }
+        }
+
+        Game game = Game.restore(gameID, seed, seats);
+        for (int i = 1; i < events.size(); i++) {
+            byte[] event = events.get(i);
+            if (!apply(game, event)) {
+                ServerLog.warn(
+                    SCOPE,
+                    "Journal event " + i + " (type " + event[0] + ") does not apply to game " + gameID
+                        + "; dropping the game."
+                );
+                game.shutdown();
+                return null;
+            }
+        }
+        if (game.getPhase() == GamePhase.COMPLETED) {
+            game.shutdown();
+            return null;
+        }
+        return game;
+    }
+
+    private static boolean apply(Game game, byte[] event) throws IOException {
+        DataInputStream in = payload(event);
+        switch (event[0]) {
+            case BET:
+                return game.replayBet(in.readUnsignedByte(), in.readUnsignedByte());
+            case BETS_CLOSED:
+                return game.replayBetsClosed();
+            case PLAY:
+                return game.replayPlay(in.readUnsignedByte(), in.readUnsignedByte());
+            case TRICK:
+                return game.replayTrick(in.readUnsignedByte());
+            case ROUND_END:
+                return game.replayRoundEnd(in.readUnsignedByte());
+            case REPLACE:
+                return game.replayReplace(in.readUnsignedByte(), in.readUTF());
+            default:
+                return false;
+        }
+    }
+
+    private static DataInputStream payload(byte[] event) {
+        return new DataInputStream(new ByteArrayInputStream(event, HEADER_BYTES, event.length - HEADER_BYTES));
+    }
+
+    public static JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        json.put("enabled", running);
+        json.put("appended", appendedCount.sum());
+        json.put("bytes", appendedBytes.sum());
+        json.put("batches", batchCount.sum());
+        json.put("queued", queued.get());
+        json.put("failed", failedCount.sum());
+        json.put("dropped", droppedCount.sum());
+        json.put("truncatedGames", truncatedGames.size());
+        json.put("segmentsDeleted", deletedSegments.sum());
+        json.put("sync", syncLatency.toJson());
+        json.put("restoredGames", restoredGames);
+        json.put("replayedEvents", replayedEvents);
+        json.put("replayMs", replayMs);
+        return json;
+    }
+}
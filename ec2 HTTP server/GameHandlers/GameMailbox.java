@@ -0,0 +1,156 @@
+package GameHandlers;
+
+import HTTPHandlers.HTTPServer;
+import HTTPHandlers.LatencyStats;
+import HTTPHandlers.ServerConfig;
+import HTTPHandlers.ServerLog;
+import org.json.JSONObject;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runs one game's commands one at a time, in submission order, on a pool shared by
+// every game. Bets, plays, timer callbacks, joins, forfeits and reconnects all go
+// through it, so game logic never waits on another thread for the game lock.
+// Work submitted from the mailbox's own thread runs inline. With
+// ohhell.game.mailboxWorkers=0 there is no pool and commands run on the submitting
+// thread, which together with a VirtualClock makes game runs deterministic.
+public final class GameMailbox {
+    private static final String SCOPE = "GameMailbox";
+    private static final int BATCH_LIMIT = 64;
+    private static final int WORKERS = Math.max(
+        0,
+        ServerConfig.getInt("ohhell.game.mailboxWorkers", Runtime.getRuntime().availableProcessors())
+    );
+    private static final Executor loop = WORKERS > 0
+        ? Executors.newFixedThreadPool(WORKERS, HTTPServer.namedThreadFactory("game-mailbox-"))
+        : Runnable::run;
+
+    private static final LongAdder commandCount = new LongAdder();
+    private static final LongAdder failedCount = new LongAdder();
+    private static final LatencyStats queueWait = new LatencyStats();
+
+    private final String name;
+    private final ConcurrentLinkedQueue<Command> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile Thread owner;
+
+    public GameMailbox(String name) {
+        this.name = name;
+    }
+
+    private static final class Command {
+        final Runnable task;
+        final long submittedAtNanos;
+
+        Command(Runnable task, long submittedAtNanos) {
+            this.task = task;
+            this.submittedAtNanos = submittedAtNanos;
+        }
+    }
+
+    public boolean inMailbox() {
+        return owner == Thread.currentThread();
+    }
+
+    public void execute(Runnable task) {
+        if (inMailbox()) {
+            run(task);
+            return;
+        }
+        queue.add(new Command(task, System.nanoTime()));
+        if (scheduled.compareAndSet(false, true)) {
+            loop.execute(this::drain);
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+                throw new CompletionException(e);
+            }
+        });
+        return result;
+    }
+
+    // Runs the task on the mailbox and waits for it. Only call this from threads
+    // outside every game's mailbox (HTTP requests, connection events), or from this
+    // mailbox itself, where it runs inline.
+    public <T> T call(Callable<T> task) {
+        if (inMailbox()) {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }
+        try {
+            return submit(task).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public void call(Runnable task) {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    // Drains a bounded batch, then yields the worker so one busy game cannot starve
+    // the others sharing the pool.
+    private void drain() {
+        owner = Thread.currentThread();
+        try {
+            for (int i = 0; i < BATCH_LIMIT; i++) {
+                Command next = queue.poll();
+                if (next == null) {
+                    break;
+                }
+                queueWait.recordNanos(System.nanoTime() - next.submittedAtNanos);
+                run(next.task);
+            }
+        } finally {
+            owner = null;
+            scheduled.set(false);
+        }
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            loop.execute(this::drain);
+        }
+    }
+
+    private void run(Runnable task) {
+        commandCount.increment();
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            failedCount.increment();
+            ServerLog.error(SCOPE, "Command failed in " + name + ".", e);
+        }
+    }
+
+    public static JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        json.put("workers", WORKERS);
+        json.put("commands", commandCount.sum());
+        json.put("failed", failedCount.sum());
+        json.put("queueWait", queueWait.toJson());
+        return json;
+    }
+}
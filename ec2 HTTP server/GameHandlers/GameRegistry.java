@@ -0,0 +1,196 @@
+package GameHandlers;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Every registered game by ID, with lock-free lookups, atomic ID allocation, and
+// secondary indexes kept up to date as games change: waiting games, waiting games
+// with an open seat, games in progress, games with no online human in them, and
+// games with a seat whose user has since moved on (a stale seat). Each refresh
+// also marks the game dirty for LobbyView and MembershipReconciler.
+//
+// An index refresh reads only volatile state (the game's state and seat view, each
+// user's gameID and connections), so it can run under any lock without taking a
+// game lock itself. Refreshes are numbered per game and only the newest result is
+// applied; every change is followed by a refresh that reads it, so the indexes
+// settle on the current state even when refreshes race.
+public final class GameRegistry {
+    private static final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private static final Set<Integer> waiting = ConcurrentHashMap.newKeySet();
+    private static final Set<Integer> joinable = ConcurrentHashMap.newKeySet();
+    private static final Set<Integer> inGame = ConcurrentHashMap.newKeySet();
+    private static final Set<Integer> noOnlineHumans = ConcurrentHashMap.newKeySet();
+    private static final Set<Integer> staleSeats = ConcurrentHashMap.newKeySet();
+    private static final AtomicInteger lastGameID = new AtomicInteger();
+
+    private static final LongAdder refreshCount = new LongAdder();
+    private static final LongAdder supersededCount = new LongAdder();
+
+    private GameRegistry() {}
+
+    private static final class Entry {
+        private final Game game;
+        private final AtomicLong requested = new AtomicLong();
+        // Guarded by this entry.
+        private long applied;
+        private boolean removed;
+
+        private Entry(Game game) {
+            this.game = game;
+        }
+    }
+
+    static int nextGameID() {
+        return lastGameID.incrementAndGet();
+    }
+
+    static int lastGameID() {
+        return lastGameID.get();
+    }
+
+    // Restored games keep their IDs; new ones are numbered after them.
+    static void reserveGameIDs(int highest) {
+        lastGameID.accumulateAndGet(highest, Math::max);
+    }
+
+    public static Game get(int gameID) {
+        Entry entry = entries.get(gameID);
+        return entry != null ? entry.game : null;
+    }
+
+    static void register(Game game) {
+        entries.put(game.getGameID(), new Entry(game));
+        refresh(game.getGameID());
+    }
+
+    // False if the game was not registered (or was already removed).
+    static boolean remove(Game game) {
+        Entry entry = entries.get(game.getGameID());
+        if (entry == null || entry.game != game || !entries.remove(game.getGameID(), entry)) {
+            return false;
+        }
+        synchronized (entry) {
+            entry.removed = true;
+            unindex(game.getGameID());
+        }
+        LobbyView.markDirty(game.getGameID());
+        return true;
+    }
+
+    // Call after anything the indexes read changes: state, seats, a seated user's
+    // gameID or connections. Unknown IDs (including -1) are ignored.
+    static void refresh(int gameID) {
+        Entry entry = entries.get(gameID);
+        if (entry == null) {
+            return;
+        }
+        long version = entry.requested.incrementAndGet();
+        refreshCount.increment();
+        LobbyView.markDirty(gameID);
+
+        Game game = entry.game;
+        State state = game.stateView();
+        boolean onlineHuman = false;
+        boolean stale = false;
+        Player[] seats = game.seatsView();
+        for (Player player : seats) {
+            if (!(player instanceof User)) {
+                continue;
+            }
+            User user = (User) player;
+            if (user.getGameID() != gameID) {
+                stale = true;
+            } else if (user.isOnline()) {
+                onlineHuman = true;
+            }
+        }
+
+        synchronized (entry) {
+            if (entry.removed || version < entry.applied) {
+                supersededCount.increment();
+                return;
+            }
+            entry.applied = version;
+            index(waiting, gameID, state == State.WAITING);
+            index(joinable, gameID, state == State.WAITING && seats.length < GameRules.MAX_PLAYERS);
+            index(inGame, gameID, state == State.INGAME);
+            index(noOnlineHumans, gameID, !onlineHuman);
+            index(staleSeats, gameID, stale);
+        }
+        // After the indexes are applied, so the reconciler sees this refresh's result.
+        MembershipReconciler.markDirty(gameID);
+    }
+
+    private static void index(Set<Integer> set, int gameID, boolean member) {
+        if (member) {
+            set.add(gameID);
+        } else {
+            set.remove(gameID);
+        }
+    }
+
+    private static void unindex(int gameID) {
+        waiting.remove(gameID);
+        joinable.remove(gameID);
+        inGame.remove(gameID);
+        noOnlineHumans.remove(gameID);
+        staleSeats.remove(gameID);
+    }
+
+    public static ArrayList<Game> all() {
+        ArrayList<Game> games = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            games.add(entry.game);
+        }
+        return games;
+    }
+
+    public static ArrayList<Game> waitingGames() {
+        return resolve(waiting);
+    }
+
+    // Waiting games with at least one open seat.
+    public static ArrayList<Game> joinableGames() {
+        return resolve(joinable);
+    }
+
+    public static ArrayList<Game> inGameGames() {
+        return resolve(inGame);
+    }
+
+    // Only these games can need a membership repair; see GameHandler.reconcile.
+    static boolean mayNeedRepair(int gameID) {
+        return staleSeats.contains(gameID) || noOnlineHumans.contains(gameID);
+    }
+
+    private static ArrayList<Game> resolve(Set<Integer> ids) {
+        ArrayList<Game> games = new ArrayList<>(ids.size());
+        for (Integer gameID : ids) {
+            Game game = get(gameID);
+            if (game != null) {
+                games.add(game);
+            }
+        }
+        return games;
+    }
+
+    public static JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        json.put("games", entries.size());
+        json.put("waiting", waiting.size());
+        json.put("joinable", joinable.size());
+        json.put("inGame", inGame.size());
+        json.put("noOnlineHumans", noOnlineHumans.size());
+        json.put("staleSeats", staleSeats.size());
+        json.put("lastGameID", lastGameID.get());
+        json.put("refreshes", refreshCount.sum());
+        json.put("superseded", supersededCount.sum());
+        return json;
+    }
+}
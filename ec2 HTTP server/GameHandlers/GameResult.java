@@ -0,0 +1,126 @@
+package GameHandlers;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// What GameHistory keeps of a finished game: who sat where, final scores, and each
+// scored round's bets and tricks won. A few hundred bytes, where the Game it came
+// from holds hands, a deck and a mailbox.
+public final class GameResult {
+    private final int gameID;
+    private final long seed;
+    private final long endedAtMs;
+    private final boolean completed;
+    private final int rounds;
+    private final String[] names;
+    // Empty for bots.
+    private final String[] subs;
+    private final int[] scores;
+    // Indexed [round * seats + seat], rounds counted from 0.
+    private final byte[] bets;
+    private final byte[] tricks;
+
+    GameResult(
+        int gameID,
+        long seed,
+        long endedAtMs,
+        boolean completed,
+        int rounds,
+        String[] names,
+        String[] subs,
+        int[] scores,
+        byte[] bets,
+        byte[] tricks
+    ) {
+        this.gameID = gameID;
+        this.seed = seed;
+        this.endedAtMs = endedAtMs;
+        this.completed = completed;
+        this.rounds = rounds;
+        this.names = names;
+        this.subs = subs;
+        this.scores = scores;
+        this.bets = bets;
+        this.tricks = tricks;
+    }
+
+    public int getGameID() {
+        return gameID;
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + rounds * names.length * 2);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(gameID);
+            out.writeLong(seed);
+            out.writeLong(endedAtMs);
+            out.writeBoolean(completed);
+            out.writeByte(rounds);
+            out.writeByte(names.length);
+            for (int seat = 0; seat < names.length; seat++) {
+                out.writeUTF(names[seat]);
+                out.writeUTF(subs[seat]);
+                out.writeShort(scores[seat]);
+            }
+            out.write(bets);
+            out.write(tricks);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static GameResult decode(DataInputStream in) throws IOException {
+        int gameID = in.readInt();
+        long seed = in.readLong();
+        long endedAtMs = in.readLong();
+        boolean completed = in.readBoolean();
+        int rounds = in.readUnsignedByte();
+        int seats = in.readUnsignedByte();
+        String[] names = new String[seats];
+        String[] subs = new String[seats];
+        int[] scores = new int[seats];
+        for (int seat = 0; seat < seats; seat++) {
+            names[seat] = in.readUTF();
+            subs[seat] = in.readUTF();
+            scores[seat] = in.readShort();
+        }
+        byte[] bets = new byte[rounds * seats];
+        byte[] tricks = new byte[rounds * seats];
+        in.readFully(bets);
+        in.readFully(tricks);
+        return new GameResult(gameID, seed, endedAtMs, completed, rounds, names, subs, scores, bets, tricks);
+    }
+
+    public JSONObject toJson() {
+        JSONArray players = new JSONArray();
+        for (int seat = 0; seat < names.length; seat++) {
+            JSONArray seatBets = new JSONArray();
+            JSONArray seatTricks = new JSONArray();
+            for (int round = 0; round < rounds; round++) {
+                seatBets.put(bets[round * names.length + seat]);
+                seatTricks.put(tricks[round * names.length + seat]);
+            }
+            JSONObject player = new JSONObject();
+            player.put("username", names[seat]);
+            player.put("bot", subs[seat].isEmpty());
+            player.put("score", scores[seat]);
+            player.put("bets", seatBets);
+            player.put("tricks", seatTricks);
+            players.put(player);
+        }
+        JSONObject json = new JSONObject();
+        json.put("gameID", gameID);
+        json.put("seed", seed);
+        json.put("endedAt", endedAtMs);
+        json.put("completed", completed);
+        json.put("rounds", rounds);
+        json.put("players", players);
+        return json;
+    }
+}
@@ -0,0 +1,54 @@
+package GameHandlers;
+
+// The scoring and round-shape rules, shared by live games and GameSimulator.
+public final class GameRules {
+    public static final int MAX_PLAYERS = 5;
+    public static final int MAX_HAND_CARDS = 10;
+    public static final int EXTRA_NO_TRUMP_ROUND = 11;
+    public static final int EXTRA_TRUMP_ROUND = 12;
+    public static final int TOTAL_ROUNDS = 21;
+
+    private GameRules() {}
+
+    // 1..10 cards, two 10-card rounds (the first without trump), then back down to 1.
+    public static int cardsForRound(int roundNumber) {
+        if (roundNumber <= MAX_HAND_CARDS) {
+            return roundNumber;
+        }
+        if (roundNumber == EXTRA_NO_TRUMP_ROUND || roundNumber == EXTRA_TRUMP_ROUND) {
+            return MAX_HAND_CARDS;
+        }
+        int descendingIndex = roundNumber - EXTRA_TRUMP_ROUND;
+        int cards = MAX_HAND_CARDS - descendingIndex;
+        return Math.max(1, cards);
+    }
+
+    public static boolean hasTrumpForRound(int roundNumber) {
+        return roundNumber != EXTRA_NO_TRUMP_ROUND;
+    }
+
+    public static int scoreChange(int bet, int handsWon) {
+        if (bet > handsWon) {
+            return -bet;
+        }
+        if (bet < handsWon) {
+            return -handsWon;
+        }
+        return bet == 0 ? 20 : bet * 10;
+    }
+
+    // Who leads the betting in the round after roundNumber.
+    public static int initiatorAfterRound(int roundNumber, int playerCount) {
+        return roundNumber % playerCount;
+    }
+
+    public static String bidResultStatus(int totalBets, int cardsDealt) {
+        if (totalBets == cardsDealt) {
+            return "EVEN_BID";
+        }
+        if (totalBets > cardsDealt) {
+            return "OVER_BID";
+        }
+        return "UNDER_BID";
+    }
+}
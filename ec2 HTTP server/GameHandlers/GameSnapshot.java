@@ -0,0 +1,212 @@
+package GameHandlers;
+
+import HTTPHandlers.HTTPServer;
+import HTTPHandlers.LatencyStats;
+import HTTPHandlers.ServerConfig;
+import HTTPHandlers.ServerLog;
+import HTTPHandlers.ServerTime;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Periodic binary snapshot of the whole registry: users with their cosmetics and
+// forfeit records, waiting and in-game tables, and the game ID counter (finished
+// games are in GameHistory).
+//
+// A background thread captures the games one at a time, each under its own lock,
+// so no game is held for longer than copying its own state. The file is written
+// beside the previous snapshot and renamed over it, so a crash mid-write leaves
+// the last good one. At startup restore() loads it; in-game tables go on to
+// GameJournal.recover(), which applies whatever was journaled after the capture.
+//
+// File: [int magic][int version][long savedAtMs][int lastGameID]
+//       [int users][user...][int games][int length, game...]
+public final class GameSnapshot {
+    private static final String SCOPE = "GameSnapshot";
+    private static final int MAGIC = 0x4F48534E; // "OHSN"
+    private static final int FORMAT_VERSION = 2;
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private static final boolean ENABLED = ServerConfig.getBoolean("ohhell.snapshot.enabled", true);
+    private static final Path FILE = Path.of(ServerConfig.getString("ohhell.snapshot.file", "snapshot/registry.bin"));
+    private static final long INTERVAL_SECONDS = Math.max(1, ServerConfig.getLong("ohhell.snapshot.intervalSec", 60));
+
+    private static ScheduledExecutorService scheduler;
+
+    private static final LongAdder writtenCount = new LongAdder();
+    private static final LongAdder failedCount = new LongAdder();
+    private static final LatencyStats writeLatency = new LatencyStats();
+    private static volatile long lastBytes;
+    private static volatile long lastWriteMs;
+    private static volatile int lastGames;
+    private static volatile int lastUsers;
+    private static volatile int restoredGames;
+    private static volatile int restoredUsers;
+
+    private GameSnapshot() {}
+
+    // Loads the last snapshot: users and waiting games go straight back into the
+    // registry. In-game tables are returned by ID for the journal to bring up to
+    // date before they are registered.
+    public static synchronized Map<Integer, Game> restore() {
+        Map<Integer, Game> inGame = new LinkedHashMap<>();
+        if (!ENABLED || !Files.isReadable(FILE)) {
+            return inGame;
+        }
+        long startNanos = System.nanoTime();
+        int games = 0;
+        int users = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(FILE), BUFFER_BYTES))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                ServerLog.warn(SCOPE, "Ignoring " + FILE.toAbsolutePath() + ": not a registry snapshot of this version.");
+                return inGame;
+            }
+            long savedAtMs = in.readLong();
+            int lastGameID = in.readInt();
+
+            int userCount = in.readInt();
+            for (int i = 0; i < userCount; i++) {
+                User.readSnapshot(in);
+                users++;
+            }
+            int gameCount = in.readInt();
+            for (int i = 0; i < gameCount; i++) {
+                Game game = readGame(in);
+                if (game.getState() == State.INGAME) {
+                    inGame.put(game.getGameID(), game);
+                } else if (game.getState() == State.WAITING) {
+                    GameHandler.restoreGame(game);
+                } else {
+                    continue;
+                }
+                games++;
+            }
+            GameRegistry.reserveGameIDs(lastGameID);
+            ServerLog.info(
+                SCOPE,
+                "Restored " + users + " users and " + games + " games from a snapshot taken "
+                    + TimeUnit.MILLISECONDS.toSeconds(Math.max(0, ServerTime.currentTimeMillis() - savedAtMs))
+                    + " seconds ago in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms"
+            );
+        } catch (IOException | RuntimeException e) {
+            ServerLog.error(SCOPE, "Could not read snapshot " + FILE.toAbsolutePath() + "; restored what was read.", e);
+        }
+        restoredGames = games;
+        restoredUsers = users;
+        return inGame;
+    }
+
+    private static Game readGame(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return Game.readSnapshot(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    // Writes a snapshot every interval, and once more on a graceful shutdown.
+    public static synchronized void start() {
+        if (!ENABLED || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(HTTPServer.namedThreadFactory("registry-snapshot-"));
+        scheduler.scheduleWithFixedDelay(GameSnapshot::writeQuietly, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(GameSnapshot::writeQuietly, "registry-snapshot-shutdown"));
+    }
+
+    private static void writeQuietly() {
+        try {
+            write();
+        } catch (IOException | RuntimeException e) {
+            failedCount.increment();
+            ServerLog.error(SCOPE, "Snapshot write failed.", e);
+        }
+    }
+
+    // Returns the snapshot size in bytes.
+    public static synchronized long write() throws IOException {
+        long startNanos = System.nanoTime();
+        Path parent = FILE.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = FILE.resolveSibling(FILE.getFileName() + ".tmp");
+        ArrayList<User> users = User.getAllUsers();
+        ArrayList<Game> games = GameRegistry.all();
+        long bytes;
+        try (
+            FileChannel channel = FileChannel.open(
+                temp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+            );
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_BYTES)
+            )
+        ) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(ServerTime.currentTimeMillis());
+            out.writeInt(GameRegistry.lastGameID());
+            out.writeInt(users.size());
+            for (User user : users) {
+                user.writeSnapshot(out);
+            }
+            out.writeInt(games.size());
+            for (Game game : games) {
+                byte[] captured = game.captureSnapshot();
+                out.writeInt(captured.length);
+                out.write(captured);
+            }
+            out.flush();
+            channel.force(true);
+            bytes = out.size();
+        }
+        Files.move(temp, FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        writeLatency.recordNanos(elapsedNanos);
+        writtenCount.increment();
+        lastBytes = bytes;
+        lastWriteMs = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        lastGames = games.size();
+        lastUsers = users.size();
+        ServerLog.info(
+            SCOPE,
+            "Snapshot of " + games.size() + " games and " + users.size() + " users: " + bytes + " bytes in " + lastWriteMs + " ms"
+        );
+        return bytes;
+    }
+
+    public static JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        json.put("enabled", ENABLED);
+        json.put("written", writtenCount.sum());
+        json.put("failed", failedCount.sum());
+        json.put("lastBytes", lastBytes);
+        json.put("lastMs", lastWriteMs);
+        json.put("lastGames", lastGames);
+        json.put("lastUsers", lastUsers);
+        json.put("write", writeLatency.toJson());
+        json.put("restoredGames", restoredGames);
+        json.put("restoredUsers", restoredUsers);
+        return json;
+    }
+}
@@ -0,0 +1,225 @@
+package GameHandlers;
+
+import HTTPHandlers.HTTPServer;
+import HTTPHandlers.LatencyStats;
+import HTTPHandlers.ServerClock;
+import HTTPHandlers.ServerConfig;
+import HTTPHandlers.ServerLog;
+import org.json.JSONObject;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// One hashed timing wheel for every game's deadlines (turn timeouts, trick and bet
+// pauses, the all-disconnected end timer). A single ticker thread advances the
+// wheel and hands expired tasks to a small worker pool, so the thread count stays
+// flat however many games are live. Deadlines fire up to one tick late; game
+// callbacks take the game lock themselves, so game execution stays serialized.
+public final class GameTimer {
+    private static final String SCOPE = "GameTimer";
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+    private static final long TICK_NANOS =
+        TimeUnit.MILLISECONDS.toNanos(Math.max(1, ServerConfig.getLong("ohhell.timer.tickMs", 10)));
+    private static final int WORKERS = Math.max(1, ServerConfig.getInt("ohhell.timer.workers", 2));
+
+    private static final Bucket[] wheel = createWheel();
+    private static final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private static final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private static final ExecutorService workers =
+        Executors.newFixedThreadPool(WORKERS, HTTPServer.namedThreadFactory("game-timer-worker-"));
+    private static final long startNanos = System.nanoTime();
+
+    private static final AtomicInteger pending = new AtomicInteger();
+    private static final LongAdder scheduledCount = new LongAdder();
+    private static final LongAdder firedCount = new LongAdder();
+    private static final LongAdder cancelledCount = new LongAdder();
+    private static final LatencyStats lateness = new LatencyStats();
+
+    static {
+        Thread ticker = HTTPServer.namedThreadFactory("game-timer-").newThread(GameTimer::run);
+        ticker.start();
+    }
+
+    private GameTimer() {}
+
+    // Handle for one scheduled task. Cancelling is cheap and safe from any thread;
+    // the ticker unlinks cancelled entries on its next tick.
+    public static final class Timeout implements ServerClock.Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+                return false;
+            }
+            pending.decrementAndGet();
+            cancelledCount.increment();
+            cancelled.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+                return;
+            }
+            pending.decrementAndGet();
+            long late = System.nanoTime() - startNanos - deadlineNanos;
+            workers.execute(() -> {
+                firedCount.increment();
+                lateness.recordNanos(late);
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    ServerLog.error(SCOPE, "Timer task failed.", e);
+                }
+            });
+        }
+    }
+
+    // Doubly linked so cancelled entries unlink in O(1). Only the ticker touches buckets.
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = timeout;
+                tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        void expire(long nowNanos) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout following = timeout.next;
+                if (timeout.remainingRounds <= 0 && timeout.deadlineNanos <= nowNanos) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = following;
+            }
+        }
+    }
+
+    public static Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadlineNanos = System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay));
+        Timeout timeout = new Timeout(task, deadlineNanos);
+        pending.incrementAndGet();
+        scheduledCount.increment();
+        added.add(timeout);
+        return timeout;
+    }
+
+    private static void run() {
+        long tick = 0;
+        while (true) {
+            long nowNanos = waitForTick(tick);
+            unlinkCancelled();
+            transferAdded(tick);
+            wheel[(int) (tick & MASK)].expire(nowNanos);
+            tick++;
+        }
+    }
+
+    // Sleeps until the end of this tick and returns the wheel-relative time.
+    private static long waitForTick(long tick) {
+        long tickEnd = TICK_NANOS * (tick + 1);
+        while (true) {
+            long now = System.nanoTime() - startNanos;
+            long sleepNanos = tickEnd - now;
+            if (sleepNanos <= 0) {
+                return now;
+            }
+            LockSupport.parkNanos(sleepNanos);
+        }
+    }
+
+    private static void unlinkCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private static void transferAdded(long tick) {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long dueTick = timeout.deadlineNanos / TICK_NANOS;
+            timeout.remainingRounds = (dueTick - tick) / WHEEL_SIZE;
+            wheel[(int) (Math.max(dueTick, tick) & MASK)].add(timeout);
+        }
+    }
+
+    private static Bucket[] createWheel() {
+        Bucket[] buckets = new Bucket[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            buckets[i] = new Bucket();
+        }
+        return buckets;
+    }
+
+    public static JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        json.put("pending", pending.get());
+        json.put("scheduled", scheduledCount.sum());
+        json.put("fired", firedCount.sum());
+        json.put("cancelled", cancelledCount.sum());
+        json.put("lateness", lateness.toJson());
+        return json;
+    }
+}
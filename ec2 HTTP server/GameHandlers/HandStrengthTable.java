@@ -0,0 +1,93 @@
+package GameHandlers;
+
+import HTTPHandlers.ServerConfig;
+import HTTPHandlers.ServerLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Expected tricks for a bidding hand, read from a table built offline by
+// HandStrengthTableBuilder and memory-mapped at startup. A hand is scored as the sum
+// of its four suit holdings, each looked up by (round size, suit kind, 13-bit rank
+// mask). Suit kind is trump, side suit, or a suit in the no-trump round, which makes
+// the lookup suit-isomorphic relative to trump. Holdings too rare to be measured were
+// filled in by the builder from the holding with its lowest card removed, so every
+// entry is populated and a lookup is four array reads.
+public final class HandStrengthTable {
+    private static final String SCOPE = "HandStrengthTable";
+    static final int MAGIC = 0x4F484853; // "OHHS"
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int KIND_TRUMP = 0;
+    static final int KIND_SIDE = 1;
+    static final int KIND_NO_TRUMP = 2;
+    static final int KINDS = 3;
+    static final int HOLDINGS = 1 << 13;
+    static final int SCALE = 1_000;
+    private static final int SUIT_SIZE = 13;
+
+    private static final ByteBuffer table = load();
+
+    private HandStrengthTable() {}
+
+    public static boolean isLoaded() {
+        return table != null;
+    }
+
+    // Expected tricks for the hand, or -1 when no table is loaded.
+    public static double expectedTricks(long hand, Suits trumpSuit, int roundSize) {
+        ByteBuffer entries = table;
+        if (entries == null || roundSize < 1 || roundSize > GameRules.MAX_HAND_CARDS) {
+            return -1;
+        }
+        int total = 0;
+        for (Suits suit : Suits.values()) {
+            int holding = (int) ((hand >>> (suit.ordinal() * SUIT_SIZE)) & (HOLDINGS - 1));
+            if (holding == 0) {
+                continue;
+            }
+            int kind = trumpSuit == null ? KIND_NO_TRUMP : suit == trumpSuit ? KIND_TRUMP : KIND_SIDE;
+            total += entries.getShort(HEADER_BYTES + 2 * index(roundSize, kind, holding));
+        }
+        return (double) total / SCALE;
+    }
+
+    static int index(int roundSize, int kind, int holding) {
+        return ((roundSize - 1) * KINDS + kind) * HOLDINGS + holding;
+    }
+
+    static int entryCount() {
+        return GameRules.MAX_HAND_CARDS * KINDS * HOLDINGS;
+    }
+
+    private static ByteBuffer load() {
+        if (!"table".equalsIgnoreCase(ServerConfig.getString("ohhell.bot.bidding", "table").trim())) {
+            return null;
+        }
+        Path path = Path.of(ServerConfig.getString("ohhell.bot.handStrengthTable", "data/hand-strength.bin"));
+        if (!Files.isReadable(path)) {
+            ServerLog.warn(SCOPE, "No hand-strength table at " + path.toAbsolutePath() + "; bots bid by heuristic.");
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (
+                mapped.capacity() != HEADER_BYTES + 2L * entryCount()
+                    || mapped.getInt(0) != MAGIC
+                    || mapped.getInt(4) != FORMAT_VERSION
+            ) {
+                ServerLog.warn(SCOPE, "Ignoring " + path + ": not a version " + FORMAT_VERSION + " table.");
+                return null;
+            }
+            ServerLog.info(SCOPE, "Mapped hand-strength table " + path + " (" + mapped.capacity() + " bytes)");
+            return mapped;
+        } catch (IOException e) {
+            ServerLog.error(SCOPE, "Unable to map " + path + "; bots bid by heuristic.", e);
+            return null;
+        }
+    }
+}
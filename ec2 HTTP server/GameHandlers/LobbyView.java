@@ -0,0 +1,353 @@
+package GameHandlers;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// The lobby game list, kept materialized: one pre-serialized JSON fragment per
+// listed game, and the whole document built from them. Anything that changes how a
+// game is listed (seats, votes, state, round, a seated user's connection or card
+// cosmetics) marks that game dirty; the next render re-serializes only the dirty
+// games. The document is joined in blocks of BLOCK_GAMES consecutive game IDs, and
+// only the blocks holding a changed game are re-joined. query() pages through the
+// filtered, sorted lists lobby subscriptions use; each is built on first use and
+// then kept sorted by moving only the listings that changed.
+public final class LobbyView {
+    private static final int BLOCK_GAMES = 64;
+
+    private static final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+    // Guarded by LobbyView.class; ordered so the document lists games by ID.
+    private static final TreeMap<Integer, Listing> listings = new TreeMap<>();
+    private static final Map<String, Set<Integer>> gamesByPlayer = new HashMap<>();
+    private static final Map<Integer, ArrayList<Listing>> sorted = new HashMap<>();
+    // Joined fragments per block of game IDs, in ID order; null marks a block to re-join.
+    private static final TreeMap<Integer, String> blocks = new TreeMap<>();
+    private static String document = "{}";
+    private static boolean documentStale;
+
+    private static final Comparator<Listing> NEWEST_FIRST =
+        Comparator.comparingInt(Listing::getGameID).reversed();
+    private static final Comparator<Listing> MOST_OPEN_SEATS_FIRST =
+        Comparator.comparingInt(Listing::getOpenSeats).reversed().thenComparing(NEWEST_FIRST);
+
+    private static final LongAdder renderCount = new LongAdder();
+    private static final LongAdder fragmentCount = new LongAdder();
+    private static final LongAdder joinCount = new LongAdder();
+    private static final LongAdder blockJoinCount = new LongAdder();
+
+    private LobbyView() {}
+
+    public enum Filter {
+        ALL,
+        // Waiting games with an open seat.
+        JOINABLE,
+        IN_PROGRESS,
+        // Games with any of the subscriber's named players in them.
+        FRIENDS
+    }
+
+    public enum Sort {
+        // Newest game first.
+        AGE,
+        // Most open seats first, then newest.
+        OPEN_SEATS
+    }
+
+    // One listed game. A listing is replaced, never changed, when its game is
+    // re-rendered differently, so holders can compare listings by identity.
+    public static final class Listing {
+        private final int gameID;
+        private final String fragment;
+        private final State state;
+        private final int openSeats;
+        private final String[] players;
+
+        private Listing(int gameID, String fragment, State state, int openSeats, String[] players) {
+            this.gameID = gameID;
+            this.fragment = fragment;
+            this.state = state;
+            this.openSeats = openSeats;
+            this.players = players;
+        }
+
+        public int getGameID() {
+            return gameID;
+        }
+
+        public String getFragment() {
+            return fragment;
+        }
+
+        public int getOpenSeats() {
+            return openSeats;
+        }
+
+        private boolean matches(Filter filter) {
+            switch (filter) {
+                case JOINABLE:
+                    return state == State.WAITING && openSeats > 0;
+                case IN_PROGRESS:
+                    return state == State.INGAME;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    // One page of a query: the listings on it, in order, and how many matched in all.
+    public static final class Page {
+        private final List<Listing> listings;
+        private final int total;
+
+        private Page(List<Listing> listings, int total) {
+            this.listings = listings;
+            this.total = total;
+        }
+
+        public List<Listing> getListings() {
+            return listings;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    static void markDirty(int gameID) {
+        if (gameID > 0) {
+            dirty.add(gameID);
+        }
+    }
+
+    // The "games" object of the lobby gameList payload.
+    public static synchronized String render() {
+        renderCount.increment();
+        update();
+        if (documentStale) {
+            StringBuilder joined = new StringBuilder(document.length() + 64);
+            joined.append('{');
+            Iterator<Map.Entry<Integer, String>> entries = blocks.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Integer, String> entry = entries.next();
+                String block = entry.getValue();
+                if (block == null) {
+                    block = joinBlock(entry.getKey());
+                    if (block.isEmpty()) {
+                        entries.remove();
+                        continue;
+                    }
+                    entry.setValue(block);
+                }
+                if (joined.length() > 1) {
+                    joined.append(',');
+                }
+                joined.append(block);
+            }
+            document = joined.append('}').toString();
+            documentStale = false;
+            joinCount.increment();
+        }
+        return document;
+    }
+
+    private static String joinBlock(int block) {
+        blockJoinCount.increment();
+        StringBuilder joined = new StringBuilder();
+        for (Listing listing : listings.subMap(block * BLOCK_GAMES, (block + 1) * BLOCK_GAMES).values()) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append('"').append(listing.gameID).append("\":").append(listing.fragment);
+        }
+        return joined.toString();
+    }
+
+    // Listed games passing the filter, in sort order, from index from for at most
+    // count games. friends is only read for Filter.FRIENDS.
+    public static synchronized Page query(Filter filter, Sort sort, Set<String> friends, int from, int count) {
+        update();
+        Comparator<Listing> order = order(sort);
+        List<Listing> matched;
+        if (filter == Filter.FRIENDS) {
+            Set<Integer> gameIDs = new HashSet<>();
+            for (String friend : friends) {
+                gameIDs.addAll(gamesByPlayer.getOrDefault(friend, Collections.emptySet()));
+            }
+            ArrayList<Listing> friendGames = new ArrayList<>(gameIDs.size());
+            for (Integer gameID : gameIDs) {
+                friendGames.add(listings.get(gameID));
+            }
+            friendGames.sort(order);
+            matched = friendGames;
+        } else {
+            matched = sorted.computeIfAbsent(sortedKey(filter, sort), key -> {
+                ArrayList<Listing> built = new ArrayList<>();
+                for (Listing listing : listings.values()) {
+                    if (listing.matches(filter)) {
+                        built.add(listing);
+                    }
+                }
+                built.sort(order);
+                return built;
+            });
+        }
+        int start = Math.min(matched.size(), Math.max(0, from));
+        int end = Math.min(matched.size(), start + Math.max(0, count));
+        return new Page(new ArrayList<>(matched.subList(start, end)), matched.size());
+    }
+
+    private static int sortedKey(Filter filter, Sort sort) {
+        return filter.ordinal() * Sort.values().length + sort.ordinal();
+    }
+
+    private static Comparator<Listing> order(Sort sort) {
+        return sort == Sort.OPEN_SEATS ? MOST_OPEN_SEATS_FIRST : NEWEST_FIRST;
+    }
+
+    // Both orders end on the game ID, so a listing has exactly one place in a list.
+    private static void resort(Listing previous, Listing listing) {
+        for (Map.Entry<Integer, ArrayList<Listing>> entry : sorted.entrySet()) {
+            int key = entry.getKey();
+            Filter filter = Filter.values()[key / Sort.values().length];
+            Comparator<Listing> order = order(Sort.values()[key % Sort.values().length]);
+            ArrayList<Listing> list = entry.getValue();
+            if (previous != null && previous.matches(filter)) {
+                int index = Collections.binarySearch(list, previous, order);
+                if (index >= 0) {
+                    list.remove(index);
+                }
+            }
+            if (listing != null && listing.matches(filter)) {
+                int index = Collections.binarySearch(list, listing, order);
+                list.add(index < 0 ? -index - 1 : index, listing);
+            }
+        }
+    }
+
+    // Re-renders the dirty games and moves the ones that changed in the sorted lists
+    // and the document's blocks.
+    private static void update() {
+        Iterator<Integer> pending = dirty.iterator();
+        while (pending.hasNext()) {
+            int gameID = pending.next();
+            // Removed before rendering: a change made meanwhile marks it dirty again.
+            pending.remove();
+            Listing listing = renderGame(GameRegistry.get(gameID));
+            Listing previous = listings.get(gameID);
+            if (listing != null) {
+                fragmentCount.increment();
+                if (previous != null && previous.fragment.equals(listing.fragment)) {
+                    continue;
+                }
+                listings.put(gameID, listing);
+            } else if (previous != null) {
+                listings.remove(gameID);
+            } else {
+                continue;
+            }
+            if (previous != null) {
+                for (String player : previous.players) {
+                    Set<Integer> games = gamesByPlayer.get(player);
+                    if (games != null && games.remove(gameID) && games.isEmpty()) {
+                        gamesByPlayer.remove(player);
+                    }
+                }
+            }
+            if (listing != null) {
+                for (String player : listing.players) {
+                    gamesByPlayer.computeIfAbsent(player, key -> new HashSet<>()).add(gameID);
+                }
+            }
+            resort(previous, listing);
+            blocks.put(gameID / BLOCK_GAMES, null);
+            documentStale = true;
+        }
+    }
+
+    // Null when the game is not listed: gone, not waiting or in progress, or with
+    // no seat left to show.
+    private static Listing renderGame(Game game) {
+        if (game == null) {
+            return null;
+        }
+        State state = game.getState();
+        if (state != State.WAITING && state != State.INGAME) {
+            return null;
+        }
+        ArrayList<Player> players = new ArrayList<>();
+        for (Player player : game.getPlayers()) {
+            if (player instanceof User && player.getGameID() != game.getGameID()) {
+                continue;
+            }
+            players.add(player);
+        }
+        if (players.isEmpty()) {
+            return null;
+        }
+        JSONObject gameJson = new JSONObject();
+        gameJson.put("host", players.get(0).getUsername());
+        for (int i = 0; i < GameRules.MAX_PLAYERS; i++) {
+            boolean hasPlayer = i < players.size();
+            Player player = hasPlayer ? players.get(i) : null;
+            if (!hasPlayer) {
+                gameJson.put("player" + (i + 1), "Empty");
+            } else {
+                JSONObject playerJson = new JSONObject();
+                playerJson.put("name", player.getUsername());
+                playerJson.put("isBot", player instanceof Bot);
+                if (player instanceof User) {
+                    User user = (User) player;
+                    playerJson.put("isOffline", !user.isOnline());
+                    playerJson.put("cardBack", user.getCardBack());
+                    playerJson.put("cardFront", user.getCardFront());
+                } else if (player instanceof Bot) {
+                    Bot bot = (Bot) player;
+                    playerJson.put("isOffline", false);
+                    playerJson.put("cardBack", bot.getCardBack());
+                    playerJson.put("cardFront", bot.getCardFront());
+                }
+                gameJson.put("player" + (i + 1), playerJson);
+            }
+            gameJson.put("player" + (i + 1) + "Voted", hasPlayer && player.hasVoted());
+        }
+        gameJson.put("hostVoted", players.get(0).hasVoted());
+        gameJson.put("state", state.toString());
+        gameJson.put("round", game.getRound());
+        String[] names = new String[players.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = players.get(i).getUsername();
+        }
+        return new Listing(
+            game.getGameID(),
+            gameJson.toString(),
+            state,
+            GameRules.MAX_PLAYERS - players.size(),
+            names
+        );
+    }
+
+    public static JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        synchronized (LobbyView.class) {
+            json.put("listed", listings.size());
+            json.put("documentBytes", document.length());
+        }
+        json.put("dirty", dirty.size());
+        json.put("renders", renderCount.sum());
+        json.put("fragmentsBuilt", fragmentCount.sum());
+        json.put("joins", joinCount.sum());
+        json.put("blocksJoined", blockJoinCount.sum());
+        return json;
+    }
+}
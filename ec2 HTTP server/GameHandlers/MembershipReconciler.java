@@ -0,0 +1,125 @@
+package GameHandlers;
+
+import HTTPHandlers.HTTPServer;
+import HTTPHandlers.LatencyStats;
+import HTTPHandlers.PostAllGamesInfo;
+import HTTPHandlers.ServerConfig;
+import HTTPHandlers.ServerLog;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Repairs game memberships in the background instead of on request paths. Every
+// registry refresh (a state, seat, gameID or connection change, including a user
+// moving between games) marks the game dirty; every intervalMs a worker takes the
+// dirty games the registry indexes as possibly broken (a stale seat or no online
+// human) and runs GameHandler.reconcile on each game's mailbox. Every auditSec it
+// queues every registered game as well, in case a change was never marked.
+public final class MembershipReconciler {
+    private static final String SCOPE = "MembershipReconciler";
+    private static final long INTERVAL_MS = Math.max(10, ServerConfig.getLong("ohhell.reconcile.intervalMs", 250));
+    private static final long AUDIT_SECONDS = Math.max(1, ServerConfig.getLong("ohhell.reconcile.auditSec", 60));
+
+    private static final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService scheduler;
+
+    private static final LongAdder passCount = new LongAdder();
+    private static final LongAdder auditCount = new LongAdder();
+    private static final LongAdder checkedCount = new LongAdder();
+    private static final LongAdder repairedCount = new LongAdder();
+    private static final LatencyStats passLatency = new LatencyStats();
+
+    private MembershipReconciler() {}
+
+    static void markDirty(int gameID) {
+        if (gameID > 0) {
+            dirty.add(gameID);
+        }
+    }
+
+    public static synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(HTTPServer.namedThreadFactory("membership-reconciler-"));
+        scheduler.scheduleWithFixedDelay(
+            () -> runQuietly(MembershipReconciler::reconcileDirty),
+            INTERVAL_MS,
+            INTERVAL_MS,
+            TimeUnit.MILLISECONDS
+        );
+        scheduler.scheduleWithFixedDelay(
+            () -> runQuietly(MembershipReconciler::audit),
+            AUDIT_SECONDS,
+            AUDIT_SECONDS,
+            TimeUnit.SECONDS
+        );
+    }
+
+    private static void runQuietly(Runnable pass) {
+        try {
+            pass.run();
+        } catch (RuntimeException e) {
+            ServerLog.error(SCOPE, "Reconciliation pass failed.", e);
+        }
+    }
+
+    static void reconcileDirty() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        Iterator<Integer> pending = dirty.iterator();
+        while (pending.hasNext()) {
+            int gameID = pending.next();
+            // Removed first: a change made meanwhile marks the game dirty again.
+            pending.remove();
+            if (GameRegistry.mayNeedRepair(gameID)) {
+                submit(GameRegistry.get(gameID));
+            }
+        }
+        passCount.increment();
+        passLatency.recordNanos(System.nanoTime() - startNanos);
+    }
+
+    static void audit() {
+        for (Game game : GameRegistry.all()) {
+            submit(game);
+        }
+        auditCount.increment();
+    }
+
+    private static void submit(Game game) {
+        if (game == null) {
+            return;
+        }
+        checkedCount.increment();
+        game.execute(() -> {
+            try {
+                if (GameHandler.reconcile(game)) {
+                    repairedCount.increment();
+                    PostAllGamesInfo.postAllGamesToLobby();
+                }
+            } catch (RuntimeException e) {
+                ServerLog.error(SCOPE, "Could not reconcile game " + game.getGameID() + ".", e);
+            }
+        });
+    }
+
+    public static JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        json.put("dirty", dirty.size());
+        json.put("passes", passCount.sum());
+        json.put("audits", auditCount.sum());
+        json.put("checked", checkedCount.sum());
+        json.put("repaired", repairedCount.sum());
+        json.put("pass", passLatency.toJson());
+        return json;
+    }
+}
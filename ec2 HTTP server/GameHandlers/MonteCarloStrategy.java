@@ -0,0 +1,450 @@
+package GameHandlers;
+
+import HTTPHandlers.LatencyStats;
+import HTTPHandlers.ServerConfig;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Optional bot engine (ohhell.bot.strategy=montecarlo). For each decision it deals
+// the unseen cards to the other seats consistently with what the bot has seen (cards
+// played, and suits a seat has shown it is out of), plays the rest of the round out
+// with BotStrategy for everyone, and picks the bid or card with the best average
+// score for itself. Sampling runs on a dedicated fork-join pool, split into at most
+// ohhell.bot.mc.width tasks per decision and stopped at ohhell.bot.mc.budgetMs, or
+// as soon as the game cancels the decision, so one game's bot can never take more
+// than that share of the CPU. Games keep running their mailboxes while a bot thinks;
+// the decision is applied through the mailbox.
+public final class MonteCarloStrategy {
+    private static final boolean ENABLED =
+        "montecarlo".equalsIgnoreCase(ServerConfig.getString("ohhell.bot.strategy", "greedy").trim());
+    private static final long BUDGET_NANOS =
+        TimeUnit.MILLISECONDS.toNanos(Math.max(1, ServerConfig.getLong("ohhell.bot.mc.budgetMs", 250)));
+    private static final int WIDTH = Math.max(1, ServerConfig.getInt("ohhell.bot.mc.width", 2));
+    private static final int MAX_SAMPLES = Math.max(1, ServerConfig.getInt("ohhell.bot.mc.maxSamples", 2_000));
+    private static final int THREADS = Math.max(
+        1,
+        ServerConfig.getInt("ohhell.bot.mc.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2))
+    );
+    private static final int DEAL_ATTEMPTS = 8;
+    private static final AtomicInteger WORKER_IDS = new AtomicInteger();
+    private static final ForkJoinPool pool = new ForkJoinPool(THREADS, MonteCarloStrategy::newWorker, null, false);
+
+    private static final LongAdder decisions = new LongAdder();
+    private static final LongAdder sampleCount = new LongAdder();
+    private static final LongAdder failedCount = new LongAdder();
+    private static final LongAdder cancelledCount = new LongAdder();
+    private static final LongAdder reusedCount = new LongAdder();
+    private static final LatencyStats queueWait = new LatencyStats();
+    private static final LatencyStats thinkTime = new LatencyStats();
+
+    private MonteCarloStrategy() {}
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    // Everything one seat can see when it has to act, copied out of the game so the
+    // search never touches live state.
+    static final class Situation {
+        final int self;
+        final int playerCount;
+        final int cardsThisRound;
+        final Suits trumpSuit;
+        final long seen;
+        final long[] voids;
+        final int[] handSizes;
+        final long ownHand;
+        final int[] bets;
+        final int[] handsWon;
+        final int leader;
+        final int[] trickCards;
+        final int trickSize;
+        final long seed;
+
+        Situation(
+            int self,
+            int playerCount,
+            int cardsThisRound,
+            Suits trumpSuit,
+            long seen,
+            long[] voids,
+            int[] handSizes,
+            long ownHand,
+            int[] bets,
+            int[] handsWon,
+            int leader,
+            int[] trickCards,
+            int trickSize,
+            long seed
+        ) {
+            this.self = self;
+            this.playerCount = playerCount;
+            this.cardsThisRound = cardsThisRound;
+            this.trumpSuit = trumpSuit;
+            this.seen = seen;
+            this.voids = voids;
+            this.handSizes = handSizes;
+            this.ownHand = ownHand;
+            this.bets = bets;
+            this.handsWon = handsWon;
+            this.leader = leader;
+            this.trickCards = trickCards;
+            this.trickSize = trickSize;
+            this.seed = seed;
+        }
+
+        boolean betting() {
+            return bets[self] < 0;
+        }
+
+        // Bids 0..cards while betting; otherwise the playable cards, by card index.
+        int candidateCount() {
+            return betting() ? cardsThisRound + 1 : CardMask.DECK_SIZE;
+        }
+
+        Suits leadSuit() {
+            return trickSize > 0 ? CardMask.suit(trickCards[0]) : null;
+        }
+
+        long playable() {
+            return CardMask.playable(ownHand, leadSuit());
+        }
+
+        // Same decision to make: everything but the sampling seed matches.
+        boolean sameAs(Situation other) {
+            return other != null
+                && self == other.self
+                && playerCount == other.playerCount
+                && cardsThisRound == other.cardsThisRound
+                && trumpSuit == other.trumpSuit
+                && seen == other.seen
+                && ownHand == other.ownHand
+                && leader == other.leader
+                && trickSize == other.trickSize
+                && Arrays.equals(voids, other.voids)
+                && Arrays.equals(handSizes, other.handSizes)
+                && Arrays.equals(bets, other.bets)
+                && Arrays.equals(handsWon, other.handsWon)
+                && Arrays.equals(trickCards, other.trickCards);
+        }
+    }
+
+    // Bid or card index for the situation. Completes exceptionally only if the search
+    // itself fails; callers fall back to BotStrategy then. Cancelling the returned
+    // future stops the search at its next sample. The time budget starts when the
+    // search leaves the pool queue, so a decision queued behind other games'
+    // searches still gets its full budget instead of finishing with no samples.
+    static CompletableFuture<Integer> decide(Situation situation) {
+        long queuedNanos = System.nanoTime();
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        pool.execute(() -> {
+            long startNanos = System.nanoTime();
+            queueWait.recordNanos(startNanos - queuedNanos);
+            if (result.isCancelled()) {
+                cancelledCount.increment();
+                return;
+            }
+            long deadlineNanos = startNanos + BUDGET_NANOS;
+            try {
+                int samplesPerTask = (MAX_SAMPLES + WIDTH - 1) / WIDTH;
+                Totals totals = new Search(situation, deadlineNanos, result, 0, WIDTH, samplesPerTask).invoke();
+                if (result.isCancelled()) {
+                    cancelledCount.increment();
+                    return;
+                }
+                decisions.increment();
+                sampleCount.add(totals.samples);
+                thinkTime.recordNanos(System.nanoTime() - startNanos);
+                result.complete(totals.best(situation));
+            } catch (RuntimeException e) {
+                failedCount.increment();
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private static final class Totals {
+        final long[] scores;
+        final int[] counts;
+        long samples;
+
+        Totals(int candidates) {
+            this.scores = new long[candidates];
+            this.counts = new int[candidates];
+        }
+
+        Totals merge(Totals other) {
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] += other.scores[i];
+                counts[i] += other.counts[i];
+            }
+            samples += other.samples;
+            return this;
+        }
+
+        int best(Situation situation) {
+            int best = -1;
+            double bestMean = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < scores.length; i++) {
+                if (counts[i] == 0) {
+                    continue;
+                }
+                double mean = (double) scores[i] / counts[i];
+                if (mean > bestMean) {
+                    best = i;
+                    bestMean = mean;
+                }
+            }
+            if (best >= 0) {
+                return best;
+            }
+            // Ran out of time before a single sample; take the greedy choice.
+            if (situation.betting()) {
+                return BotStrategy.chooseBet(situation.ownHand, situation.trumpSuit, situation.cardsThisRound);
+            }
+            return greedyCard(situation);
+        }
+    }
+
+    // Splits a decision's sampling into width leaf tasks, each with its own seed.
+    private static final class Search extends RecursiveTask<Totals> {
+        private static final long serialVersionUID = 1L;
+
+        private final Situation situation;
+        private final long deadlineNanos;
+        private final CompletableFuture<Integer> result;
+        private final int from;
+        private final int to;
+        private final int samplesPerTask;
+
+        Search(
+            Situation situation,
+            long deadlineNanos,
+            CompletableFuture<Integer> result,
+            int from,
+            int to,
+            int samplesPerTask
+        ) {
+            this.situation = situation;
+            this.deadlineNanos = deadlineNanos;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+            this.samplesPerTask = samplesPerTask;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from <= 1) {
+                SplittableRandom random = new SplittableRandom(situation.seed + from);
+                return sample(situation, random, deadlineNanos, result, samplesPerTask);
+            }
+            int middle = (from + to) >>> 1;
+            Search left = new Search(situation, deadlineNanos, result, from, middle, samplesPerTask);
+            left.fork();
+            Totals right = new Search(situation, deadlineNanos, result, middle, to, samplesPerTask).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    private static Totals sample(
+        Situation situation,
+        SplittableRandom random,
+        long deadlineNanos,
+        CompletableFuture<Integer> result,
+        int limit
+    ) {
+        Totals totals = new Totals(situation.candidateCount());
+        long[] hands = new long[situation.playerCount];
+        int[] bets = new int[situation.playerCount];
+        long playable = situation.betting() ? 0L : situation.playable();
+        for (int n = 0; n < limit && System.nanoTime() < deadlineNanos && !result.isCancelled(); n++) {
+            dealUnseen(situation, random, hands);
+            if (situation.betting()) {
+                chooseOpponentBets(situation, hands, bets);
+                for (int bid = 0; bid <= situation.cardsThisRound; bid++) {
+                    bets[situation.self] = bid;
+                    totals.scores[bid] += playOut(situation, hands.clone(), bets, CardMask.NO_CARD);
+                    totals.counts[bid]++;
+                }
+            } else {
+                System.arraycopy(situation.bets, 0, bets, 0, bets.length);
+                for (long rest = playable; rest != 0; rest &= rest - 1) {
+                    int card = Long.numberOfTrailingZeros(rest);
+                    totals.scores[card] += playOut(situation, hands.clone(), bets, card);
+                    totals.counts[card]++;
+                }
+            }
+            totals.samples++;
+        }
+        return totals;
+    }
+
+    // Seats that have not bid yet bid as the greedy bot would with their sampled hand.
+    private static void chooseOpponentBets(Situation situation, long[] hands, int[] bets) {
+        for (int seat = 0; seat < situation.playerCount; seat++) {
+            bets[seat] = situation.bets[seat] >= 0
+                ? situation.bets[seat]
+                : BotStrategy.chooseBet(hands[seat], situation.trumpSuit, situation.cardsThisRound);
+        }
+    }
+
+    // Gives every other seat as many unseen cards as it holds, avoiding suits it is
+    // known to be out of. If the voids cannot be honoured after a few shuffles, they
+    // are ignored for this sample.
+    private static void dealUnseen(Situation situation, SplittableRandom random, long[] hands) {
+        long unseenMask = ~situation.seen & ~situation.ownHand & ((1L << CardMask.DECK_SIZE) - 1);
+        int[] unseen = new int[Long.bitCount(unseenMask)];
+        int count = 0;
+        for (long rest = unseenMask; rest != 0; rest &= rest - 1) {
+            unseen[count++] = Long.numberOfTrailingZeros(rest);
+        }
+        for (int attempt = 0; attempt <= DEAL_ATTEMPTS; attempt++) {
+            boolean honourVoids = attempt < DEAL_ATTEMPTS;
+            for (int i = count - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = unseen[i];
+                unseen[i] = unseen[j];
+                unseen[j] = swap;
+            }
+            if (tryDeal(situation, unseen, honourVoids, hands)) {
+                return;
+            }
+        }
+    }
+
+    private static boolean tryDeal(Situation situation, int[] unseen, boolean honourVoids, long[] hands) {
+        long taken = 0L;
+        for (int seat = 0; seat < situation.playerCount; seat++) {
+            if (seat == situation.self) {
+                hands[seat] = situation.ownHand;
+                continue;
+            }
+            long blocked = honourVoids ? situation.voids[seat] : 0L;
+            long hand = 0L;
+            int needed = situation.handSizes[seat];
+            for (int i = 0; i < unseen.length && needed > 0; i++) {
+                long bit = CardMask.bit(unseen[i]);
+                if ((taken & bit) != 0 || (blocked & bit) != 0) {
+                    continue;
+                }
+                hand |= bit;
+                taken |= bit;
+                needed--;
+            }
+            if (needed > 0) {
+                return false;
+            }
+            hands[seat] = hand;
+        }
+        return true;
+    }
+
+    // Plays the rest of the round with BotStrategy for every seat (after firstCard
+    // for self, when given) and returns self's score for the round.
+    private static int playOut(Situation situation, long[] hands, int[] bets, int firstCard) {
+        int players = situation.playerCount;
+        int[] won = situation.handsWon.clone();
+        int[] trickSeats = new int[CardMask.DECK_SIZE];
+        Suits trumpSuit = situation.trumpSuit;
+        int leader = situation.leader;
+        long trickMask = 0L;
+        Suits leadSuit = null;
+        int topDog = CardMask.NO_CARD;
+        int played = situation.trickSize;
+        for (int i = 0; i < played; i++) {
+            int card = situation.trickCards[i];
+            trickMask |= CardMask.bit(card);
+            trickSeats[card] = (leader + i) % players;
+            if (leadSuit == null) {
+                leadSuit = CardMask.suit(card);
+            }
+            topDog = CardMask.trickWinner(trickMask, trumpSuit, leadSuit);
+        }
+        while (true) {
+            while (played < players) {
+                int seat = (leader + played) % players;
+                if (hands[seat] == 0L) {
+                    return GameRules.scoreChange(bets[situation.self], won[situation.self]);
+                }
+                int card = seat == situation.self && firstCard != CardMask.NO_CARD
+                    ? firstCard
+                    : BotStrategy.chooseCard(hands[seat], won[seat], bets[seat], trumpSuit, leadSuit, topDog);
+                if (seat == situation.self) {
+                    firstCard = CardMask.NO_CARD;
+                }
+                hands[seat] &= ~CardMask.bit(card);
+                trickMask |= CardMask.bit(card);
+                trickSeats[card] = seat;
+                if (leadSuit == null) {
+                    leadSuit = CardMask.suit(card);
+                }
+                topDog = CardMask.trickWinner(trickMask, trumpSuit, leadSuit);
+                played++;
+            }
+            leader = trickSeats[topDog];
+            won[leader]++;
+            trickMask = 0L;
+            leadSuit = null;
+            topDog = CardMask.NO_CARD;
+            played = 0;
+        }
+    }
+
+    private static int greedyCard(Situation situation) {
+        Suits trumpSuit = situation.trumpSuit;
+        Suits leadSuit = situation.leadSuit();
+        long trick = 0L;
+        int topDog = CardMask.NO_CARD;
+        for (int i = 0; i < situation.trickSize; i++) {
+            trick |= CardMask.bit(situation.trickCards[i]);
+            topDog = CardMask.trickWinner(trick, trumpSuit, leadSuit);
+        }
+        return BotStrategy.chooseCard(
+            situation.ownHand,
+            situation.handsWon[situation.self],
+            situation.bets[situation.self],
+            trumpSuit,
+            leadSuit,
+            topDog
+        );
+    }
+
+    static void noteReused() {
+        reusedCount.increment();
+    }
+
+    private static ForkJoinWorkerThread newWorker(ForkJoinPool owner) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(owner);
+        thread.setName("bot-search-" + WORKER_IDS.incrementAndGet());
+        thread.setDaemon(true);
+        // Search is background work; request, mailbox and timer threads come first.
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    }
+
+    public static JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        json.put("enabled", ENABLED);
+        json.put("threads", THREADS);
+        json.put("budgetMs", TimeUnit.NANOSECONDS.toMillis(BUDGET_NANOS));
+        json.put("decisions", decisions.sum());
+        json.put("samples", sampleCount.sum());
+        json.put("failed", failedCount.sum());
+        json.put("cancelled", cancelledCount.sum());
+        json.put("reused", reusedCount.sum());
+        json.put("queueWait", queueWait.toJson());
+        json.put("thinkTime", thinkTime.toJson());
+        return json;
+    }
+}
@@ -0,0 +1,20 @@
+package GameHandlers;
+
+// A card on the table and the seat that played it.
+public final class PlayedCard {
+    private final Card card;
+    private final int seat;
+
+    public PlayedCard(Card card, int seat) {
+        this.card = card;
+        this.seat = seat;
+    }
+
+    public Card getCard() {
+        return card;
+    }
+
+    public int getSeat() {
+        return seat;
+    }
+}
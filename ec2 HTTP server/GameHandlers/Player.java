@@ -1,24 +1,25 @@
 package GameHandlers;
 
-import java.util.ArrayList;
+import java.util.List;
 
 // Can be a bot or a user.
 public abstract class Player {
     private final String username;
-    protected int gameID;
-    protected int seatIndex;
-    protected ArrayList<Card> hand;
+    protected volatile int gameID;
+    protected volatile int seatIndex;
+    // Bitmask of CardMask indexes.
+    protected long hand;
     protected int bet;
     protected int handsWon;
     protected int score;
-    protected State state;
-    protected boolean hasVoted;
+    protected volatile State state;
+    protected volatile boolean hasVoted;
 
     public Player(String username) {
         this.username = username;
         this.gameID = -1;
         this.seatIndex = -1;
-        this.hand = new ArrayList<>();
+        this.hand = 0L;
         this.bet = -1;
         this.handsWon = 0;
         this.score = 0;
@@ -41,8 +42,14 @@ public abstract class Player {
         return this.state;
     }
 
+    // Both games' registry indexes depend on where this player points.
     public void setGameID(int gameID) {
+        int previous = this.gameID;
         this.gameID = gameID;
+        if (previous != gameID) {
+            GameRegistry.refresh(previous);
+            GameRegistry.refresh(gameID);
+        }
     }
 
     public int getSeatIndex() {
@@ -53,14 +60,35 @@ public abstract class Player {
         this.seatIndex = seatIndex;
     }
 
-    public ArrayList<Card> getHand() {
+    // Built on demand for the JSON boundary; game logic works on the mask.
+    public List<Card> getHand() {
+        return CardMask.toCards(hand);
+    }
+
+    public long getHandMask() {
         return hand;
     }
 
-    public void setHand(ArrayList<Card> hand) {
+    public void setHandMask(long hand) {
         this.hand = hand;
     }
 
+    public int getHandSize() {
+        return Long.bitCount(hand);
+    }
+
+    public boolean hasCard(int card) {
+        return (hand & CardMask.bit(card)) != 0;
+    }
+
+    public void addCard(int card) {
+        this.hand |= CardMask.bit(card);
+    }
+
+    public void removeCard(int card) {
+        this.hand &= ~CardMask.bit(card);
+    }
+
     public int getBet() {
         return bet;
     }
@@ -74,13 +102,13 @@ public abstract class Player {
     }
 
     public void resetForRound() {
-        this.hand.clear();
+        this.hand = 0L;
         this.bet = -1;
         this.handsWon = 0;
     }
 
     public void resetForGame() {
-        this.hand.clear();
+        this.hand = 0L;
         this.bet = -1;
         this.handsWon = 0;
         this.score = 0;
@@ -105,6 +133,7 @@ public abstract class Player {
 
     public void setVoted() {
         this.hasVoted = true;
+        LobbyView.markDirty(gameID);
     }
 
     public boolean hasVoted() {
@@ -113,5 +142,6 @@ public abstract class Player {
 
     public void unsetVote() {
         this.hasVoted = false;
+        LobbyView.markDirty(gameID);
     }
 }
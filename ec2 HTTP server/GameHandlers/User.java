@@ -1,15 +1,22 @@
 package GameHandlers;
 
+import HTTPHandlers.PostAllGamesInfo;
 import HTTPHandlers.PostAllUsersToLobby;
+import HTTPHandlers.PostGameState;
+import HTTPHandlers.PushDispatcher;
 import HTTPHandlers.ServerLog;
 import org.json.JSONObject;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class User extends Player{
     private static final String SCOPE = "User";
@@ -39,27 +46,32 @@ public class User extends Player{
         Map.entry("clear", "signal"),
         Map.entry("arcane", "signal")
     );
-    protected static final HashMap<String,User> connectionList = new HashMap<>();
-    protected static final Stack<User> onlineList = new Stack<>();
-    protected static final HashMap<String,User> userList = new HashMap<>();
+    protected static final ConcurrentHashMap<String,User> connectionList = new ConcurrentHashMap<>();
+    protected static final CopyOnWriteArrayList<User> onlineList = new CopyOnWriteArrayList<>();
+    protected static final ConcurrentHashMap<String,User> userList = new ConcurrentHashMap<>();
     protected String sub;
-    protected ArrayList<String> connectionID;
+    protected List<String> connectionID;
     protected String cardBack;
     protected String cardFront;
     private final Set<Integer> forfeitedGameIDs;
     private int lastForfeitedGameID;
 
     public User(String sub,String username, String connectionID){
+        this(sub, username);
+        this.connectionID.add(connectionID);
+        User.connectionList.put(connectionID,this);
+        this.state = State.LOBBY;
+    }
+
+    private User(String sub, String username) {
         super(username);
-        this.connectionID = new ArrayList<>();
+        this.connectionID = new CopyOnWriteArrayList<>();
         this.sub=sub;
-        this.connectionID.add(connectionID);
         this.cardBack = DEFAULT_CARD_BACK;
         this.cardFront = DEFAULT_CARD_FRONT;
         this.forfeitedGameIDs = new HashSet<>();
         this.lastForfeitedGameID = -1;
-        User.connectionList.put(connectionID,this);
-        this.state = State.LOBBY;
+        this.state = State.OFFLINE;
     }
 
     public static User getUser(String connectionID) {
@@ -70,24 +82,20 @@ public class User extends Player{
     public static ArrayList<String> getLobbyConnections() {
         ArrayList<String> connections = new ArrayList<>();
         // for each player in lobby
-        for(int i = 0; i < onlineList.size();i++){
-            User u =onlineList.get(i);
+        for(User u : onlineList){
             if(u.state==State.LOBBY || u.state==State.WAITING || u.state==State.INGAME){
                 //For each connection this player has
-                for(int j = 0; j <u.connectionID.size(); j++){
-                    connections.add(u.connectionID.get(j));
-                }
+                connections.addAll(u.connectionID);
             }
         }
         return connections;
     }
 
 
-    private User addConnection(String connectionID) {
-        if (!this.connectionID.contains(connectionID)) {
-            this.connectionID.add(connectionID);
-        }
+    private synchronized User addConnection(String connectionID) {
+        ((CopyOnWriteArrayList<String>) this.connectionID).addIfAbsent(connectionID);
         User.connectionList.put(connectionID,this);
+        GameRegistry.refresh(gameID);
         ServerLog.info(SCOPE, "Connection " + connectionID + " mapped to " + getUsername());
         return this;
     }
@@ -113,6 +121,7 @@ public class User extends Player{
 
     public synchronized void setCardBack(String newCardBack) {
         cardBack = normalizeCardBackKey(newCardBack);
+        LobbyView.markDirty(gameID);
     }
 
     public synchronized String getCardFront() {
@@ -121,6 +130,7 @@ public class User extends Player{
 
     public synchronized void setCardFront(String newCardFront) {
         cardFront = normalizeCardFrontKey(newCardFront);
+        LobbyView.markDirty(gameID);
     }
 
     public synchronized void markGameForfeited(int gameID) {
@@ -143,6 +153,42 @@ public class User extends Player{
         return new ArrayList<>(forfeitedGameIDs);
     }
 
+    //Cosmetics and forfeit records for GameSnapshot. Game membership is not saved here;
+    //restored games seat their users again.
+    synchronized void writeSnapshot(DataOutputStream out) throws IOException {
+        out.writeUTF(sub);
+        out.writeUTF(getUsername());
+        out.writeUTF(cardBack);
+        out.writeUTF(cardFront);
+        out.writeShort(forfeitedGameIDs.size());
+        for (int gameID : forfeitedGameIDs) {
+            out.writeInt(gameID);
+        }
+        out.writeInt(lastForfeitedGameID);
+    }
+
+    static User readSnapshot(DataInputStream in) throws IOException {
+        User user = restoreUser(in.readUTF(), in.readUTF());
+        synchronized (user) {
+            user.cardBack = normalizeCardBackKey(in.readUTF());
+            user.cardFront = normalizeCardFrontKey(in.readUTF());
+            int forfeits = in.readUnsignedShort();
+            for (int i = 0; i < forfeits; i++) {
+                user.forfeitedGameIDs.add(in.readInt());
+            }
+            user.lastForfeitedGameID = in.readInt();
+        }
+        return user;
+    }
+
+    static User findUser(String sub) {
+        return User.userList.get(sub);
+    }
+
+    static ArrayList<User> getAllUsers() {
+        return new ArrayList<>(userList.values());
+    }
+
     public static String normalizeCardBackKey(String raw) {
         String normalized = String.valueOf(raw)
             .trim()
@@ -176,26 +222,40 @@ public class User extends Player{
     //Returns a player object unless one is already made
     public static User getUser(String sub, String username, String connectionID){
         //if the player object exists, send it.
-        if(User.userList.containsKey(sub)){
-            return User.userList.get(sub).addConnection(connectionID);
+        User existing = User.userList.get(sub);
+        if(existing != null){
+            return existing.addConnection(connectionID);
         }
-        //If not, we create the object
+        //If not, we create the object. Two connects for the same sub can race here,
+        //so whoever loses keeps the winner's object.
         User newPlayer = new User(sub,username,connectionID);
-        userList.put(newPlayer.getSub(),newPlayer);
+        User raced = userList.putIfAbsent(newPlayer.getSub(),newPlayer);
+        if(raced != null){
+            return raced.addConnection(connectionID);
+        }
         return newPlayer;
     }
 
 
+    //Brings back a player from the game journal after a restart. They stay offline
+    //until a connection with the same sub arrives and picks this object up.
+    public static User restoreUser(String sub, String username){
+        User existing = User.userList.get(sub);
+        if(existing != null){
+            return existing;
+        }
+        User restored = new User(sub,username);
+        User raced = userList.putIfAbsent(sub,restored);
+        return raced != null ? raced : restored;
+    }
+
     public static void addUserOnline(User p){
         if(p==null) throw new IllegalArgumentException("Player was null");
-        if(onlineList.contains(p)) {
-            ServerLog.info(SCOPE, p.getUsername() + " already marked online.");
+        if (p.gameID == -1 && !onlineList.contains(p)) {
+            p.state = State.LOBBY;
         }
-        else{
-            if (p.gameID == -1) {
-                p.state = State.LOBBY;
-            }
-            User.onlineList.add(p);
+        if(!User.onlineList.addIfAbsent(p)) {
+            ServerLog.info(SCOPE, p.getUsername() + " already marked online.");
         }
 
     }
@@ -205,10 +265,23 @@ public class User extends Player{
             ServerLog.warn(SCOPE, "Unknown connection remove request: " + connectionID);
             return null;
         }
-        user.connectionID.remove(connectionID);
-        if(user.connectionID.size()==0){
-            user.state= State.OFFLINE;
-            User.onlineList.remove(user);
+        boolean wentOffline;
+        synchronized (user) {
+            user.connectionID.remove(connectionID);
+            wentOffline = user.connectionID.isEmpty();
+            if (wentOffline) {
+                user.state = State.OFFLINE;
+                User.onlineList.remove(user);
+            }
+        }
+        connectionList.remove(connectionID, user);
+        if (wentOffline) {
+            GameRegistry.refresh(user.getGameID());
+        }
+        PushDispatcher.discardConnection(connectionID);
+        PostGameState.discardConnection(connectionID);
+        PostAllGamesInfo.discardConnection(connectionID);
+        if(wentOffline){
             ServerLog.info(SCOPE, "Player " + user.getUsername() + " is now offline.");
             PostAllUsersToLobby.postAllUsersToLobby();
         }
@@ -218,13 +291,11 @@ public class User extends Player{
                 "Player " + user.getUsername() + " has " + user.connectionID.size() + " live connections"
             );
         }
-        connectionList.remove(connectionID);
         return user;
     }
     public static JSONObject getUsersObject() {
         JSONObject users = new JSONObject();
-        for(int i =0; i < onlineList.size();i++){
-            User u = onlineList.elementAt(i);
+        for(User u : onlineList){
             JSONObject userInfo = new JSONObject();
             userInfo.put("status", u.getState().toString());
             userInfo.put("cardBack", u.getCardBack());
@@ -1,26 +1,22 @@
 package HTTPHandlers;
 
-import GameHandlers.GameHandler;
-import GameHandlers.User;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
 import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.Locale;
-import java.util.TimeZone;
 import java.time.Instant;
-import java.util.concurrent.ConcurrentHashMap;
-
-import org.json.JSONObject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 public class AWSSigner {
     private static final String SCOPE = "AWSSigner";
@@ -29,213 +25,155 @@ public class AWSSigner {
     private static final String METHOD = "POST";
     private static final String SERVICE = "execute-api";
     private static final String REGION = "us-west-1";
-    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
-    private static final int IMDS_TIMEOUT_MS = 1000;
-
-    private static volatile AwsCredentials cachedCredentials;
-    private static final ConcurrentHashMap<String, Integer> goneCounts = new ConcurrentHashMap<>();
-
-    private static class AwsCredentials {
-        final String accessKeyId;
-        final String secretAccessKey;
-        final String sessionToken;
-        final long expiresAt;
-
-        AwsCredentials(String accessKeyId, String secretAccessKey, String sessionToken, long expiresAt) {
-            this.accessKeyId = accessKeyId;
-            this.secretAccessKey = secretAccessKey;
-            this.sessionToken = sessionToken;
-            this.expiresAt = expiresAt;
-        }
-
-        boolean isExpired() {
-            if (expiresAt <= 0) {
-                return false;
-            }
-            return Instant.now().toEpochMilli() > (expiresAt - 60_000);
+    private static final String REST_API_PATH = "/" + STAGE + "/@connections/";
+    private static final String ENCODED_REST_API_PATH = "/" + STAGE + "/%40connections/";
+    private static final DateTimeFormatter AMZ_DATE_FORMAT =
+        DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final SigV4Signer SIGNER = new SigV4Signer(METHOD, RESTAPIHOST, REGION, SERVICE);
+    private static final int HTTP_OK = 200;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    // One shared client keeps TLS sessions alive across pushes: HTTP/2 when API
+    // Gateway negotiates it over ALPN, pooled HTTP/1.1 keep-alive otherwise.
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .connectTimeout(CONNECT_TIMEOUT)
+        .build();
+    private static final InFlightLimiter IN_FLIGHT =
+        new InFlightLimiter(Math.max(1, ServerConfig.getInt("ohhell.push.maxInFlight", 64)));
+
+    private static volatile AmzDate cachedAmzDate;
+
+    // Only SigV4PushTransport sends; everything else goes through PushDispatcher.
+    // Completes with the ManageConnections status code. Transport failures complete
+    // exceptionally; non-2xx responses are logged here and still complete normally.
+    static CompletableFuture<Integer> sendSignedMessage(PushMessage message, String connectionId) {
+        HttpRequest request;
+        try {
+            request = buildSignedRequest(message, connectionId);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
         }
+        return IN_FLIGHT.submit(() -> HTTP_CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofString()))
+            .thenApply(response -> handleResponse(connectionId, response));
     }
 
-    public static void sendSignedMessage(String requestBody, ArrayList<String> connections) throws IOException, NoSuchAlgorithmException {
-        AwsCredentials credentials = getCredentials();
-        String restApiPath = "/" + STAGE + "/@connections/";
-        String encodedRestApiPath = "/" + STAGE + "/%40connections/";
-
-        // Create a datetime object for signing
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'", Locale.US);
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-        String amzDate = dateFormat.format(new Date());
-        String dateStamp = amzDate.substring(0, 8);
-
-        // Create the canonical request
-        String canonicalQuerystring = "";
-        String canonicalHeaders = "content-type:application/json\nhost:" + RESTAPIHOST + "\n";
-        String signedHeaders = "content-type;host";
+    private static HttpRequest buildSignedRequest(PushMessage message, String connectionId) throws IOException {
+        AwsCredentials credentials = CredentialProvider.current();
+        String amzDate = currentAmzDate();
+        String canonicalUri = REST_API_PATH + connectionId;
+        String encodedUri = ENCODED_REST_API_PATH + URLEncoder.encode(connectionId, StandardCharsets.UTF_8);
+        String authorizationHeader = SIGNER.authorization(
+            amzDate,
+            encodedUri,
+            message.getPayloadHash(),
+            credentials.accessKeyId,
+            credentials.secretAccessKey,
+            credentials.sessionToken
+        );
+        // Make the request. HttpClient derives the Host header from the URI.
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create("https://" + RESTAPIHOST + canonicalUri))
+            .timeout(REQUEST_TIMEOUT)
+            .header("x-amz-date", amzDate)
+            .header("Content-Type", "application/json")
+            .header("Authorization", authorizationHeader)
+            .POST(HttpRequest.BodyPublishers.ofByteArray(message.getBytes()));
         if (credentials.sessionToken != null && !credentials.sessionToken.isBlank()) {
-            canonicalHeaders += "x-amz-security-token:" + credentials.sessionToken + "\n";
-            signedHeaders += ";x-amz-security-token";
+            builder.header("x-amz-security-token", credentials.sessionToken);
         }
-        String payloadHash = sha256Hex(requestBody);
-
-        // Create the string to sign
-        String credentialScope = dateStamp + "/" + REGION + "/" + SERVICE + "/" + "aws4_request";
-
-
-        // Add signing information to the request
-        for (String connectionId : connections) {
-            String canonicalUri = restApiPath + connectionId;
-            String encodedUri = encodedRestApiPath + URLEncoder.encode(connectionId, StandardCharsets.UTF_8);
-            String canonicalRequest = METHOD + "\n" + encodedUri+ "\n" + canonicalQuerystring + "\n" + canonicalHeaders + "\n" + signedHeaders + "\n" + payloadHash;
-            String hashedCanonicalRequest = sha256Hex(canonicalRequest);
-            String stringToSign = ALGORITHM + "\n" + amzDate + "\n" + credentialScope + "\n" + hashedCanonicalRequest;
-
-            // Sign the string
-            byte[] signingKey = getSignatureKey(credentials.secretAccessKey, dateStamp, REGION, SERVICE);
-            String signature = hmacSha256Hex(signingKey, stringToSign);
-            String authorizationHeader = ALGORITHM + " " + "Credential=" + credentials.accessKeyId + "/" + credentialScope + ", " + "SignedHeaders=" + signedHeaders + ", " + "Signature=" + signature;
-            // Make the header
-            HttpURLConnection con = null;
-            try {
-                URL url = new URL("https://" + RESTAPIHOST + canonicalUri);
-                con = (HttpURLConnection) url.openConnection();
-                con.setRequestMethod(METHOD);
-                con.setRequestProperty("Host", RESTAPIHOST);
-                con.setRequestProperty("x-amz-date", amzDate);
-                con.setRequestProperty("Content-Type", "application/json");
-                if (credentials.sessionToken != null && !credentials.sessionToken.isBlank()) {
-                    con.setRequestProperty("x-amz-security-token", credentials.sessionToken);
-                }
-                con.setRequestProperty("Authorization", authorizationHeader);
-                con.setDoOutput(true);
-
-                try (var os = con.getOutputStream()) {
-                    byte[] input = requestBody.getBytes(StandardCharsets.UTF_8);
-                    os.write(input, 0, input.length);
-                }
-
-                int responseCode = con.getResponseCode();
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    con.getInputStream().readAllBytes();
-                    goneCounts.remove(connectionId);
-                } else {
-                    ServerLog.warn(SCOPE, "ManageConnections response " + responseCode + " " + con.getResponseMessage());
-                    if (responseCode == HttpURLConnection.HTTP_GONE) {
-                        int seen = goneCounts.getOrDefault(connectionId, 0) + 1;
-                        goneCounts.put(connectionId, seen);
-                        if (seen >= 2) {
-                            ServerLog.warn(SCOPE, "Connection gone: " + connectionId);
-                            goneCounts.remove(connectionId);
-                            User disconnectedUser = User.removeConnection(connectionId);
-                            GameHandler.handleUserDisconnected(disconnectedUser);
-                        } else {
-                            ServerLog.warn(SCOPE, "Connection gone (retrying later): " + connectionId);
-                        }
-                    }
-                    if (con.getErrorStream() != null) {
-                        String errorBody = new String(con.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
-                        ServerLog.warn(SCOPE, "ManageConnections error body: " + errorBody);
-                    }
-                }
-            } finally {
-                if (con != null) {
-                    con.disconnect();
-                }
-            }
-        }
-    }
-
-    private static byte[] getSignatureKey(String key, String dateStamp, String regionName, String serviceName) throws NoSuchAlgorithmException {
-        byte[] kSecret = ("AWS4" + key).getBytes(StandardCharsets.UTF_8);
-        byte[] kDate = hmacSha256(kSecret, dateStamp);
-        byte[] kRegion = hmacSha256(kDate, regionName);
-        byte[] kService = hmacSha256(kRegion, serviceName);
-        return hmacSha256(kService, "aws4_request");
-    }
-
-    private static String hmacSha256Hex(byte[] key, String data) throws NoSuchAlgorithmException {
-        return bytesToHex(hmacSha256(key, data));
+        return builder.build();
     }
 
-    private static byte[] hmacSha256(byte[] key, String data) {
-        try {
-            Mac mac = Mac.getInstance("HmacSHA256");
-            mac.init(new SecretKeySpec(key, "HmacSHA256"));
-            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Error: HmacSHA256 algorithm not available", e);
-        } catch (InvalidKeyException e) {
-            throw new RuntimeException("Error: Invalid key for HmacSHA256", e);
+    // x-amz-date only has second resolution, so format it once per second.
+    private static String currentAmzDate() {
+        long epochSecond = Instant.now().getEpochSecond();
+        AmzDate cached = cachedAmzDate;
+        if (cached != null && cached.epochSecond == epochSecond) {
+            return cached.value;
         }
+        String value = AMZ_DATE_FORMAT.format(Instant.ofEpochSecond(epochSecond));
+        cachedAmzDate = new AmzDate(epochSecond, value);
+        return value;
     }
 
-    private static String sha256Hex(String data) throws NoSuchAlgorithmException {
-        return bytesToHex(MessageDigest.getInstance("SHA-256").digest(data.getBytes(StandardCharsets.UTF_8)));
-    }
+    private static final class AmzDate {
+        final long epochSecond;
+        final String value;
 
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder result = new StringBuilder();
-        for (byte b : bytes) {
-            result.append(String.format("%02x", b));
+        AmzDate(long epochSecond, String value) {
+            this.epochSecond = epochSecond;
+            this.value = value;
         }
-        return result.toString();
     }
 
-    private static AwsCredentials getCredentials() throws IOException {
-        AwsCredentials cached = cachedCredentials;
-        if (cached != null && !cached.isExpired()) {
-            return cached;
+    private static int handleResponse(String connectionId, HttpResponse<String> response) {
+        int responseCode = response.statusCode();
+        if (responseCode == HTTP_OK) {
+            return responseCode;
         }
-
-        AwsCredentials resolved = fetchInstanceProfileCredentials();
-        cachedCredentials = resolved;
-        return resolved;
+        ServerLog.warn(SCOPE, "ManageConnections response " + responseCode + " for " + connectionId);
+        String errorBody = response.body();
+        if (errorBody != null && !errorBody.isBlank()) {
+            ServerLog.warn(SCOPE, "ManageConnections error body: " + errorBody);
+        }
+        return responseCode;
     }
 
-    private static AwsCredentials fetchInstanceProfileCredentials() throws IOException {
-        String token = null;
-        try {
-            token = fetchImdsToken();
-        } catch (IOException ignored) {
-            token = null;
-        }
+    // Caps concurrent ManageConnections requests without blocking the caller: sends
+    // over the limit wait in a FIFO and start as earlier ones complete.
+    private static final class InFlightLimiter {
+        private final Semaphore permits;
+        private final ConcurrentLinkedQueue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean starting = new AtomicBoolean();
 
-        String roleName = fetchImds("http://169.254.169.254/latest/meta-data/iam/security-credentials/", token).trim();
-        String credentialsJson = fetchImds(
-            "http://169.254.169.254/latest/meta-data/iam/security-credentials/" + roleName,
-            token
-        );
-        JSONObject json = new JSONObject(credentialsJson);
-        String accessKeyId = json.getString("AccessKeyId");
-        String secretAccessKey = json.getString("SecretAccessKey");
-        String sessionToken = json.optString("Token", "");
-        String expiration = json.optString("Expiration", "");
-        long expiresAt = 0;
-        if (!expiration.isBlank()) {
-            expiresAt = Instant.parse(expiration).toEpochMilli();
+        InFlightLimiter(int maxInFlight) {
+            this.permits = new Semaphore(maxInFlight);
         }
-        return new AwsCredentials(accessKeyId, secretAccessKey, sessionToken, expiresAt);
-    }
 
-    private static String fetchImdsToken() throws IOException {
-        URL url = new URL("http://169.254.169.254/latest/api/token");
-        HttpURLConnection con = (HttpURLConnection) url.openConnection();
-        con.setConnectTimeout(IMDS_TIMEOUT_MS);
-        con.setReadTimeout(IMDS_TIMEOUT_MS);
-        con.setRequestMethod("PUT");
-        con.setRequestProperty("X-aws-ec2-metadata-token-ttl-seconds", "21600");
-        con.setDoOutput(true);
-        con.getOutputStream().write(new byte[0]);
-        return new String(con.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
-    }
+        <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            waiting.add(() -> {
+                CompletableFuture<T> started;
+                try {
+                    started = task.get();
+                } catch (RuntimeException e) {
+                    started = CompletableFuture.failedFuture(e);
+                }
+                started.whenComplete((value, error) -> {
+                    permits.release();
+                    startWaiting();
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            });
+            startWaiting();
+            return result;
+        }
 
-    private static String fetchImds(String url, String token) throws IOException {
-        HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
-        con.setConnectTimeout(IMDS_TIMEOUT_MS);
-        con.setReadTimeout(IMDS_TIMEOUT_MS);
-        con.setRequestMethod("GET");
-        if (token != null && !token.isBlank()) {
-            con.setRequestProperty("X-aws-ec2-metadata-token", token);
+        // Only one thread starts queued sends at a time, which also keeps sends that
+        // complete immediately from recursing through this method.
+        private void startWaiting() {
+            while (!waiting.isEmpty() && permits.availablePermits() > 0) {
+                if (!starting.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    while (!waiting.isEmpty() && permits.tryAcquire()) {
+                        Runnable next = waiting.poll();
+                        if (next == null) {
+                            permits.release();
+                            break;
+                        }
+                        next.run();
+                    }
+                } finally {
+                    starting.set(false);
+                }
+            }
         }
-        return new String(con.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
     }
 }
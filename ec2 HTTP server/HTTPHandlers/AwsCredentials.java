@@ -0,0 +1,36 @@
+package HTTPHandlers;
+
+import org.json.JSONObject;
+
+import java.time.Instant;
+
+final class AwsCredentials {
+    final String accessKeyId;
+    final String secretAccessKey;
+    final String sessionToken;
+    final long expiresAt;
+
+    AwsCredentials(String accessKeyId, String secretAccessKey, String sessionToken, long expiresAt) {
+        this.accessKeyId = accessKeyId;
+        this.secretAccessKey = secretAccessKey;
+        this.sessionToken = sessionToken;
+        this.expiresAt = expiresAt;
+    }
+
+    boolean expires() {
+        return expiresAt > 0;
+    }
+
+    // Same shape IMDS returns: AccessKeyId, SecretAccessKey, optional Token and Expiration.
+    static AwsCredentials fromJson(JSONObject json) {
+        String accessKeyId = json.getString("AccessKeyId");
+        String secretAccessKey = json.getString("SecretAccessKey");
+        String sessionToken = json.optString("Token", "");
+        String expiration = json.optString("Expiration", "");
+        long expiresAt = 0;
+        if (!expiration.isBlank()) {
+            expiresAt = Instant.parse(expiration).toEpochMilli();
+        }
+        return new AwsCredentials(accessKeyId, secretAccessKey, sessionToken, expiresAt);
+    }
+}
@@ -0,0 +1,48 @@
+package HTTPHandlers;
+
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Outcome of one PushDispatcher.broadcast: how long the fan-out took from enqueue
+// until the last recipient finished, and how many recipients ended in each status.
+// Status keys are HTTP codes ("200", "410", ...), "error" for transport failures and
+// "dropped" for messages discarded before they were sent.
+public final class BroadcastResult {
+    private final int recipients;
+    private final long elapsedMs;
+    private final Map<String, Integer> statusCounts;
+
+    BroadcastResult(int recipients, long elapsedMs, Map<String, Integer> statusCounts) {
+        this.recipients = recipients;
+        this.elapsedMs = elapsedMs;
+        this.statusCounts = Collections.unmodifiableMap(new TreeMap<>(statusCounts));
+    }
+
+    public int getRecipients() {
+        return recipients;
+    }
+
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    public Map<String, Integer> getStatusCounts() {
+        return statusCounts;
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("recipients", recipients);
+        json.put("elapsedMs", elapsedMs);
+        json.put("statusCounts", new JSONObject(statusCounts));
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return recipients + " recipients in " + elapsedMs + "ms " + statusCounts;
+    }
+}
@@ -0,0 +1,73 @@
+package HTTPHandlers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Growable byte buffer for hand-built request and payload text. String appends are
+// ASCII only; anything that may hold other characters is appended pre-encoded.
+final class ByteBuilder {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+    byte[] bytes;
+    int length;
+
+    ByteBuilder(int capacity) {
+        this.bytes = new byte[Math.max(16, capacity)];
+    }
+
+    ByteBuilder reset() {
+        length = 0;
+        return this;
+    }
+
+    ByteBuilder append(String ascii) {
+        int size = ascii.length();
+        ensure(size);
+        for (int i = 0; i < size; i++) {
+            bytes[length++] = (byte) ascii.charAt(i);
+        }
+        return this;
+    }
+
+    ByteBuilder append(byte[] raw) {
+        ensure(raw.length);
+        System.arraycopy(raw, 0, bytes, length, raw.length);
+        length += raw.length;
+        return this;
+    }
+
+    ByteBuilder append(char ascii) {
+        ensure(1);
+        bytes[length++] = (byte) ascii;
+        return this;
+    }
+
+    ByteBuilder append(long value) {
+        return append(Long.toString(value));
+    }
+
+    ByteBuilder append(boolean value) {
+        return append(value ? TRUE : FALSE);
+    }
+
+    ByteBuilder appendHex(byte[] raw) {
+        ensure(raw.length * 2);
+        for (byte b : raw) {
+            bytes[length++] = HEX[(b >> 4) & 0xF];
+            bytes[length++] = HEX[b & 0xF];
+        }
+        return this;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package HTTPHandlers;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Collapses bursts of "something changed, tell the lobby" calls into one build and
+// push per window. The payload is built when the window closes, so the latest state
+// always wins; callers only mark the broadcaster dirty.
+final class CoalescingBroadcaster {
+    private static final ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(HTTPServer.namedThreadFactory("lobby-broadcast-"));
+
+    private final String scope;
+    private final long windowMs;
+    private final Runnable flushAction;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    CoalescingBroadcaster(String scope, long windowMs, Runnable flushAction) {
+        this.scope = scope;
+        this.windowMs = Math.max(0, windowMs);
+        this.flushAction = flushAction;
+    }
+
+    void markDirty() {
+        requests.increment();
+        if (scheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+        } else {
+            collapsed.increment();
+        }
+    }
+
+    private void flush() {
+        // Cleared before building so a change that lands mid-build schedules another pass.
+        scheduled.set(false);
+        flushes.increment();
+        try {
+            flushAction.run();
+        } catch (RuntimeException e) {
+            ServerLog.error(scope, "Coalesced broadcast failed.", e);
+        }
+    }
+
+    JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        json.put("windowMs", windowMs);
+        json.put("requests", requests.sum());
+        json.put("broadcasts", flushes.sum());
+        json.put("collapsed", collapsed.sum());
+        return json;
+    }
+}
@@ -0,0 +1,135 @@
+package HTTPHandlers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Keeps AWS credentials fresh on a background thread so pushes only ever read the
+// cached value. Refreshes run ahead of expiry; if a refresh fails the last good
+// credentials keep being served and the refresh is retried with backoff.
+//
+// Sources are tried in order (ohhell.aws.credentialSources, default env,file,imds):
+//   env  - AWS_ACCESS_KEY_ID / AWS_SECRET_ACCESS_KEY / AWS_SESSION_TOKEN, when set
+//   file - JSON file at ohhell.aws.credentialsFile, when set
+//   imds - EC2 instance profile
+final class CredentialProvider {
+    private static final String SCOPE = "CredentialProvider";
+    private static final long REFRESH_AHEAD_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long NEAR_EXPIRY_POLL_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long NON_EXPIRING_REFRESH_MS = TimeUnit.MINUTES.toMillis(15);
+    private static final long MIN_RETRY_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_RETRY_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final List<CredentialSource> sources = resolveSources();
+    private static final ScheduledExecutorService refresher =
+        Executors.newSingleThreadScheduledExecutor(HTTPServer.namedThreadFactory("aws-credentials-"));
+    private static final AtomicBoolean started = new AtomicBoolean();
+
+    private static volatile AwsCredentials current;
+    private static long retryDelayMs = MIN_RETRY_MS;
+
+    private CredentialProvider() {}
+
+    static void start() {
+        if (started.compareAndSet(false, true)) {
+            refresher.execute(CredentialProvider::refresh);
+        }
+    }
+
+    // Never blocks. Fails only before the first successful load.
+    static AwsCredentials current() throws IOException {
+        start();
+        AwsCredentials credentials = current;
+        if (credentials == null) {
+            throw new IOException("AWS credentials have not been loaded yet.");
+        }
+        return credentials;
+    }
+
+    private static void refresh() {
+        long nextDelayMs;
+        try {
+            AwsCredentials fetched = fetchFromSources();
+            current = fetched;
+            retryDelayMs = MIN_RETRY_MS;
+            nextDelayMs = nextRefreshDelayMs(fetched);
+        } catch (IOException | RuntimeException e) {
+            nextDelayMs = retryDelayMs;
+            retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_MS);
+            ServerLog.warn(
+                SCOPE,
+                "Credential refresh failed (" + e.getMessage() + "). Serving "
+                    + (current != null ? "last good credentials" : "no credentials")
+                    + "; retrying in " + nextDelayMs + "ms"
+            );
+        }
+        refresher.schedule(CredentialProvider::refresh, nextDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static AwsCredentials fetchFromSources() throws IOException {
+        IOException failure = null;
+        for (CredentialSource source : sources) {
+            try {
+                AwsCredentials credentials = source.fetch();
+                ServerLog.info(
+                    SCOPE,
+                    "Loaded credentials from " + source.name()
+                        + (credentials.expires() ? " expiring " + Instant.ofEpochMilli(credentials.expiresAt) : "")
+                );
+                return credentials;
+            } catch (IOException | RuntimeException e) {
+                IOException wrapped = new IOException(source.name() + ": " + e.getMessage(), e);
+                if (failure == null) {
+                    failure = wrapped;
+                } else {
+                    failure.addSuppressed(wrapped);
+                }
+            }
+        }
+        throw failure != null ? failure : new IOException("No credential sources configured.");
+    }
+
+    private static long nextRefreshDelayMs(AwsCredentials credentials) {
+        if (!credentials.expires()) {
+            return NON_EXPIRING_REFRESH_MS;
+        }
+        long remaining = credentials.expiresAt - Instant.now().toEpochMilli();
+        return Math.max(NEAR_EXPIRY_POLL_MS, remaining - REFRESH_AHEAD_MS);
+    }
+
+    private static List<CredentialSource> resolveSources() {
+        List<CredentialSource> resolved = new ArrayList<>();
+        String configured = ServerConfig.getString("ohhell.aws.credentialSources", "env,file,imds");
+        for (String raw : configured.split(",")) {
+            String name = raw.trim().toLowerCase(Locale.ROOT);
+            switch (name) {
+                case "env":
+                    if (EnvironmentCredentialSource.isConfigured()) {
+                        resolved.add(new EnvironmentCredentialSource());
+                    }
+                    break;
+                case "file":
+                    String file = ServerConfig.getString("ohhell.aws.credentialsFile", "");
+                    if (!file.isBlank()) {
+                        resolved.add(new StaticFileCredentialSource(Path.of(file)));
+                    }
+                    break;
+                case "imds":
+                    resolved.add(new ImdsCredentialSource());
+                    break;
+                case "":
+                    break;
+                default:
+                    ServerLog.warn(SCOPE, "Ignoring unknown credential source " + name);
+            }
+        }
+        return resolved;
+    }
+}
@@ -0,0 +1,11 @@
+package HTTPHandlers;
+
+import java.io.IOException;
+
+// A place AWS credentials can be loaded from. fetch() may block on I/O and is only
+// called from CredentialProvider's refresh thread.
+interface CredentialSource {
+    String name();
+
+    AwsCredentials fetch() throws IOException;
+}
@@ -0,0 +1,28 @@
+package HTTPHandlers;
+
+import java.io.IOException;
+
+// AWS_ACCESS_KEY_ID / AWS_SECRET_ACCESS_KEY / AWS_SESSION_TOKEN, as set by the AWS CLI
+// tooling and most container runtimes.
+final class EnvironmentCredentialSource implements CredentialSource {
+    @Override
+    public String name() {
+        return "env";
+    }
+
+    static boolean isConfigured() {
+        String accessKeyId = System.getenv("AWS_ACCESS_KEY_ID");
+        return accessKeyId != null && !accessKeyId.isBlank();
+    }
+
+    @Override
+    public AwsCredentials fetch() throws IOException {
+        String accessKeyId = System.getenv("AWS_ACCESS_KEY_ID");
+        String secretAccessKey = System.getenv("AWS_SECRET_ACCESS_KEY");
+        if (accessKeyId == null || accessKeyId.isBlank() || secretAccessKey == null || secretAccessKey.isBlank()) {
+            throw new IOException("AWS_ACCESS_KEY_ID and AWS_SECRET_ACCESS_KEY must both be set.");
+        }
+        String sessionToken = System.getenv("AWS_SESSION_TOKEN");
+        return new AwsCredentials(accessKeyId, secretAccessKey, sessionToken != null ? sessionToken : "", 0);
+    }
+}
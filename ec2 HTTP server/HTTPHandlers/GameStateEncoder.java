@@ -0,0 +1,363 @@
+package HTTPHandlers;
+
+import GameHandlers.Bot;
+import GameHandlers.Card;
+import GameHandlers.CardMask;
+import GameHandlers.Game;
+import GameHandlers.GamePhase;
+import GameHandlers.PlayedCard;
+import GameHandlers.Player;
+import GameHandlers.Suits;
+import GameHandlers.User;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Hand-built JSON for game-state pushes. Every field value is encoded on its own and
+// kept as a fragment: the public ones once per state version, yourSeat, yourBet and
+// hand once per recipient. A snapshot is the fragments joined with their keys, and a
+// delta is the fragments that differ from the base version's, compared byte for
+// byte, so neither is ever parsed back. Card keys are a fixed table; names and
+// cosmetics are quoted once and cached.
+final class GameStateEncoder {
+    private static final String DELTA_RETURN_TYPE = "gameStateDelta";
+    // Top-level public fields after gameID and version, in snapshot order.
+    private static final String[] FIELDS = {
+        "state", "phase", "round", "cardsDealt", "actionLocked", "trickCounter", "turnTimeLimitSeconds",
+        "turnDeadlineMs", "roundDealStartMs", "roundDealEndMs", "roundDealCardStaggerMs",
+        "roundDealTrumpDelayMs", "roundDealTrumpHoldMs", "roundDealTrumpShakeMs", "roundDealTrumpFlipMs",
+        "bidResultStatus", "bidResultUntilMs", "trump", "leadSuit", "table", "turn", "bettingLeadSeat",
+        "lastTrickWinner"
+    };
+    private static final String[] PLAYER_FIELDS = {
+        "seat", "name", "isBot", "isOffline", "cardBack", "cardFront", "bet", "handsWon", "score", "cardsInHand"
+    };
+    private static final String[] PRIVATE_FIELDS = {"yourSeat", "yourBet", "hand"};
+    private static final byte[][] FIELD_KEYS = keys(FIELDS);
+    private static final byte[][] PLAYER_KEYS = keys(PLAYER_FIELDS);
+    private static final byte[][] PRIVATE_KEYS = keys(PRIVATE_FIELDS);
+    private static final byte[] PLAYERS_KEY = ascii("\"players\":");
+    private static final byte[][] CARD_KEYS = buildCardKeys();
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+    private static final byte[] BET_TURN = ascii("\"BET\"");
+    private static final byte[] PLAY_TURN = ascii("\"PLAY\"");
+    private static final int FRAGMENT_CACHE_LIMIT = 4_096;
+
+    private static final ConcurrentHashMap<String, byte[]> quoted = new ConcurrentHashMap<>();
+
+    private GameStateEncoder() {}
+
+    // The public part of one state version: its field fragments, and the snapshot
+    // text they join into, up to the private fields.
+    static final class Shared {
+        private final byte[][] fields;
+        private final byte[][][] players;
+        private final byte[] prefix;
+
+        private Shared(byte[][] fields, byte[][][] players, byte[] prefix) {
+            this.fields = fields;
+            this.players = players;
+            this.prefix = prefix;
+        }
+    }
+
+    // One recipient's full snapshot, shared by all of that user's connections.
+    static final class Snapshot {
+        private final Shared shared;
+        private final byte[][] privateFields;
+        private final byte[] bytes;
+        private volatile PushMessage message;
+
+        private Snapshot(Shared shared, byte[][] privateFields, byte[] bytes) {
+            this.shared = shared;
+            this.privateFields = privateFields;
+            this.bytes = bytes;
+        }
+
+        Shared shared() {
+            return shared;
+        }
+
+        int length() {
+            return bytes.length;
+        }
+
+        PushMessage message() {
+            PushMessage full = message;
+            if (full == null) {
+                full = new PushMessage(bytes);
+                message = full;
+            }
+            return full;
+        }
+    }
+
+    // What changed in the public fields between two versions, as the entries of the
+    // delta's "set" object and its "players" object (null when no seat changed). The
+    // same for every recipient whose base is the same version.
+    static final class PublicDelta {
+        private final byte[] set;
+        private final byte[] players;
+
+        private PublicDelta(byte[] set, byte[] players) {
+            this.set = set;
+            this.players = players;
+        }
+    }
+
+    // Expects the caller to hold the game lock so every field comes from one state.
+    static Shared encodeShared(Game game, long version) {
+        ByteBuilder value = new ByteBuilder(256);
+        byte[][] fields = new byte[FIELDS.length][];
+        int field = 0;
+        fields[field++] = quote(game.getState().toString());
+        fields[field++] = quote(game.getPhase().toString());
+        fields[field++] = number(game.getRound());
+        fields[field++] = number(game.getCardsDealt());
+        fields[field++] = game.isActionLocked() ? TRUE : FALSE;
+        fields[field++] = number(game.getTrickCounter());
+        fields[field++] = number(game.getTurnTimeLimitSeconds());
+        fields[field++] = positiveOrNull(game.getTurnDeadlineMs());
+        fields[field++] = number(game.getRoundDealStartMs());
+        fields[field++] = number(game.getRoundDealEndMs());
+        fields[field++] = number(game.getRoundDealCardStaggerMs());
+        fields[field++] = number(game.getRoundDealTrumpDelayMs());
+        fields[field++] = number(game.getRoundDealTrumpHoldMs());
+        fields[field++] = number(game.getRoundDealTrumpShakeMs());
+        fields[field++] = number(game.getRoundDealTrumpFlipMs());
+        String bidResultStatus = game.getBidResultStatus();
+        fields[field++] = bidResultStatus != null ? quote(bidResultStatus) : NULL;
+        fields[field++] = positiveOrNull(game.getBidResultUntilMs());
+
+        Card trump = game.getTrump();
+        fields[field++] = trump != null ? cardKey(trump) : quote("");
+        Suits leadSuit = game.getLeadSuit();
+        fields[field++] = quote(leadSuit != null ? leadSuit.getDisplayName() : "");
+
+        value.reset().append('[');
+        List<PlayedCard> tableCards = game.getTableCards();
+        for (int i = 0; i < tableCards.size(); i++) {
+            PlayedCard played = tableCards.get(i);
+            if (i > 0) {
+                value.append(',');
+            }
+            value.append("{\"card\":").append(cardKey(played.getCard())).append(",\"seat\":").append(played.getSeat()).append('}');
+        }
+        fields[field++] = value.append(']').toByteArray();
+
+        List<Player> seats = game.getPlayers();
+        int turnIndex = game.getCurrentTurnIndex();
+        if (turnIndex >= 0 && turnIndex < seats.size()) {
+            Player current = seats.get(turnIndex);
+            value.reset().append("{\"seat\":").append(current.getSeatIndex());
+            value.append(",\"name\":").append(quote(current.getUsername()));
+            value.append(",\"type\":").append(game.getPhase() == GamePhase.BETTING ? BET_TURN : PLAY_TURN);
+            fields[field++] = value.append('}').toByteArray();
+        } else {
+            fields[field++] = NULL;
+        }
+        fields[field++] = number(game.getInitiatorIndex());
+        int lastWinner = game.getLastTrickWinnerIndex();
+        fields[field++] = lastWinner >= 0 ? number(lastWinner) : NULL;
+
+        byte[][][] players = new byte[seats.size()][][];
+        for (int i = 0; i < players.length; i++) {
+            players[i] = encodePlayer(seats.get(i));
+        }
+
+        ByteBuilder out = new ByteBuilder(1_024);
+        out.append("{\"returnType\":\"gameState\",\"gameID\":").append(game.getGameID());
+        out.append(",\"version\":").append(version);
+        for (int i = 0; i < fields.length; i++) {
+            out.append(',').append(FIELD_KEYS[i]).append(fields[i]);
+        }
+        out.append(',').append(PLAYERS_KEY);
+        appendPlayers(out, players);
+        return new Shared(fields, players, out.toByteArray());
+    }
+
+    static Snapshot encodeFor(Shared shared, User user) {
+        long cards = user.getHandMask();
+        byte[][] privateFields = new byte[PRIVATE_FIELDS.length][];
+        privateFields[0] = number(user.getSeatIndex());
+        privateFields[1] = user.hasPlacedBet() ? number(user.getBet()) : NULL;
+        ByteBuilder hand = new ByteBuilder(2 + CardMask.count(cards) * 6).append('[');
+        for (long rest = cards; rest != 0; rest &= rest - 1) {
+            if (hand.length > 1) {
+                hand.append(',');
+            }
+            hand.append(CARD_KEYS[Long.numberOfTrailingZeros(rest)]);
+        }
+        privateFields[2] = hand.append(']').toByteArray();
+
+        ByteBuilder out = new ByteBuilder(shared.prefix.length + 48 + privateFields[2].length);
+        out.append(shared.prefix);
+        for (int i = 0; i < privateFields.length; i++) {
+            out.append(',').append(PRIVATE_KEYS[i]).append(privateFields[i]);
+        }
+        out.append('}');
+        return new Snapshot(shared, privateFields, out.toByteArray());
+    }
+
+    // Top-level fields whose fragments differ go in "set". Players are compared per
+    // seat while the seat count holds; otherwise the whole array goes in "set".
+    static PublicDelta publicDelta(Shared base, Shared current) {
+        ByteBuilder set = new ByteBuilder(256);
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (!Arrays.equals(base.fields[i], current.fields[i])) {
+                appendEntry(set, FIELD_KEYS[i], current.fields[i]);
+            }
+        }
+        if (base.players.length != current.players.length) {
+            if (set.length > 0) {
+                set.append(',');
+            }
+            appendPlayers(set.append(PLAYERS_KEY), current.players);
+            return new PublicDelta(set.toByteArray(), null);
+        }
+        ByteBuilder players = new ByteBuilder(128);
+        ByteBuilder changed = new ByteBuilder(128);
+        for (int seat = 0; seat < current.players.length; seat++) {
+            changed.reset();
+            for (int i = 0; i < PLAYER_FIELDS.length; i++) {
+                if (!Arrays.equals(base.players[seat][i], current.players[seat][i])) {
+                    appendEntry(changed, PLAYER_KEYS[i], current.players[seat][i]);
+                }
+            }
+            if (changed.length > 0) {
+                players.append(players.length == 0 ? '{' : ',');
+                players.append('"').append(seat).append("\":{").append(changed.toByteArray()).append('}');
+            }
+        }
+        return new PublicDelta(set.toByteArray(), players.length > 0 ? players.append('}').toByteArray() : null);
+    }
+
+    // The delta from base to current for one recipient: the shared public part plus
+    // whichever of its own private fields changed.
+    static byte[] delta(PublicDelta publicDelta, Snapshot base, long baseVersion, Snapshot current, int gameID, long version) {
+        ByteBuilder out = new ByteBuilder(128 + publicDelta.set.length
+            + (publicDelta.players != null ? publicDelta.players.length : 0));
+        out.append("{\"returnType\":\"").append(DELTA_RETURN_TYPE).append("\",\"gameID\":").append(gameID);
+        out.append(",\"version\":").append(version);
+        out.append(",\"baseVersion\":").append(baseVersion);
+        if (publicDelta.players != null) {
+            out.append(",\"players\":").append(publicDelta.players);
+        }
+        out.append(",\"set\":{").append(publicDelta.set);
+        boolean empty = publicDelta.set.length == 0;
+        for (int i = 0; i < PRIVATE_FIELDS.length; i++) {
+            if (!Arrays.equals(base.privateFields[i], current.privateFields[i])) {
+                if (!empty) {
+                    out.append(',');
+                }
+                out.append(PRIVATE_KEYS[i]).append(current.privateFields[i]);
+                empty = false;
+            }
+        }
+        return out.append("}}").toByteArray();
+    }
+
+    private static byte[][] encodePlayer(Player player) {
+        byte[][] fields = new byte[PLAYER_FIELDS.length][];
+        boolean isUser = player instanceof User;
+        String cardBack;
+        String cardFront;
+        if (isUser) {
+            cardBack = ((User) player).getCardBack();
+            cardFront = ((User) player).getCardFront();
+        } else if (player instanceof Bot) {
+            cardBack = ((Bot) player).getCardBack();
+            cardFront = ((Bot) player).getCardFront();
+        } else {
+            cardBack = User.defaultCardBackKey();
+            cardFront = User.defaultCardFrontKey();
+        }
+        int field = 0;
+        fields[field++] = number(player.getSeatIndex());
+        fields[field++] = quote(player.getUsername());
+        fields[field++] = player instanceof Bot ? TRUE : FALSE;
+        fields[field++] = isUser && !((User) player).isOnline() ? TRUE : FALSE;
+        fields[field++] = quote(cardBack);
+        fields[field++] = quote(cardFront);
+        fields[field++] = player.hasPlacedBet() ? number(player.getBet()) : NULL;
+        fields[field++] = number(player.getHandsWon());
+        fields[field++] = number(player.getScore());
+        fields[field++] = number(player.getHandSize());
+        return fields;
+    }
+
+    private static void appendPlayers(ByteBuilder out, byte[][][] players) {
+        out.append('[');
+        for (int seat = 0; seat < players.length; seat++) {
+            if (seat > 0) {
+                out.append(',');
+            }
+            out.append('{');
+            for (int i = 0; i < PLAYER_FIELDS.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(PLAYER_KEYS[i]).append(players[seat][i]);
+            }
+            out.append('}');
+        }
+        out.append(']');
+    }
+
+    private static void appendEntry(ByteBuilder out, byte[] key, byte[] value) {
+        if (out.length > 0) {
+            out.append(',');
+        }
+        out.append(key).append(value);
+    }
+
+    private static byte[] positiveOrNull(long value) {
+        return value > 0 ? number(value) : NULL;
+    }
+
+    private static byte[] number(long value) {
+        return ascii(Long.toString(value));
+    }
+
+    private static byte[] cardKey(Card card) {
+        return CARD_KEYS[card.getIndex()];
+    }
+
+    private static byte[] quote(String value) {
+        byte[] cached = quoted.get(value);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] encoded = JSONObject.quote(value).getBytes(StandardCharsets.UTF_8);
+        if (quoted.size() < FRAGMENT_CACHE_LIMIT) {
+            quoted.put(value, encoded);
+        }
+        return encoded;
+    }
+
+    // "name": for each field, ready to follow a '{' or ','.
+    private static byte[][] keys(String[] names) {
+        byte[][] keys = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            keys[i] = ascii("\"" + names[i] + "\":");
+        }
+        return keys;
+    }
+
+    private static byte[][] buildCardKeys() {
+        byte[][] keys = new byte[CardMask.DECK_SIZE][];
+        for (int card = 0; card < CardMask.DECK_SIZE; card++) {
+            keys[card] = ascii("\"" + CardMask.key(card) + "\"");
+        }
+        return keys;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,144 @@
+package HTTPHandlers;
+
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-connection bookkeeping for versioned game-state pushes. Each connection keeps
+// the snapshot it last acknowledged plus the few sent since, and is pushed a diff
+// against the acknowledged one. Connections that never ack, just connected, moved
+// to another game or asked for a resync get full snapshots.
+final class GameStateSync {
+    private static final String SCOPE = "GameStateSync";
+    private static final int HISTORY_LIMIT = Math.max(1, ServerConfig.getInt("ohhell.gameState.deltaHistory", 8));
+
+    private static final ConcurrentHashMap<String, Recipient> recipients = new ConcurrentHashMap<>();
+    private static final LongAdder fullSnapshots = new LongAdder();
+    private static final LongAdder fullBytes = new LongAdder();
+    private static final LongAdder deltas = new LongAdder();
+    private static final LongAdder deltaBytes = new LongAdder();
+    private static final LongAdder publicDeltasBuilt = new LongAdder();
+
+    private GameStateSync() {}
+
+    private static final class Recipient {
+        final LinkedHashMap<Long, GameStateEncoder.Snapshot> sent = new LinkedHashMap<>();
+        int gameID = -1;
+        long ackedVersion = -1;
+        GameStateEncoder.Snapshot acked;
+
+        void reset(int gameID) {
+            this.gameID = gameID;
+            this.ackedVersion = -1;
+            this.acked = null;
+            this.sent.clear();
+        }
+    }
+
+    // Returns the message to push to connectionId for this snapshot version: a
+    // delta against the acknowledged snapshot when that is smaller, else the full one.
+    // publicDeltas holds the public part of each delta already built for this version,
+    // by base, so recipients that acked the same version share it.
+    static PushMessage payloadFor(
+        String connectionId,
+        int gameID,
+        long version,
+        GameStateEncoder.Snapshot snapshot,
+        Map<GameStateEncoder.Shared, GameStateEncoder.PublicDelta> publicDeltas
+    ) {
+        Recipient recipient = recipients.computeIfAbsent(connectionId, id -> new Recipient());
+        synchronized (recipient) {
+            if (recipient.gameID != gameID) {
+                recipient.reset(gameID);
+            }
+            PushMessage payload = snapshot.message();
+            if (recipient.acked != null) {
+                GameStateEncoder.Shared base = recipient.acked.shared();
+                GameStateEncoder.PublicDelta publicDelta = publicDeltas.get(base);
+                if (publicDelta == null) {
+                    publicDelta = GameStateEncoder.publicDelta(base, snapshot.shared());
+                    publicDeltas.put(base, publicDelta);
+                    publicDeltasBuilt.increment();
+                }
+                byte[] delta = GameStateEncoder.delta(
+                    publicDelta, recipient.acked, recipient.ackedVersion, snapshot, gameID, version
+                );
+                if (delta.length < snapshot.length()) {
+                    payload = new PushMessage(delta);
+                }
+            }
+            if (payload == snapshot.message()) {
+                fullSnapshots.increment();
+                fullBytes.add(snapshot.length());
+            } else {
+                deltas.increment();
+                deltaBytes.add(payload.getBytes().length);
+            }
+            recipient.sent.put(version, snapshot);
+            if (recipient.sent.size() > HISTORY_LIMIT) {
+                Iterator<Long> eldest = recipient.sent.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+            return payload;
+        }
+    }
+
+    // Makes a sent snapshot the diff base for this connection. Unknown or stale
+    // versions are ignored; the client keeps receiving diffs against its last ack.
+    static boolean acknowledge(String connectionId, int gameID, long version) {
+        Recipient recipient = recipients.get(connectionId);
+        if (recipient == null) {
+            return false;
+        }
+        synchronized (recipient) {
+            if (recipient.gameID != gameID) {
+                return false;
+            }
+            if (version == recipient.ackedVersion) {
+                return true;
+            }
+            GameStateEncoder.Snapshot sent = recipient.sent.get(version);
+            if (sent == null || version < recipient.ackedVersion) {
+                ServerLog.warn(SCOPE, "Ignoring ack of unknown version " + version + " from " + connectionId);
+                return false;
+            }
+            recipient.acked = sent;
+            recipient.ackedVersion = version;
+            recipient.sent.keySet().removeIf(sentVersion -> sentVersion <= version);
+            return true;
+        }
+    }
+
+    // Forgets the diff base so the next push to this connection is a full snapshot.
+    static void resync(String connectionId) {
+        Recipient recipient = recipients.get(connectionId);
+        if (recipient == null) {
+            return;
+        }
+        synchronized (recipient) {
+            recipient.reset(-1);
+        }
+    }
+
+    static void discardConnection(String connectionId) {
+        if (connectionId != null) {
+            recipients.remove(connectionId);
+        }
+    }
+
+    static JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        json.put("connections", recipients.size());
+        json.put("fullSnapshots", fullSnapshots.sum());
+        json.put("fullBytes", fullBytes.sum());
+        json.put("deltas", deltas.sum());
+        json.put("deltaBytes", deltaBytes.sum());
+        json.put("publicDeltas", publicDeltasBuilt.sum());
+        return json;
+    }
+}
@@ -2,8 +2,20 @@ package HTTPHandlers;
 
 import GameHandlers.Game;
 import GameHandlers.GameHandler;
+import GameHandlers.GameHistory;
+import GameHandlers.GameJournal;
+import GameHandlers.GameMailbox;
+import GameHandlers.GameRegistry;
+import GameHandlers.GameResult;
+import GameHandlers.GameSnapshot;
+import GameHandlers.GameTimer;
+import GameHandlers.LobbyView;
+import GameHandlers.MembershipReconciler;
+import GameHandlers.MonteCarloStrategy;
 import GameHandlers.State;
 import GameHandlers.User;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
@@ -13,31 +25,174 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import static HTTPHandlers.ExchangeHandler.getInfoJsonFromExchange;
 
 public class HTTPServer {
     private static final String SCOPE = "HTTPServer";
+    private static final String EXECUTOR_MODE_VIRTUAL = "virtual";
+    private static final String EXECUTOR_MODE_PLATFORM = "platform";
+    private static final int DEFAULT_PLATFORM_THREADS = 64;
+    private static final int DEFAULT_PLATFORM_QUEUE = 1_024;
+    private static final int HTTP_UNAVAILABLE = 503;
+    private static final int SHED_QUEUE = Math.max(1, ServerConfig.getInt("ohhell.http.shedQueue", 256));
+
+    private static final LongAdder shedAnswered = new LongAdder();
+    private static final LongAdder shedClosed = new LongAdder();
+
+    // Set on the shed thread: requests it runs are answered 503 without being handled.
+    private static final ThreadLocal<Boolean> SHEDDING = ThreadLocal.withInitial(() -> false);
+    private static final Filter SHED_FILTER = new Filter() {
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            if (SHEDDING.get()) {
+                sendJson(exchange, HTTP_UNAVAILABLE, errorJson("Server busy."));
+                return;
+            }
+            chain.doFilter(exchange);
+        }
+
+        @Override
+        public String description() {
+            return "Answers 503 for requests the full request pool turned away.";
+        }
+    };
 
     public static void main(String[] args) throws IOException {
+        ServerTime.requireSystemClock();
+        PushDispatcher.start();
+        GameHistory.open();
+        // The snapshot brings back users and tables; the journal then replays what
+        // in-game tables did since it was taken.
+        GameJournal.recover(GameSnapshot.restore());
+        GameSnapshot.start();
+        MembershipReconciler.start();
         HttpServer server = HttpServer.create(new InetSocketAddress(8080), 0);
-        server.createContext("/Connect", new ConnectHandler());
-        server.createContext("/Disconnect", new DisconnectHandler());
-        server.createContext("/ListPlayers", new ListPlayers());
-        server.createContext("/CreateGame", new CreateGameHandler());
-        server.createContext("/LeaveGame", new LeaveGameHandler());
-        server.createContext("/JoinGame", new JoinGameHandler());
-        server.createContext("/VoteStart", new StartGameHandler());
-        server.createContext("/PlayCard", new PlayCardHandler());
-        server.createContext("/Bet", new BetHandler());
-        server.createContext("/ForfeitGame", new ForfeitGameHandler());
-        server.createContext("/SetCardBack", new SetCardBackHandler());
-        server.createContext("/SetCardFront", new SetCardFrontHandler());
-        server.setExecutor(null);
+        route(server, "/Connect", new ConnectHandler());
+        route(server, "/Disconnect", new DisconnectHandler());
+        route(server, "/ListPlayers", new ListPlayers());
+        route(server, "/CreateGame", new CreateGameHandler());
+        route(server, "/LeaveGame", new LeaveGameHandler());
+        route(server, "/JoinGame", new JoinGameHandler());
+        route(server, "/VoteStart", new StartGameHandler());
+        route(server, "/PlayCard", new PlayCardHandler());
+        route(server, "/Bet", new BetHandler());
+        route(server, "/ForfeitGame", new ForfeitGameHandler());
+        route(server, "/SetCardBack", new SetCardBackHandler());
+        route(server, "/SetCardFront", new SetCardFrontHandler());
+        route(server, "/AckGameState", new AckGameStateHandler());
+        route(server, "/ResyncGameState", new ResyncGameStateHandler());
+        route(server, "/SubscribeLobby", new SubscribeLobbyHandler());
+        route(server, "/Metrics", new MetricsHandler());
+        route(server, "/GameHistory", new GameHistoryHandler());
+        server.setExecutor(createRequestExecutor());
         server.start();
         ServerLog.info(SCOPE, "HTTP server started on port 8080");
     }
 
+    private static void route(HttpServer server, String path, HttpHandler handler) {
+        HttpContext context = server.createContext(path, handler);
+        context.getFilters().add(SHED_FILTER);
+    }
+
+    // Route handlers block on ManageConnections pushes, so each request gets its own
+    // thread instead of sharing the JDK's single dispatcher thread.
+    private static ExecutorService createRequestExecutor() {
+        String mode = ServerConfig.getString("ohhell.http.executor", EXECUTOR_MODE_VIRTUAL);
+        if (EXECUTOR_MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+            ExecutorService virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor != null) {
+                ServerLog.info(SCOPE, "Request executor: virtual thread per request");
+                return virtualExecutor;
+            }
+            ServerLog.warn(SCOPE, "Virtual threads unavailable on this JVM. Falling back to platform pool.");
+        } else if (!EXECUTOR_MODE_PLATFORM.equalsIgnoreCase(mode)) {
+            ServerLog.warn(SCOPE, "Unknown request executor mode " + mode + ". Using platform pool.");
+        }
+        int threads = Math.max(1, ServerConfig.getInt("ohhell.http.threads", DEFAULT_PLATFORM_THREADS));
+        int queue = Math.max(1, ServerConfig.getInt("ohhell.http.queue", DEFAULT_PLATFORM_QUEUE));
+        ServerLog.info(SCOPE, "Request executor: platform pool threads=" + threads + " queue=" + queue);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads,
+            threads,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(queue),
+            namedThreadFactory("http-request-"),
+            shedRejected()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // When the pool and its queue are full, the request goes to a single shed thread
+    // that answers 503 (see SHED_FILTER). Running it on the caller instead would stall
+    // the JDK's one dispatcher thread, and every connection with it. The shed queue is
+    // bounded too: past it the rejection propagates to the dispatcher, which closes
+    // the connection on the spot.
+    private static RejectedExecutionHandler shedRejected() {
+        ThreadPoolExecutor shedder = new ThreadPoolExecutor(
+            1,
+            1,
+            0,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(SHED_QUEUE),
+            namedThreadFactory("http-shed-"),
+            (request, executor) -> {
+                shedClosed.increment();
+                throw new RejectedExecutionException("Shed queue full.");
+            }
+        );
+        return (request, executor) -> {
+            shedder.execute(() -> {
+                SHEDDING.set(true);
+                try {
+                    request.run();
+                } finally {
+                    SHEDDING.remove();
+                }
+            });
+            shedAnswered.increment();
+        };
+    }
+
+    static JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        json.put("shedAnswered", shedAnswered.sum());
+        json.put("shedClosed", shedClosed.sum());
+        return json;
+    }
+
+    // Looked up reflectively so the server still builds and runs on Java 17.
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
     private static void send(HttpExchange exchange, int statusCode, String response) throws IOException {
         byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
         exchange.sendResponseHeaders(statusCode, bytes.length);
@@ -394,6 +549,130 @@ public class HTTPServer {
         }
     }
 
+    static class AckGameStateHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                JSONObject infoJson = getInfoJsonFromExchange(exchange);
+                requireUser(infoJson);
+                String connectionId = infoJson.getString("connectionID");
+                boolean accepted = PostGameState.acknowledge(
+                    connectionId,
+                    infoJson.optInt("gameID", -1),
+                    infoJson.optLong("version", -1)
+                );
+                JSONObject response = new JSONObject();
+                response.put("returnType", "ack");
+                response.put("action", "AckGameState");
+                response.put("status", accepted ? "received" : "ignored");
+                sendJson(exchange, 200, response);
+            } catch (Exception e) {
+                ServerLog.error(SCOPE, "AckGameState request failed.", e);
+                sendJson(exchange, 400, errorJson("Bad game state ack request."));
+            }
+        }
+    }
+
+    static class ResyncGameStateHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                JSONObject infoJson = getInfoJsonFromExchange(exchange);
+                User user = requireUser(infoJson);
+                Game game = GameHandler.getGame(user.getGameID());
+                if (game == null) {
+                    throw new IllegalArgumentException("Game not found.");
+                }
+                JSONObject response = new JSONObject();
+                response.put("returnType", "ack");
+                response.put("action", "ResyncGameState");
+                response.put("status", "received");
+                sendJson(exchange, 200, response);
+
+                PostGameState.resync(game, user, infoJson.getString("connectionID"));
+            } catch (Exception e) {
+                ServerLog.error(SCOPE, "ResyncGameState request failed.", e);
+                sendJson(exchange, 400, errorJson("Bad game state resync request."));
+            }
+        }
+    }
+
+    // Switches a connection from the full lobby game list to one filtered, sorted
+    // page of it, or back with "unsubscribe": true.
+    static class SubscribeLobbyHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                JSONObject infoJson = getInfoJsonFromExchange(exchange);
+                requireUser(infoJson);
+                String connectionId = infoJson.getString("connectionID");
+                boolean unsubscribe = infoJson.optBoolean("unsubscribe", false);
+                if (!unsubscribe) {
+                    // Validates filter and sort before acknowledging.
+                    PostAllGamesInfo.subscribe(connectionId, infoJson);
+                }
+                JSONObject response = new JSONObject();
+                response.put("returnType", "ack");
+                response.put("action", "SubscribeLobby");
+                response.put("status", "received");
+                sendJson(exchange, 200, response);
+
+                if (unsubscribe) {
+                    PostAllGamesInfo.unsubscribe(connectionId);
+                }
+            } catch (Exception e) {
+                ServerLog.error(SCOPE, "SubscribeLobby request failed.", e);
+                sendJson(exchange, 400, errorJson("Bad lobby subscription request."));
+            }
+        }
+    }
+
+    // Operator-only: not routed through API Gateway.
+    static class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            JSONObject response = new JSONObject();
+            response.put("http", HTTPServer.metricsJson());
+            response.put("push", PushDispatcher.metricsJson());
+            response.put("lobbyGames", PostAllGamesInfo.metricsJson());
+            response.put("lobbyUsers", PostAllUsersToLobby.metricsJson());
+            response.put("gameState", PostGameState.metricsJson());
+            response.put("timers", GameTimer.metricsJson());
+            response.put("clock", ServerTime.metricsJson());
+            response.put("mailboxes", GameMailbox.metricsJson());
+            response.put("bots", MonteCarloStrategy.metricsJson());
+            response.put("journal", GameJournal.metricsJson());
+            response.put("snapshot", GameSnapshot.metricsJson());
+            response.put("history", GameHistory.metricsJson());
+            response.put("registry", GameRegistry.metricsJson());
+            response.put("lobbyView", LobbyView.metricsJson());
+            response.put("reconciler", MembershipReconciler.metricsJson());
+            sendJson(exchange, 200, response);
+        }
+    }
+
+    // Operator-only: not routed through API Gateway.
+    // GET /GameHistory?gameID=42 returns the stored result of a finished game.
+    static class GameHistoryHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String query = exchange.getRequestURI().getQuery();
+            int gameID;
+            try {
+                gameID = Integer.parseInt(query != null && query.startsWith("gameID=") ? query.substring(7) : "");
+            } catch (NumberFormatException e) {
+                sendJson(exchange, 400, errorJson("Expected ?gameID=<id>."));
+                return;
+            }
+            GameResult result = GameHistory.find(gameID);
+            if (result == null) {
+                sendJson(exchange, 404, errorJson("No history for game " + gameID + "."));
+                return;
+            }
+            sendJson(exchange, 200, result.toJson());
+        }
+    }
+
     static class ListPlayers implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
@@ -0,0 +1,57 @@
+package HTTPHandlers;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+// EC2 instance profile credentials from the Instance Metadata Service (IMDSv2 with
+// an IMDSv1 fallback when the token call fails).
+final class ImdsCredentialSource implements CredentialSource {
+    private static final int IMDS_TIMEOUT_MS = 1000;
+    private static final String CREDENTIALS_URL = "http://169.254.169.254/latest/meta-data/iam/security-credentials/";
+
+    @Override
+    public String name() {
+        return "imds";
+    }
+
+    @Override
+    public AwsCredentials fetch() throws IOException {
+        String token = null;
+        try {
+            token = fetchImdsToken();
+        } catch (IOException ignored) {
+            token = null;
+        }
+
+        String roleName = fetchImds(CREDENTIALS_URL, token).trim();
+        String credentialsJson = fetchImds(CREDENTIALS_URL + roleName, token);
+        return AwsCredentials.fromJson(new JSONObject(credentialsJson));
+    }
+
+    private static String fetchImdsToken() throws IOException {
+        URL url = new URL("http://169.254.169.254/latest/api/token");
+        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+        con.setConnectTimeout(IMDS_TIMEOUT_MS);
+        con.setReadTimeout(IMDS_TIMEOUT_MS);
+        con.setRequestMethod("PUT");
+        con.setRequestProperty("X-aws-ec2-metadata-token-ttl-seconds", "21600");
+        con.setDoOutput(true);
+        con.getOutputStream().write(new byte[0]);
+        return new String(con.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+    }
+
+    private static String fetchImds(String url, String token) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
+        con.setConnectTimeout(IMDS_TIMEOUT_MS);
+        con.setReadTimeout(IMDS_TIMEOUT_MS);
+        con.setRequestMethod("GET");
+        if (token != null && !token.isBlank()) {
+            con.setRequestProperty("X-aws-ec2-metadata-token", token);
+        }
+        return new String(con.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    }
+}
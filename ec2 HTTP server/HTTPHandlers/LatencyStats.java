@@ -0,0 +1,66 @@
+package HTTPHandlers;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock-free latency recorder. Percentiles are reported as the upper bound of the
+// bucket they fall in, which is precise enough for dashboards and log lines.
+public final class LatencyStats {
+    private static final long[] BUCKET_UPPER_MS = {
+        1, 2, 5, 10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000
+    };
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_UPPER_MS.length + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1_000);
+        count.increment();
+        totalMicros.add(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+        long millis = micros / 1_000;
+        int bucket = BUCKET_UPPER_MS.length;
+        for (int i = 0; i < BUCKET_UPPER_MS.length; i++) {
+            if (millis <= BUCKET_UPPER_MS[i]) {
+                bucket = i;
+                break;
+            }
+        }
+        buckets.incrementAndGet(bucket);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public JSONObject toJson() {
+        long samples = count.sum();
+        JSONObject json = new JSONObject();
+        json.put("count", samples);
+        json.put("meanMs", samples == 0 ? 0 : totalMicros.sum() / 1_000.0 / samples);
+        json.put("maxMs", maxMicros.get() / 1_000.0);
+        json.put("p50Ms", percentileUpperBoundMs(samples, 0.50));
+        json.put("p99Ms", percentileUpperBoundMs(samples, 0.99));
+        return json;
+    }
+
+    private long percentileUpperBoundMs(long samples, double percentile) {
+        if (samples == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(samples * percentile);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return i < BUCKET_UPPER_MS.length ? BUCKET_UPPER_MS[i] : maxMicros.get() / 1_000;
+            }
+        }
+        return maxMicros.get() / 1_000;
+    }
+}
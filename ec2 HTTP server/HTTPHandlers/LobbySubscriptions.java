@@ -0,0 +1,239 @@
+package HTTPHandlers;
+
+import GameHandlers.LobbyView;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lobby connections that asked for one filtered, sorted page of the game list
+// instead of the whole list. A subscriber is pushed its page in full when it
+// subscribes, then on each lobby broadcast only what changed on that page: games
+// that entered it or were re-rendered, games that left it, and the new order.
+// Subscribed connections are left out of the full gameList broadcast.
+final class LobbySubscriptions {
+    private static final String PAGE_RETURN_TYPE = "gameListPage";
+    private static final String DELTA_RETURN_TYPE = "gameListDelta";
+    private static final int MAX_PAGE_SIZE = Math.max(1, ServerConfig.getInt("ohhell.lobby.maxPageSize", 50));
+    private static final int DEFAULT_PAGE_SIZE =
+        Math.min(MAX_PAGE_SIZE, Math.max(1, ServerConfig.getInt("ohhell.lobby.pageSize", 20)));
+    private static final int MAX_FRIENDS = 200;
+
+    // Pages and deltas are built and queued inside compute calls on the connection's
+    // entry, which serializes them per connection. PushDispatcher.enqueue never
+    // calls back into this map, so that is safe.
+    private static final ConcurrentHashMap<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private static final LongAdder pages = new LongAdder();
+    private static final LongAdder pageBytes = new LongAdder();
+    private static final LongAdder deltas = new LongAdder();
+    private static final LongAdder deltaBytes = new LongAdder();
+    private static final LongAdder unchanged = new LongAdder();
+
+    private LobbySubscriptions() {}
+
+    private static final class Subscription {
+        final LobbyView.Filter filter;
+        final LobbyView.Sort sort;
+        final Set<String> friends;
+        final int page;
+        final int pageSize;
+        // Only touched inside a compute on the connection's map entry: the page as
+        // last pushed, in order.
+        final LinkedHashMap<Integer, LobbyView.Listing> sent = new LinkedHashMap<>();
+        int total = -1;
+
+        Subscription(LobbyView.Filter filter, LobbyView.Sort sort, Set<String> friends, int page, int pageSize) {
+            this.filter = filter;
+            this.sort = sort;
+            this.friends = friends;
+            this.page = page;
+            this.pageSize = pageSize;
+        }
+    }
+
+    // Replaces the connection's subscription and pushes its first page. Throws
+    // IllegalArgumentException for an unknown filter or sort.
+    static void subscribe(String connectionId, JSONObject request) {
+        Set<String> friends = new HashSet<>();
+        JSONArray names = request.optJSONArray("friends");
+        if (names != null) {
+            for (int i = 0; i < names.length() && friends.size() < MAX_FRIENDS; i++) {
+                String name = names.optString(i, "");
+                if (!name.isBlank()) {
+                    friends.add(name);
+                }
+            }
+        }
+        Subscription subscription = new Subscription(
+            parse(LobbyView.Filter.values(), request.optString("filter", ""), LobbyView.Filter.ALL),
+            parse(LobbyView.Sort.values(), request.optString("sort", ""), LobbyView.Sort.AGE),
+            Collections.unmodifiableSet(friends),
+            Math.max(0, request.optInt("page", 0)),
+            Math.min(MAX_PAGE_SIZE, Math.max(1, request.optInt("pageSize", DEFAULT_PAGE_SIZE)))
+        );
+        // The entry stays locked until the page is queued, so a publish() still
+        // working on the replaced subscription cannot queue its delta after the page.
+        subscriptions.compute(connectionId, (id, replaced) -> {
+            PushDispatcher.enqueue(pageFor(subscription), id);
+            return subscription;
+        });
+    }
+
+    // Back to the full gameList broadcast.
+    static boolean unsubscribe(String connectionId) {
+        return subscriptions.remove(connectionId) != null;
+    }
+
+    static boolean isSubscribed(String connectionId) {
+        return subscriptions.containsKey(connectionId);
+    }
+
+    static void discardConnection(String connectionId) {
+        subscriptions.remove(connectionId);
+    }
+
+    // Pushes each subscriber the changes to its page since the last push, if any.
+    static void publish() {
+        for (String connectionId : subscriptions.keySet()) {
+            subscriptions.computeIfPresent(connectionId, (id, subscription) -> {
+                String payload = deltaFor(subscription);
+                if (payload != null) {
+                    PushDispatcher.enqueue(payload, id);
+                }
+                return subscription;
+            });
+        }
+    }
+
+    // Accepts enum names in any case, with or without underscores ("inProgress").
+    // A blank name (an absent field in the route template) picks the default.
+    private static <E extends Enum<E>> E parse(E[] values, String name, E defaultValue) {
+        if (name.isBlank()) {
+            return defaultValue;
+        }
+        String wanted = name.replace("_", "");
+        for (E value : values) {
+            if (value.name().replace("_", "").equalsIgnoreCase(wanted)) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Unknown lobby option: " + name);
+    }
+
+    private static LobbyView.Page currentPage(Subscription subscription) {
+        return LobbyView.query(
+            subscription.filter,
+            subscription.sort,
+            subscription.friends,
+            subscription.page * subscription.pageSize,
+            subscription.pageSize
+        );
+    }
+
+    private static String pageFor(Subscription subscription) {
+        LobbyView.Page page = currentPage(subscription);
+        subscription.sent.clear();
+        StringBuilder games = new StringBuilder("{");
+        for (LobbyView.Listing listing : page.getListings()) {
+            subscription.sent.put(listing.getGameID(), listing);
+            appendGame(games, listing);
+        }
+        subscription.total = page.getTotal();
+        String payload = header(PAGE_RETURN_TYPE, subscription)
+            .append(",\"games\":").append(games.append('}'))
+            .append('}').toString();
+        pages.increment();
+        pageBytes.add(payload.length());
+        return payload;
+    }
+
+    // Null when the page looks the same as when it was last pushed.
+    private static String deltaFor(Subscription subscription) {
+        LobbyView.Page page = currentPage(subscription);
+
+        boolean reordered = page.getListings().size() != subscription.sent.size();
+        StringBuilder upserts = new StringBuilder("{");
+        int index = 0;
+        ArrayList<Integer> previousOrder = new ArrayList<>(subscription.sent.keySet());
+        LinkedHashMap<Integer, LobbyView.Listing> current = new LinkedHashMap<>();
+        for (LobbyView.Listing listing : page.getListings()) {
+            // Listings are replaced when re-rendered, so identity tells what changed.
+            if (subscription.sent.get(listing.getGameID()) != listing) {
+                appendGame(upserts, listing);
+            }
+            if (!reordered && previousOrder.get(index) != listing.getGameID()) {
+                reordered = true;
+            }
+            current.put(listing.getGameID(), listing);
+            index++;
+        }
+        StringBuilder removed = new StringBuilder("[");
+        for (Integer gameID : subscription.sent.keySet()) {
+            if (!current.containsKey(gameID)) {
+                if (removed.length() > 1) {
+                    removed.append(',');
+                }
+                removed.append(gameID);
+            }
+        }
+        if (upserts.length() == 1 && removed.length() == 1 && !reordered && page.getTotal() == subscription.total) {
+            unchanged.increment();
+            return null;
+        }
+        subscription.sent.clear();
+        subscription.sent.putAll(current);
+        subscription.total = page.getTotal();
+        String payload = header(DELTA_RETURN_TYPE, subscription)
+            .append(",\"upserts\":").append(upserts.append('}'))
+            .append(",\"removed\":").append(removed.append(']'))
+            .append('}').toString();
+        deltas.increment();
+        deltaBytes.add(payload.length());
+        return payload;
+    }
+
+    // Everything both payloads carry; "order" is the page's game IDs as listed.
+    private static StringBuilder header(String returnType, Subscription subscription) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"returnType\":\"").append(returnType).append('"')
+            .append(",\"filter\":").append(JSONObject.quote(subscription.filter.name()))
+            .append(",\"sort\":").append(JSONObject.quote(subscription.sort.name()))
+            .append(",\"page\":").append(subscription.page)
+            .append(",\"pageSize\":").append(subscription.pageSize)
+            .append(",\"total\":").append(subscription.total)
+            .append(",\"order\":[");
+        boolean first = true;
+        for (Integer gameID : subscription.sent.keySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            json.append(gameID);
+            first = false;
+        }
+        return json.append(']');
+    }
+
+    private static void appendGame(StringBuilder games, LobbyView.Listing listing) {
+        if (games.length() > 1) {
+            games.append(',');
+        }
+        games.append('"').append(listing.getGameID()).append("\":").append(listing.getFragment());
+    }
+
+    static JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        json.put("subscriptions", subscriptions.size());
+        json.put("pages", pages.sum());
+        json.put("pageBytes", pageBytes.sum());
+        json.put("deltas", deltas.sum());
+        json.put("deltaBytes", deltaBytes.sum());
+        json.put("unchanged", unchanged.sum());
+        return json;
+    }
+}
@@ -0,0 +1,207 @@
+package HTTPHandlers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// In-process stand-in for API Gateway, selected with ohhell.push.transport=local. It
+// records what each connection was sent and can inject latency, 410 Gone and 429
+// throttling, so a load generator can drive the whole server on one box without AWS.
+// A small HTTP endpoint on ohhell.push.local.port exposes the recordings:
+//   GET  /messages?connectionId=<id>  messages delivered to one connection
+//   GET  /stats                       send counts by status
+//   POST /gone?connectionId=<id>      answer 410 for that connection from now on
+//   POST /reset                       forget recordings, counts and gone connections
+final class LocalPushTransport implements PushTransport {
+    private static final String SCOPE = "LocalPushTransport";
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_GONE = 410;
+    private static final int HTTP_THROTTLED = 429;
+
+    private final int port;
+    private final long latencyMs;
+    private final long latencyJitterMs;
+    private final double goneRate;
+    private final double throttleRate;
+    private final int keepPerConnection;
+
+    private final ConcurrentHashMap<String, ArrayDeque<String>> recorded = new ConcurrentHashMap<>();
+    private final Set<String> goneConnections = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService delayer =
+        Executors.newSingleThreadScheduledExecutor(HTTPServer.namedThreadFactory("push-local-"));
+
+    LocalPushTransport() {
+        this.port = ServerConfig.getInt("ohhell.push.local.port", 8081);
+        this.latencyMs = Math.max(0, ServerConfig.getLong("ohhell.push.local.latencyMs", 0));
+        this.latencyJitterMs = Math.max(0, ServerConfig.getLong("ohhell.push.local.latencyJitterMs", 0));
+        this.goneRate = ServerConfig.getDouble("ohhell.push.local.goneRate", 0);
+        this.throttleRate = ServerConfig.getDouble("ohhell.push.local.throttleRate", 0);
+        this.keepPerConnection = Math.max(1, ServerConfig.getInt("ohhell.push.local.keep", 100));
+    }
+
+    @Override
+    public String name() {
+        return "local";
+    }
+
+    @Override
+    public void start() {
+        try {
+            HttpServer endpoint = HttpServer.create(new InetSocketAddress(port), 0);
+            endpoint.createContext("/messages", this::handleMessages);
+            endpoint.createContext("/stats", this::handleStats);
+            endpoint.createContext("/gone", this::handleGone);
+            endpoint.createContext("/reset", this::handleReset);
+            endpoint.start();
+            ServerLog.info(SCOPE, "Local push endpoint started on port " + port);
+        } catch (IOException e) {
+            ServerLog.error(SCOPE, "Unable to start local push endpoint on port " + port, e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> send(PushMessage message, String connectionId) {
+        int status = chooseStatus(connectionId);
+        long delayMs = latencyMs;
+        if (latencyJitterMs > 0) {
+            delayMs += ThreadLocalRandom.current().nextLong(latencyJitterMs + 1);
+        }
+        if (delayMs == 0) {
+            deliver(message, connectionId, status);
+            return CompletableFuture.completedFuture(status);
+        }
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        delayer.schedule(() -> {
+            deliver(message, connectionId, status);
+            result.complete(status);
+        }, delayMs, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    private int chooseStatus(String connectionId) {
+        if (goneConnections.contains(connectionId)) {
+            return HTTP_GONE;
+        }
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < goneRate) {
+            return HTTP_GONE;
+        }
+        if (roll < goneRate + throttleRate) {
+            return HTTP_THROTTLED;
+        }
+        return HTTP_OK;
+    }
+
+    private void deliver(PushMessage message, String connectionId, int status) {
+        statusCounts.computeIfAbsent(status, key -> new LongAdder()).increment();
+        if (status != HTTP_OK) {
+            return;
+        }
+        ArrayDeque<String> messages = recorded.computeIfAbsent(connectionId, key -> new ArrayDeque<>());
+        synchronized (messages) {
+            if (messages.size() >= keepPerConnection) {
+                messages.poll();
+            }
+            messages.add(message.getBody());
+        }
+    }
+
+    private void handleMessages(HttpExchange exchange) throws IOException {
+        String connectionId = queryParam(exchange, "connectionId");
+        if (connectionId == null) {
+            respond(exchange, 400, errorJson("Missing connectionId."));
+            return;
+        }
+        ArrayDeque<String> messages = recorded.get(connectionId);
+        ArrayList<String> copy = new ArrayList<>();
+        if (messages != null) {
+            synchronized (messages) {
+                copy.addAll(messages);
+            }
+        }
+        JSONObject response = new JSONObject();
+        response.put("connectionId", connectionId);
+        response.put("messages", new JSONArray(copy));
+        respond(exchange, 200, response);
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        JSONObject counts = new JSONObject();
+        statusCounts.forEach((status, count) -> counts.put(String.valueOf(status), count.sum()));
+        JSONObject response = new JSONObject();
+        response.put("connections", recorded.size());
+        response.put("goneConnections", goneConnections.size());
+        response.put("statusCounts", counts);
+        respond(exchange, 200, response);
+    }
+
+    private void handleGone(HttpExchange exchange) throws IOException {
+        String connectionId = queryParam(exchange, "connectionId");
+        if (connectionId == null) {
+            respond(exchange, 400, errorJson("Missing connectionId."));
+            return;
+        }
+        goneConnections.add(connectionId);
+        JSONObject response = new JSONObject();
+        response.put("connectionId", connectionId);
+        response.put("status", "gone");
+        respond(exchange, 200, response);
+    }
+
+    private void handleReset(HttpExchange exchange) throws IOException {
+        recorded.clear();
+        goneConnections.clear();
+        statusCounts.clear();
+        JSONObject response = new JSONObject();
+        response.put("status", "reset");
+        respond(exchange, 200, response);
+    }
+
+    private static String queryParam(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0 && pair.substring(0, separator).equals(name)) {
+                String value = URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8);
+                return value.isBlank() ? null : value;
+            }
+        }
+        return null;
+    }
+
+    private static JSONObject errorJson(String message) {
+        JSONObject json = new JSONObject();
+        json.put("error", message);
+        return json;
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, JSONObject response) throws IOException {
+        byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
@@ -8,13 +8,27 @@ import java.util.ArrayList;
 
 public class PostAllGamesInfo {
     private static final String SCOPE = "PostAllGamesInfo";
+    private static final CoalescingBroadcaster LOBBY_BROADCASTER = new CoalescingBroadcaster(
+        SCOPE,
+        ServerConfig.getLong("ohhell.lobby.broadcastWindowMs", 50),
+        PostAllGamesInfo::broadcastGamesToLobby
+    );
 
+    // Marks the lobby game list dirty; one build-and-push runs per broadcast window,
+    // covering both the full list and every subscriber's page.
     public static void postAllGamesToLobby() {
+        LOBBY_BROADCASTER.markDirty();
+    }
+
+    private static void broadcastGamesToLobby() {
         try {
-            ArrayList<String> lobbyConnections = User.getLobbyConnections();
-            JSONObject payload = buildPayload();
+            ArrayList<String> lobbyConnections = unsubscribed(User.getLobbyConnections());
+            LobbySubscriptions.publish();
+            if (lobbyConnections.isEmpty()) {
+                return;
+            }
+            String payload = buildPayload();
 
-            AWSSigner.sendSignedMessage(payload.toString(), lobbyConnections);
             StringBuilder names = new StringBuilder();
             for (int i = 0; i < lobbyConnections.size(); i++) {
                 User user = User.getUser(lobbyConnections.get(i));
@@ -22,9 +36,8 @@ public class PostAllGamesInfo {
                     names.append(user.getUsername()).append(' ');
                 }
             }
-            ServerLog.info(
-                SCOPE,
-                "Posted games payload to " + lobbyConnections.size() + " lobby connections: " + names
+            PushDispatcher.broadcast(payload, lobbyConnections).thenAccept(result ->
+                ServerLog.info(SCOPE, "Games payload broadcast: " + result + " to: " + names)
             );
         } catch (Exception e) {
             ServerLog.error(SCOPE, "Failed to post games payload to lobby.", e);
@@ -36,13 +49,16 @@ public class PostAllGamesInfo {
 
     public static void postAllGamesToUser(User user) {
         try {
-            ArrayList<String> lobbyConnections = user.getConnections();
-            JSONObject payload = buildPayload();
+            ArrayList<String> lobbyConnections = unsubscribed(user.getConnections());
+            if (lobbyConnections.isEmpty()) {
+                return;
+            }
+            String payload = buildPayload();
 
-            AWSSigner.sendSignedMessage(payload.toString(), lobbyConnections);
+            PushDispatcher.enqueue(payload, lobbyConnections);
             ServerLog.info(
                 SCOPE,
-                "Posted games payload directly to user " + user.getUsername() + " (" + lobbyConnections.size() + " connections)"
+                "Queued games payload directly for user " + user.getUsername() + " (" + lobbyConnections.size() + " connections)"
             );
         } catch (Exception e) {
             ServerLog.error(SCOPE, "Failed posting games payload to user.", e);
@@ -51,10 +67,35 @@ public class PostAllGamesInfo {
 
     }
 
-    private static JSONObject buildPayload() {
-        JSONObject payload = new JSONObject();
-        payload.put("returnType", "gameList");
-        payload.put("games", GameHandler.getLobbyGames());
-        return payload;
+    // Subscribed connections get their page from LobbySubscriptions instead.
+    private static ArrayList<String> unsubscribed(ArrayList<String> connections) {
+        connections.removeIf(LobbySubscriptions::isSubscribed);
+        return connections;
+    }
+
+    public static void subscribe(String connectionId, JSONObject request) {
+        LobbySubscriptions.subscribe(connectionId, request);
+    }
+
+    public static void unsubscribe(String connectionId) {
+        if (LobbySubscriptions.unsubscribe(connectionId)) {
+            PushDispatcher.enqueue(buildPayload(), connectionId);
+        }
+    }
+
+    public static void discardConnection(String connectionId) {
+        LobbySubscriptions.discardConnection(connectionId);
+    }
+
+    public static JSONObject metricsJson() {
+        JSONObject json = LOBBY_BROADCASTER.metricsJson();
+        json.put("subscriptions", LobbySubscriptions.metricsJson());
+        return json;
+    }
+
+    // The games object comes pre-serialized from LobbyView, so it is spliced in
+    // rather than parsed back into a JSONObject.
+    private static String buildPayload() {
+        return "{\"returnType\":\"gameList\",\"games\":" + GameHandler.getLobbyGamesJson() + "}";
     }
 }
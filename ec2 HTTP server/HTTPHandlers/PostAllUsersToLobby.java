@@ -7,17 +7,29 @@ import java.util.ArrayList;
 
 public class PostAllUsersToLobby {
     private static final String SCOPE = "PostAllUsersToLobby";
-    
+    private static final CoalescingBroadcaster LOBBY_BROADCASTER = new CoalescingBroadcaster(
+        SCOPE,
+        ServerConfig.getLong("ohhell.lobby.broadcastWindowMs", 50),
+        PostAllUsersToLobby::broadcastUsersToLobby
+    );
+
+    // Marks the lobby user list dirty; one build-and-push runs per broadcast window.
     public static void postAllUsersToLobby(){
+        LOBBY_BROADCASTER.markDirty();
+    }
+
+    public static JSONObject metricsJson() {
+        return LOBBY_BROADCASTER.metricsJson();
+    }
+
+    private static void broadcastUsersToLobby(){
         ArrayList<String> lobbyConnections = User.getLobbyConnections();
         JSONObject payload = new JSONObject();
         payload.put("returnType", "users");
         payload.put("users", User.getUsersObject());
         try {
-            AWSSigner.sendSignedMessage(payload.toString(),lobbyConnections);
-            ServerLog.info(
-                SCOPE,
-                "Sent users payload to " + lobbyConnections.size() + " lobby connections"
+            PushDispatcher.broadcast(payload.toString(),lobbyConnections).thenAccept(result ->
+                ServerLog.info(SCOPE, "Users payload broadcast: " + result)
             );
         } catch (Exception e) {
             ServerLog.error(SCOPE, "Failed posting users payload.", e);
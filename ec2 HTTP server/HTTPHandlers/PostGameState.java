@@ -1,145 +1,216 @@
 package HTTPHandlers;
 
-import GameHandlers.Bot;
-import GameHandlers.Card;
 import GameHandlers.Game;
-import GameHandlers.GamePhase;
 import GameHandlers.Player;
-import GameHandlers.Suits;
 import GameHandlers.User;
-import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+// Game-state pushes. Under the game lock a state change is only encoded; choosing
+// snapshot or delta per connection and queueing the push happen afterwards on the
+// game-state workers. Each game has its own FIFO of versions so connections still
+// see them in order, while different games drain in parallel.
 public class PostGameState {
     private static final String SCOPE = "PostGameState";
+    private static final int WORKERS = Math.max(0, ServerConfig.getInt("ohhell.gameState.workers", 2));
+    private static final int QUEUE_LIMIT = Math.max(1, ServerConfig.getInt("ohhell.gameState.queueLimit", 64));
+    private static final Executor workers = WORKERS > 0
+        ? Executors.newFixedThreadPool(WORKERS, HTTPServer.namedThreadFactory("game-state-"))
+        : Runnable::run;
+
+    private static final ConcurrentHashMap<Integer, GameQueue> queues = new ConcurrentHashMap<>();
+    private static final LongAdder batches = new LongAdder();
+    private static final LongAdder coalesced = new LongAdder();
+    private static final LatencyStats encodeTime = new LatencyStats();
+    private static final LatencyStats queueWait = new LatencyStats();
+
+    private static final class Delivery {
+        final String connectionId;
+        final GameStateEncoder.Snapshot snapshot;
+
+        Delivery(String connectionId, GameStateEncoder.Snapshot snapshot) {
+            this.connectionId = connectionId;
+            this.snapshot = snapshot;
+        }
+    }
+
+    // One state version's snapshots, encoded under the game lock, waiting to be sent.
+    private static final class Batch {
+        final long version;
+        final boolean resync;
+        final ArrayList<Delivery> deliveries = new ArrayList<>();
+        final long queuedAtNanos = System.nanoTime();
+
+        Batch(long version, boolean resync) {
+            this.version = version;
+            this.resync = resync;
+        }
+    }
 
+    private static final class GameQueue {
+        final int gameID;
+        final ArrayDeque<Batch> pending = new ArrayDeque<>();
+        boolean scheduled;
+        boolean closed;
+
+        GameQueue(int gameID) {
+            this.gameID = gameID;
+        }
+    }
+
+    // Usually called while the game lock is held, so this only encodes and queues;
+    // payloads are built and handed to PushDispatcher on a game-state worker. Each call is one new
+    // state version; the public part is encoded once and shared by every recipient.
     public static void postGameState(Game game) {
         if (game == null) {
             return;
         }
-        for (Player player : game.getPlayers()) {
-            if (!(player instanceof User)) {
-                continue;
-            }
-            User user = (User) player;
-            if (!user.isOnline()) {
-                continue;
+        synchronized (game) {
+            long startNanos = System.nanoTime();
+            long version = game.nextStateVersion();
+            Batch batch = new Batch(version, false);
+            GameStateEncoder.Shared shared = GameStateEncoder.encodeShared(game, version);
+            for (Player player : game.getPlayers()) {
+                if (!(player instanceof User)) {
+                    continue;
+                }
+                User user = (User) player;
+                if (!user.isOnline()) {
+                    continue;
+                }
+                try {
+                    GameStateEncoder.Snapshot snapshot = GameStateEncoder.encodeFor(shared, user);
+                    for (String connectionId : user.getConnections()) {
+                        batch.deliveries.add(new Delivery(connectionId, snapshot));
+                    }
+                } catch (Exception e) {
+                    ServerLog.error(
+                        SCOPE,
+                        "Failed encoding game state for user " + user.getUsername() + " in game " + game.getGameID(),
+                        e
+                    );
+                }
             }
-            try {
-                JSONObject payload = buildPayload(game, user);
-                AWSSigner.sendSignedMessage(payload.toString(), user.getConnections());
-            } catch (Exception e) {
-                ServerLog.error(
-                    SCOPE,
-                    "Failed posting game state for user " + user.getUsername() + " in game " + game.getGameID(),
-                    e
-                );
+            encodeTime.recordNanos(System.nanoTime() - startNanos);
+            // Still under the lock, so versions reach the queue in order.
+            if (!batch.deliveries.isEmpty()) {
+                enqueue(game.getGameID(), batch);
             }
         }
     }
 
-    private static JSONObject buildPayload(Game game, User user) {
-        JSONObject payload = new JSONObject();
-        payload.put("returnType", "gameState");
-        payload.put("gameID", game.getGameID());
-        payload.put("state", game.getState().toString());
-        payload.put("phase", game.getPhase().toString());
-        payload.put("round", game.getRound());
-        payload.put("cardsDealt", game.getCardsDealt());
-        payload.put("actionLocked", game.isActionLocked());
-        payload.put("trickCounter", game.getTrickCounter());
-        payload.put("turnTimeLimitSeconds", game.getTurnTimeLimitSeconds());
-        long turnDeadlineMs = game.getTurnDeadlineMs();
-        payload.put("turnDeadlineMs", turnDeadlineMs > 0 ? turnDeadlineMs : JSONObject.NULL);
-        payload.put("roundDealStartMs", game.getRoundDealStartMs());
-        payload.put("roundDealEndMs", game.getRoundDealEndMs());
-        payload.put("roundDealCardStaggerMs", game.getRoundDealCardStaggerMs());
-        payload.put("roundDealTrumpDelayMs", game.getRoundDealTrumpDelayMs());
-        payload.put("roundDealTrumpHoldMs", game.getRoundDealTrumpHoldMs());
-        payload.put("roundDealTrumpShakeMs", game.getRoundDealTrumpShakeMs());
-        payload.put("roundDealTrumpFlipMs", game.getRoundDealTrumpFlipMs());
-        String bidResultStatus = game.getBidResultStatus();
-        payload.put("bidResultStatus", bidResultStatus != null ? bidResultStatus : JSONObject.NULL);
-        long bidResultUntilMs = game.getBidResultUntilMs();
-        payload.put("bidResultUntilMs", bidResultUntilMs > 0 ? bidResultUntilMs : JSONObject.NULL);
-
-        Card trump = game.getTrump();
-        payload.put("trump", trump != null ? trump.getKey() : "");
-
-        Suits leadSuit = game.getLeadSuit();
-        payload.put("leadSuit", leadSuit != null ? leadSuit.getDisplayName() : "");
-        payload.put("table", buildTableJson(game));
-        JSONObject turn = buildTurnJson(game);
-        payload.put("turn", turn != null ? turn : JSONObject.NULL);
-        payload.put("bettingLeadSeat", game.getInitiatorIndex());
-
-        int lastWinner = game.getLastTrickWinnerIndex();
-        payload.put("lastTrickWinner", lastWinner >= 0 ? lastWinner : JSONObject.NULL);
-        payload.put("players", buildPlayersJson(game));
-
-        payload.put("yourSeat", user.getSeatIndex());
-        payload.put("yourBet", user.hasPlacedBet() ? user.getBet() : JSONObject.NULL);
-        payload.put("hand", buildHandJson(user));
-
-        return payload;
+    // Sends one connection a full snapshot of the current version, for clients that
+    // lost track of their diff base.
+    public static void resync(Game game, User user, String connectionId) {
+        if (game == null || user == null || connectionId == null) {
+            return;
+        }
+        synchronized (game) {
+            long version = game.getStateVersion();
+            Batch batch = new Batch(version, true);
+            batch.deliveries.add(new Delivery(
+                connectionId,
+                GameStateEncoder.encodeFor(GameStateEncoder.encodeShared(game, version), user)
+            ));
+            enqueue(game.getGameID(), batch);
+        }
     }
 
-    private static JSONArray buildTableJson(Game game) {
-        JSONArray table = new JSONArray();
-        for (Card card : game.getTableCards()) {
-            JSONObject entry = new JSONObject();
-            entry.put("card", card.getKey());
-            entry.put("seat", card.getPlayedByIndex());
-            table.put(entry);
+    // When a game falls QUEUE_LIMIT versions behind, its oldest queued version is
+    // skipped: deltas are taken against each connection's ack, so later versions
+    // still apply. Resyncs are never skipped.
+    private static void enqueue(int gameID, Batch batch) {
+        while (true) {
+            GameQueue queue = queues.computeIfAbsent(gameID, GameQueue::new);
+            boolean schedule;
+            synchronized (queue) {
+                if (queue.closed) {
+                    continue;
+                }
+                if (queue.pending.size() >= QUEUE_LIMIT) {
+                    Iterator<Batch> oldest = queue.pending.iterator();
+                    while (oldest.hasNext()) {
+                        if (!oldest.next().resync) {
+                            oldest.remove();
+                            coalesced.increment();
+                            break;
+                        }
+                    }
+                }
+                queue.pending.add(batch);
+                batches.increment();
+                schedule = !queue.scheduled;
+                queue.scheduled = true;
+            }
+            if (schedule) {
+                workers.execute(() -> drain(queue));
+            }
+            return;
         }
-        return table;
     }
 
-    private static JSONObject buildTurnJson(Game game) {
-        int turnIndex = game.getCurrentTurnIndex();
-        if (turnIndex < 0 || turnIndex >= game.getPlayers().size()) {
-            return null;
+    private static void drain(GameQueue queue) {
+        while (true) {
+            Batch batch;
+            synchronized (queue) {
+                batch = queue.pending.poll();
+                if (batch == null) {
+                    queue.scheduled = false;
+                    queue.closed = true;
+                    queues.remove(queue.gameID, queue);
+                    return;
+                }
+            }
+            queueWait.recordNanos(System.nanoTime() - batch.queuedAtNanos);
+            deliver(queue.gameID, batch);
         }
-        Player current = game.getPlayers().get(turnIndex);
-        JSONObject turn = new JSONObject();
-        turn.put("seat", current.getSeatIndex());
-        turn.put("name", current.getUsername());
-        turn.put("type", game.getPhase() == GamePhase.BETTING ? "BET" : "PLAY");
-        return turn;
     }
 
-    private static JSONArray buildPlayersJson(Game game) {
-        JSONArray players = new JSONArray();
-        for (Player player : game.getPlayers()) {
-            JSONObject playerJson = new JSONObject();
-            playerJson.put("seat", player.getSeatIndex());
-            playerJson.put("name", player.getUsername());
-            playerJson.put("isBot", player instanceof Bot);
-            playerJson.put("isOffline", player instanceof User && !((User) player).isOnline());
-            if (player instanceof User) {
-                playerJson.put("cardBack", ((User) player).getCardBack());
-                playerJson.put("cardFront", ((User) player).getCardFront());
-            } else if (player instanceof Bot) {
-                playerJson.put("cardBack", ((Bot) player).getCardBack());
-                playerJson.put("cardFront", ((Bot) player).getCardFront());
-            } else {
-                playerJson.put("cardBack", User.defaultCardBackKey());
-                playerJson.put("cardFront", User.defaultCardFrontKey());
+    private static void deliver(int gameID, Batch batch) {
+        IdentityHashMap<GameStateEncoder.Shared, GameStateEncoder.PublicDelta> publicDeltas = new IdentityHashMap<>();
+        for (Delivery delivery : batch.deliveries) {
+            try {
+                if (batch.resync) {
+                    GameStateSync.resync(delivery.connectionId);
+                }
+                PushMessage payload = GameStateSync.payloadFor(
+                    delivery.connectionId, gameID, batch.version, delivery.snapshot, publicDeltas
+                );
+                PushDispatcher.enqueue(payload, delivery.connectionId);
+            } catch (Exception e) {
+                ServerLog.error(
+                    SCOPE,
+                    "Failed posting game state to " + delivery.connectionId + " in game " + gameID,
+                    e
+                );
             }
-            playerJson.put("bet", player.hasPlacedBet() ? player.getBet() : JSONObject.NULL);
-            playerJson.put("handsWon", player.getHandsWon());
-            playerJson.put("score", player.getScore());
-            playerJson.put("cardsInHand", player.getHand().size());
-            players.put(playerJson);
         }
-        return players;
     }
 
-    private static JSONArray buildHandJson(User user) {
-        JSONArray hand = new JSONArray();
-        for (Card card : user.getHand()) {
-            hand.put(card.getKey());
-        }
-        return hand;
+    public static boolean acknowledge(String connectionId, int gameID, long version) {
+        return GameStateSync.acknowledge(connectionId, gameID, version);
+    }
+
+    public static void discardConnection(String connectionId) {
+        GameStateSync.discardConnection(connectionId);
+    }
+
+    public static JSONObject metricsJson() {
+        JSONObject json = GameStateSync.metricsJson();
+        json.put("workers", WORKERS);
+        json.put("queuedGames", queues.size());
+        json.put("batches", batches.sum());
+        json.put("coalesced", coalesced.sum());
+        json.put("encodeTime", encodeTime.toJson());
+        json.put("queueWait", queueWait.toJson());
+        return json;
     }
 }
@@ -25,8 +25,8 @@ public class PostUserInfo {
                 );
                 returnJson.put("forfeitedGameIDs", user.getForfeitedGameIDs());
                 String message = returnJson.toString();
-                AWSSigner.sendSignedMessage(message,user.getConnections());
-                ServerLog.info(SCOPE, "Posted user info for " + user.getUsername());
+                PushDispatcher.enqueue(message,user.getConnections());
+                ServerLog.info(SCOPE, "Queued user info for " + user.getUsername());
             } catch (Exception e){
                 ServerLog.error(SCOPE, "Failed to post user info.", e);
             }
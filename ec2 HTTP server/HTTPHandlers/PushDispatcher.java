@@ -0,0 +1,375 @@
+package HTTPHandlers;
+
+import GameHandlers.GameHandler;
+import GameHandlers.User;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Outbound ManageConnections pushes. Game code only enqueues; worker threads hand
+// messages to the configured PushTransport (SigV4 via AWSSigner in production).
+// Each connection has its own FIFO so a client always sees its messages in the
+// order they were produced, while different connections drain in parallel.
+public final class PushDispatcher {
+    private static final String SCOPE = "PushDispatcher";
+    private static final String STATUS_ERROR = "error";
+    private static final String STATUS_DROPPED = "dropped";
+    private static final int HTTP_GONE = 410;
+    private static final int QUEUE_LIMIT = Math.max(1, ServerConfig.getInt("ohhell.push.queueLimit", 256));
+    private static final int WORKERS = Math.max(1, ServerConfig.getInt("ohhell.push.workers", 4));
+    private static final int BROADCAST_PARALLELISM =
+        Math.max(1, ServerConfig.getInt("ohhell.push.broadcastParallelism", 32));
+
+    private static final PushTransport transport = createTransport();
+    private static final ConcurrentHashMap<String, ConnectionQueue> queues = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Integer> goneCounts = new ConcurrentHashMap<>();
+    private static final ExecutorService workers =
+        Executors.newFixedThreadPool(WORKERS, HTTPServer.namedThreadFactory("push-worker-"));
+
+    private static final AtomicInteger queueDepth = new AtomicInteger();
+    private static final LongAdder enqueued = new LongAdder();
+    private static final LongAdder sent = new LongAdder();
+    private static final LongAdder failed = new LongAdder();
+    private static final LongAdder dropped = new LongAdder();
+    private static final LatencyStats enqueueToSend = new LatencyStats();
+    private static final LatencyStats broadcastCompletion = new LatencyStats();
+    private static final ConcurrentHashMap<String, LongAdder> broadcastStatusCounts = new ConcurrentHashMap<>();
+
+    private PushDispatcher() {}
+
+    public static void start() {
+        ServerLog.info(SCOPE, "Push transport: " + transport.name());
+        transport.start();
+    }
+
+    // ohhell.push.transport: sigv4 (API Gateway, default) or local (in-process stand-in).
+    private static PushTransport createTransport() {
+        String name = ServerConfig.getString("ohhell.push.transport", "sigv4").toLowerCase(Locale.ROOT);
+        switch (name) {
+            case "local":
+                return new LocalPushTransport();
+            case "sigv4":
+                return new SigV4PushTransport();
+            default:
+                ServerLog.warn(SCOPE, "Unknown push transport " + name + ". Using sigv4.");
+                return new SigV4PushTransport();
+        }
+    }
+
+    private static final class Pending {
+        final PushMessage message;
+        final long enqueuedAtNanos;
+        final Broadcast broadcast;
+
+        Pending(PushMessage message, long enqueuedAtNanos, Broadcast broadcast) {
+            this.message = message;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+            this.broadcast = broadcast;
+        }
+    }
+
+    private static final class ConnectionQueue {
+        final String connectionId;
+        final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        Broadcast grantedPermit;
+        boolean scheduled;
+        boolean closed;
+
+        ConnectionQueue(String connectionId) {
+            this.connectionId = connectionId;
+        }
+    }
+
+    // Tracks one fan-out. At most `parallelism` recipients are in flight at once;
+    // connection queues whose head belongs to a saturated broadcast park here. A
+    // finishing send hands its permit straight to the next parked queue, and a queue
+    // that no longer needs a granted permit passes it on, so none are lost.
+    private static final class Broadcast {
+        final int recipients;
+        final int parallelism;
+        final long startedAtNanos;
+        final AtomicInteger remaining;
+        final Map<String, Integer> statusCounts = new HashMap<>();
+        final ArrayDeque<ConnectionQueue> parked = new ArrayDeque<>();
+        final CompletableFuture<BroadcastResult> result = new CompletableFuture<>();
+        int inFlight;
+
+        Broadcast(int recipients, int parallelism) {
+            this.recipients = recipients;
+            this.parallelism = parallelism;
+            this.startedAtNanos = System.nanoTime();
+            this.remaining = new AtomicInteger(recipients);
+        }
+
+        synchronized boolean tryAcquire(ConnectionQueue queue) {
+            if (inFlight < parallelism) {
+                inFlight++;
+                return true;
+            }
+            parked.add(queue);
+            return false;
+        }
+
+        void release() {
+            ConnectionQueue resume;
+            synchronized (this) {
+                resume = parked.poll();
+                if (resume == null) {
+                    inFlight--;
+                    return;
+                }
+            }
+            synchronized (resume) {
+                resume.grantedPermit = this;
+            }
+            workers.execute(() -> drain(resume));
+        }
+
+        void complete(String status) {
+            synchronized (this) {
+                statusCounts.merge(status, 1, Integer::sum);
+            }
+            broadcastStatusCounts.computeIfAbsent(status, key -> new LongAdder()).increment();
+            if (remaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        void finish() {
+            long elapsedNanos = System.nanoTime() - startedAtNanos;
+            broadcastCompletion.recordNanos(elapsedNanos);
+            BroadcastResult summary;
+            synchronized (this) {
+                summary = new BroadcastResult(recipients, elapsedNanos / 1_000_000, statusCounts);
+            }
+            result.complete(summary);
+        }
+    }
+
+    public static void enqueue(String message, List<String> connections) {
+        if (message == null || connections == null) {
+            return;
+        }
+        PushMessage shared = new PushMessage(message);
+        long now = System.nanoTime();
+        for (String connectionId : connections) {
+            if (connectionId != null && !connectionId.isBlank()) {
+                enqueue(connectionId, new Pending(shared, now, null));
+            }
+        }
+    }
+
+    public static void enqueue(String message, String connectionId) {
+        if (message == null || connectionId == null || connectionId.isBlank()) {
+            return;
+        }
+        enqueue(connectionId, new Pending(new PushMessage(message), System.nanoTime(), null));
+    }
+
+    public static void enqueue(PushMessage message, String connectionId) {
+        if (message == null || connectionId == null || connectionId.isBlank()) {
+            return;
+        }
+        enqueue(connectionId, new Pending(message, System.nanoTime(), null));
+    }
+
+    // Fans one serialized payload out to every connection, with at most
+    // ohhell.push.broadcastParallelism sends of it in flight. A failing recipient
+    // only affects its own status count.
+    public static CompletableFuture<BroadcastResult> broadcast(String message, List<String> connections) {
+        return broadcast(message, connections, BROADCAST_PARALLELISM);
+    }
+
+    public static CompletableFuture<BroadcastResult> broadcast(String message, List<String> connections, int parallelism) {
+        int recipients = 0;
+        if (message != null && connections != null) {
+            for (String connectionId : connections) {
+                if (connectionId != null && !connectionId.isBlank()) {
+                    recipients++;
+                }
+            }
+        }
+        Broadcast broadcast = new Broadcast(recipients, Math.max(1, parallelism));
+        if (recipients == 0) {
+            broadcast.finish();
+            return broadcast.result;
+        }
+        PushMessage shared = new PushMessage(message);
+        for (String connectionId : connections) {
+            if (connectionId != null && !connectionId.isBlank()) {
+                enqueue(connectionId, new Pending(shared, broadcast.startedAtNanos, broadcast));
+            }
+        }
+        return broadcast.result;
+    }
+
+    // Drops anything still queued for a connection that API Gateway has closed.
+    public static void discardConnection(String connectionId) {
+        if (connectionId == null) {
+            return;
+        }
+        ConnectionQueue queue = queues.get(connectionId);
+        if (queue == null) {
+            return;
+        }
+        ArrayDeque<Pending> discarded;
+        synchronized (queue) {
+            discarded = new ArrayDeque<>(queue.pending);
+            queue.pending.clear();
+            queueDepth.addAndGet(-discarded.size());
+        }
+        for (Pending pending : discarded) {
+            markDropped(pending);
+        }
+    }
+
+    private static void enqueue(String connectionId, Pending pending) {
+        while (true) {
+            ConnectionQueue queue = queues.computeIfAbsent(connectionId, ConnectionQueue::new);
+            boolean schedule;
+            Pending evicted = null;
+            synchronized (queue) {
+                if (queue.closed) {
+                    continue;
+                }
+                if (queue.pending.size() >= QUEUE_LIMIT) {
+                    evicted = queue.pending.poll();
+                    queueDepth.decrementAndGet();
+                }
+                queue.pending.add(pending);
+                queueDepth.incrementAndGet();
+                enqueued.increment();
+                schedule = !queue.scheduled;
+                queue.scheduled = true;
+            }
+            if (evicted != null) {
+                ServerLog.warn(SCOPE, "Push queue full for " + connectionId + ". Dropped oldest message.");
+                markDropped(evicted);
+            }
+            if (schedule) {
+                workers.execute(() -> drain(queue));
+            }
+            return;
+        }
+    }
+
+    private static void markDropped(Pending pending) {
+        dropped.increment();
+        if (pending.broadcast != null) {
+            pending.broadcast.complete(STATUS_DROPPED);
+        }
+    }
+
+    // Sends one message at a time per connection and continues from the completion
+    // callback, so ordering holds without parking a worker on network I/O.
+    private static void drain(ConnectionQueue queue) {
+        Pending next;
+        Broadcast unusedPermit = null;
+        boolean parked = false;
+        synchronized (queue) {
+            Broadcast granted = queue.grantedPermit;
+            queue.grantedPermit = null;
+            next = queue.pending.peek();
+            if (next == null) {
+                unusedPermit = granted;
+                queue.scheduled = false;
+                queue.closed = true;
+                queues.remove(queue.connectionId, queue);
+            } else {
+                if (granted != next.broadcast) {
+                    unusedPermit = granted;
+                    // Stays scheduled when parked; Broadcast.release() resumes it.
+                    parked = next.broadcast != null && !next.broadcast.tryAcquire(queue);
+                }
+                if (!parked) {
+                    queue.pending.poll();
+                    queueDepth.decrementAndGet();
+                }
+            }
+        }
+        if (unusedPermit != null) {
+            unusedPermit.release();
+        }
+        if (next == null || parked) {
+            return;
+        }
+        CompletableFuture<Integer> sending;
+        try {
+            sending = transport.send(next.message, queue.connectionId);
+        } catch (RuntimeException e) {
+            sending = CompletableFuture.failedFuture(e);
+        }
+        sending.whenComplete((status, error) -> {
+            String outcome = STATUS_ERROR;
+            try {
+                enqueueToSend.recordNanos(System.nanoTime() - next.enqueuedAtNanos);
+                if (error != null) {
+                    failed.increment();
+                    ServerLog.error(SCOPE, "Push to " + queue.connectionId + " failed.", error);
+                } else {
+                    outcome = String.valueOf(status);
+                    if (status >= 200 && status < 300) {
+                        sent.increment();
+                        goneCounts.remove(queue.connectionId);
+                    } else {
+                        failed.increment();
+                        if (status == HTTP_GONE) {
+                            handleGone(queue.connectionId);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                ServerLog.error(SCOPE, "Push completion for " + queue.connectionId + " failed.", e);
+            } finally {
+                // Always, or the queue stays scheduled and the broadcast permit leaks.
+                if (next.broadcast != null) {
+                    next.broadcast.release();
+                    next.broadcast.complete(outcome);
+                }
+                workers.execute(() -> drain(queue));
+            }
+        });
+    }
+
+    // API Gateway can answer 410 briefly around a reconnect, so a connection is only
+    // dropped after its second 410 in a row. Runs on a transport completion thread,
+    // so the game side of the disconnect is queued on the game's mailbox, not awaited.
+    private static void handleGone(String connectionId) {
+        int seen = goneCounts.merge(connectionId, 1, Integer::sum);
+        if (seen < 2) {
+            ServerLog.warn(SCOPE, "Connection gone (message dropped, kept until the next 410): " + connectionId);
+            return;
+        }
+        ServerLog.warn(SCOPE, "Connection gone: " + connectionId);
+        goneCounts.remove(connectionId);
+        User disconnectedUser = User.removeConnection(connectionId);
+        GameHandler.handleUserDisconnectedLater(disconnectedUser);
+    }
+
+    public static JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        json.put("queueDepth", queueDepth.get());
+        json.put("activeConnections", queues.size());
+        json.put("enqueued", enqueued.sum());
+        json.put("sent", sent.sum());
+        json.put("failed", failed.sum());
+        json.put("dropped", dropped.sum());
+        json.put("enqueueToSend", enqueueToSend.toJson());
+        JSONObject broadcasts = broadcastCompletion.toJson();
+        JSONObject statusCounts = new JSONObject();
+        broadcastStatusCounts.forEach((status, count) -> statusCounts.put(status, count.sum()));
+        broadcasts.put("statusCounts", statusCounts);
+        json.put("broadcasts", broadcasts);
+        return json;
+    }
+}
@@ -0,0 +1,43 @@
+package HTTPHandlers;
+
+import java.nio.charset.StandardCharsets;
+
+// One serialized payload shared by every connection it is sent to, so the UTF-8
+// bytes and the SigV4 payload hash are computed once per message, not per recipient.
+public final class PushMessage {
+    private final byte[] bytes;
+    private volatile String body;
+    private volatile String payloadHash;
+
+    public PushMessage(String body) {
+        this.body = body;
+        this.bytes = body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // For payloads that were encoded straight to UTF-8; the text is decoded on demand.
+    PushMessage(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    public String getBody() {
+        String text = body;
+        if (text == null) {
+            text = new String(bytes, StandardCharsets.UTF_8);
+            body = text;
+        }
+        return text;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    String getPayloadHash() {
+        String hash = payloadHash;
+        if (hash == null) {
+            hash = SigV4Signer.sha256Hex(bytes);
+            payloadHash = hash;
+        }
+        return hash;
+    }
+}
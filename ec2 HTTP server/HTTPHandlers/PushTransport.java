@@ -0,0 +1,15 @@
+package HTTPHandlers;
+
+import java.util.concurrent.CompletableFuture;
+
+// Delivers one push to one API Gateway connection. send() must not block; the future
+// completes with the ManageConnections-style status (2xx delivered, 410 gone, 429
+// throttled) or exceptionally when the transport itself fails.
+interface PushTransport {
+    String name();
+
+    // Called once from HTTPServer.main before requests are accepted.
+    default void start() {}
+
+    CompletableFuture<Integer> send(PushMessage message, String connectionId);
+}
@@ -0,0 +1,22 @@
+package HTTPHandlers;
+
+import java.util.concurrent.TimeUnit;
+
+// Source of "now" and of delayed tasks for game logic and request signing. The
+// system clock is real time on the shared timing wheel; VirtualClock only moves
+// when advanced, so whole games and long timeouts run as fast as the code does.
+// Pick one with ohhell.clock (system or virtual), or install one with ServerTime.use.
+public interface ServerClock {
+    String name();
+
+    long currentTimeMillis();
+
+    Timeout schedule(Runnable task, long delay, TimeUnit unit);
+
+    // Handle for one scheduled task.
+    interface Timeout {
+        boolean cancel();
+
+        boolean isCancelled();
+    }
+}
@@ -0,0 +1,66 @@
+package HTTPHandlers;
+
+import org.json.JSONObject;
+
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Static access to the installed ServerClock. Latency measurements keep using
+// System.nanoTime, and AWS signing and credential expiry use wall-clock time; only
+// game time (deadlines, pauses, reconnect grace) goes through here.
+public final class ServerTime {
+    private static final String SCOPE = "ServerTime";
+    private static volatile ServerClock clock = createClock();
+
+    private ServerTime() {}
+
+    public static ServerClock clock() {
+        return clock;
+    }
+
+    // Installs a clock, e.g. a VirtualClock in a test or benchmark. Tasks already
+    // scheduled stay on the clock they were scheduled with.
+    public static void use(ServerClock replacement) {
+        clock = replacement;
+        ServerLog.info(SCOPE, "Clock: " + replacement.name());
+    }
+
+    // Nothing in the server advances a VirtualClock, so every game timer would
+    // freeze. It is for tests and benchmarks with their own main.
+    public static void requireSystemClock() {
+        if (clock instanceof VirtualClock) {
+            throw new IllegalStateException("ohhell.clock=virtual is only for tests and benchmarks, not the server.");
+        }
+    }
+
+    public static long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    public static Instant now() {
+        return Instant.ofEpochMilli(clock.currentTimeMillis());
+    }
+
+    public static ServerClock.Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return clock.schedule(task, delay, unit);
+    }
+
+    public static JSONObject metricsJson() {
+        ServerClock current = clock;
+        JSONObject json = current instanceof VirtualClock ? ((VirtualClock) current).metricsJson() : new JSONObject();
+        json.put("clock", current.name());
+        return json;
+    }
+
+    private static ServerClock createClock() {
+        String name = ServerConfig.getString("ohhell.clock", "system").trim().toLowerCase(Locale.ROOT);
+        if ("virtual".equals(name)) {
+            return new VirtualClock(System.currentTimeMillis());
+        }
+        if (!"system".equals(name)) {
+            ServerLog.warn(SCOPE, "Unknown clock '" + name + "', using system.");
+        }
+        return new SystemClock();
+    }
+}
@@ -0,0 +1,21 @@
+package HTTPHandlers;
+
+import java.util.concurrent.CompletableFuture;
+
+// The production backend: SigV4-signed POSTs to the execute-api ManageConnections API.
+final class SigV4PushTransport implements PushTransport {
+    @Override
+    public String name() {
+        return "sigv4";
+    }
+
+    @Override
+    public void start() {
+        CredentialProvider.start();
+    }
+
+    @Override
+    public CompletableFuture<Integer> send(PushMessage message, String connectionId) {
+        return AWSSigner.sendSignedMessage(message, connectionId);
+    }
+}
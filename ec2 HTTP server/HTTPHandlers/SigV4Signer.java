@@ -0,0 +1,168 @@
+package HTTPHandlers;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// AWS Signature Version 4 for ManageConnections POSTs. The derived signing key and
+// credential scope only change with the UTC date or the secret, so they are cached;
+// Mac/MessageDigest instances and the canonical request buffer are per thread. A
+// signature then costs one SHA-256 over the canonical request plus one HMAC.
+final class SigV4Signer {
+    static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String HMAC_SHA256 = "HmacSHA256";
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEWLINE = {'\n'};
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Error: SHA-256 algorithm not available", e);
+        }
+    });
+    private static final ThreadLocal<ThreadState> THREAD_STATE = ThreadLocal.withInitial(ThreadState::new);
+
+    private final String method;
+    private final String host;
+    private final String region;
+    private final String service;
+    private volatile DerivedKey derivedKey;
+
+    SigV4Signer(String method, String host, String region, String service) {
+        this.method = method;
+        this.host = host;
+        this.region = region;
+        this.service = service;
+    }
+
+    private static final class DerivedKey {
+        final String dateStamp;
+        final String secretAccessKey;
+        final SecretKeySpec key;
+        final String credentialScope;
+
+        DerivedKey(String dateStamp, String secretAccessKey, SecretKeySpec key, String credentialScope) {
+            this.dateStamp = dateStamp;
+            this.secretAccessKey = secretAccessKey;
+            this.key = key;
+            this.credentialScope = credentialScope;
+        }
+    }
+
+    private static final class ThreadState {
+        final ByteBuilder canonical = new ByteBuilder(512);
+        final ByteBuilder stringToSign = new ByteBuilder(160);
+        final byte[] digest = new byte[32];
+        final byte[] signature = new byte[32];
+        Mac mac;
+        DerivedKey macKey;
+
+        Mac macFor(DerivedKey derivedKey) throws GeneralSecurityException {
+            if (mac == null) {
+                mac = Mac.getInstance(HMAC_SHA256);
+            }
+            if (macKey != derivedKey) {
+                mac.init(derivedKey.key);
+                macKey = derivedKey;
+            }
+            return mac;
+        }
+    }
+
+    // Returns the Authorization header value for a POST to encodedUri.
+    String authorization(
+        String amzDate,
+        String encodedUri,
+        String payloadHashHex,
+        String accessKeyId,
+        String secretAccessKey,
+        String sessionToken
+    ) {
+        boolean hasSessionToken = sessionToken != null && !sessionToken.isBlank();
+        String signedHeaders = hasSessionToken ? "content-type;host;x-amz-security-token" : "content-type;host";
+        DerivedKey key = derivedKey(amzDate.substring(0, 8), secretAccessKey);
+        ThreadState state = THREAD_STATE.get();
+        try {
+            ByteBuilder canonical = state.canonical.reset()
+                .append(method).append(NEWLINE)
+                .append(encodedUri).append(NEWLINE)
+                .append(NEWLINE)
+                .append("content-type:application/json\nhost:").append(host).append(NEWLINE);
+            if (hasSessionToken) {
+                canonical.append("x-amz-security-token:").append(sessionToken).append(NEWLINE);
+            }
+            canonical.append(NEWLINE).append(signedHeaders).append(NEWLINE).append(payloadHashHex);
+
+            MessageDigest sha256 = SHA256.get();
+            sha256.update(canonical.bytes, 0, canonical.length);
+            sha256.digest(state.digest, 0, state.digest.length);
+
+            ByteBuilder stringToSign = state.stringToSign.reset()
+                .append(ALGORITHM).append(NEWLINE)
+                .append(amzDate).append(NEWLINE)
+                .append(key.credentialScope).append(NEWLINE)
+                .appendHex(state.digest);
+
+            Mac mac = state.macFor(key);
+            mac.update(stringToSign.bytes, 0, stringToSign.length);
+            mac.doFinal(state.signature, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error: unable to compute SigV4 signature", e);
+        }
+        return ALGORITHM + " Credential=" + accessKeyId + "/" + key.credentialScope
+            + ", SignedHeaders=" + signedHeaders
+            + ", Signature=" + toHex(state.signature);
+    }
+
+    static String sha256Hex(byte[] payload) {
+        MessageDigest sha256 = SHA256.get();
+        return toHex(sha256.digest(payload));
+    }
+
+    static String toHex(byte[] raw) {
+        byte[] hex = new byte[raw.length * 2];
+        for (int i = 0; i < raw.length; i++) {
+            hex[i * 2] = HEX[(raw[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[raw[i] & 0xF];
+        }
+        return new String(hex, StandardCharsets.US_ASCII);
+    }
+
+    private DerivedKey derivedKey(String dateStamp, String secretAccessKey) {
+        DerivedKey cached = derivedKey;
+        if (
+            cached != null
+                && cached.dateStamp.equals(dateStamp)
+                && cached.secretAccessKey.equals(secretAccessKey)
+        ) {
+            return cached;
+        }
+        try {
+            Mac mac = Mac.getInstance(HMAC_SHA256);
+            byte[] kDate = hmac(mac, ("AWS4" + secretAccessKey).getBytes(StandardCharsets.UTF_8), dateStamp);
+            byte[] kRegion = hmac(mac, kDate, region);
+            byte[] kService = hmac(mac, kRegion, service);
+            byte[] kSigning = hmac(mac, kService, "aws4_request");
+            String credentialScope = dateStamp + "/" + region + "/" + service + "/aws4_request";
+            DerivedKey resolved = new DerivedKey(
+                dateStamp,
+                secretAccessKey,
+                new SecretKeySpec(kSigning, HMAC_SHA256),
+                credentialScope
+            );
+            derivedKey = resolved;
+            return resolved;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error: unable to derive SigV4 signing key", e);
+        }
+    }
+
+    private static byte[] hmac(Mac mac, byte[] key, String data) throws GeneralSecurityException {
+        mac.init(new SecretKeySpec(key, HMAC_SHA256));
+        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
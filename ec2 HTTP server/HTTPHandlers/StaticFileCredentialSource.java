@@ -0,0 +1,33 @@
+package HTTPHandlers;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Reads a JSON file in the IMDS credential shape. Meant for local stand-ins; the file
+// is re-read on every refresh so it can be rotated without a restart.
+final class StaticFileCredentialSource implements CredentialSource {
+    private final Path path;
+
+    StaticFileCredentialSource(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public String name() {
+        return "file:" + path;
+    }
+
+    @Override
+    public AwsCredentials fetch() throws IOException {
+        try {
+            return AwsCredentials.fromJson(new JSONObject(Files.readString(path, StandardCharsets.UTF_8)));
+        } catch (JSONException e) {
+            throw new IOException("Malformed credentials file " + path, e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package HTTPHandlers;
+
+import GameHandlers.GameTimer;
+
+import java.util.concurrent.TimeUnit;
+
+// Wall-clock time; delayed tasks go on the shared GameTimer wheel.
+final class SystemClock implements ServerClock {
+    @Override
+    public String name() {
+        return "system";
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return GameTimer.schedule(task, delay, unit);
+    }
+}
@@ -0,0 +1,145 @@
+package HTTPHandlers;
+
+import org.json.JSONObject;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Time that only moves when advance() is called. Due tasks run on the advancing
+// thread in deadline order (ties in scheduling order), and the clock reads each
+// task's own deadline while it runs, so a run is repeatable for a given sequence
+// of calls. Pair it with ohhell.game.mailboxWorkers=0 to run game commands on the
+// advancing thread as well.
+public final class VirtualClock implements ServerClock {
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_FIRED = 2;
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private long nowMillis;
+    private long sequence;
+    private long firedCount;
+
+    public VirtualClock(long startMillis) {
+        this.nowMillis = startMillis;
+    }
+
+    private final class Entry implements Timeout, Comparable<Entry> {
+        private final Runnable task;
+        private final long deadlineMillis;
+        private final long order;
+        private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+        Entry(Runnable task, long deadlineMillis, long order) {
+            this.task = task;
+            this.deadlineMillis = deadlineMillis;
+            this.order = order;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+                return false;
+            }
+            synchronized (VirtualClock.this) {
+                queue.remove(this);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byDeadline = Long.compare(deadlineMillis, other.deadlineMillis);
+            return byDeadline != 0 ? byDeadline : Long.compare(order, other.order);
+        }
+    }
+
+    @Override
+    public String name() {
+        return "virtual";
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return nowMillis;
+    }
+
+    @Override
+    public synchronized Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Entry entry = new Entry(task, nowMillis + Math.max(0, unit.toMillis(delay)), sequence++);
+        queue.add(entry);
+        return entry;
+    }
+
+    // Moves time forward by the given amount, running every task that falls due,
+    // including ones those tasks schedule within the window. Returns how many ran.
+    public int advance(long amount, TimeUnit unit) {
+        long target;
+        synchronized (this) {
+            target = nowMillis + Math.max(0, unit.toMillis(amount));
+        }
+        int ran = 0;
+        while (runNext(target)) {
+            ran++;
+        }
+        synchronized (this) {
+            nowMillis = Math.max(nowMillis, target);
+        }
+        return ran;
+    }
+
+    // Jumps to the next deadline and runs it. Returns false when nothing is scheduled.
+    public boolean advanceToNext() {
+        return runNext(Long.MAX_VALUE);
+    }
+
+    // Runs scheduled tasks until none are left or the limit is reached; returns how many ran.
+    public int runUntilIdle(int limit) {
+        int ran = 0;
+        while (ran < limit && runNext(Long.MAX_VALUE)) {
+            ran++;
+        }
+        return ran;
+    }
+
+    public synchronized int pending() {
+        return queue.size();
+    }
+
+    private boolean runNext(long targetMillis) {
+        Entry next;
+        synchronized (this) {
+            next = queue.peek();
+            if (next == null || next.deadlineMillis > targetMillis) {
+                return false;
+            }
+            queue.poll();
+            nowMillis = Math.max(nowMillis, next.deadlineMillis);
+        }
+        if (next.state.compareAndSet(STATE_PENDING, STATE_FIRED)) {
+            synchronized (this) {
+                firedCount++;
+            }
+            try {
+                next.task.run();
+            } catch (RuntimeException e) {
+                ServerLog.error("VirtualClock", "Timer task failed.", e);
+            }
+        }
+        return true;
+    }
+
+    synchronized JSONObject metricsJson() {
+        JSONObject json = new JSONObject();
+        json.put("nowMs", nowMillis);
+        json.put("pending", queue.size());
+        json.put("fired", firedCount);
+        return json;
+    }
+}
@@ -0,0 +1,300 @@
+package GameHandlers;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Headless engine: plays whole games with GameRules and BotStrategy on every seat,
+// with no timers, pushes or locks, and fans batches of games out over a fork-join
+// pool. Deals follow Game exactly (same Deck, same seeded shuffle, same seat order),
+// so a seed deals the same hands here as in a live game.
+//
+//   java -cp "ohhell-server.jar:ohhell-tools.jar:lib/json-20240303.jar" GameHandlers.GameSimulator \
+//       --games 100000 --players 5 --seed 1 --threads 8 [--table-seats 2]
+public final class GameSimulator {
+    private static final int SEQUENTIAL_GAMES = 512;
+    private static final int MIN_SCORE = scoreBound(false);
+    private static final int MAX_SCORE = scoreBound(true);
+
+    private GameSimulator() {}
+
+    // Final scores by seat for one all-bot game.
+    public static int[] playGame(long seed, int playerCount) {
+        return playGame(seed, playerCount, playerCount);
+    }
+
+    // Seats below tableSeats bid with BotStrategy.chooseBet (the hand-strength table
+    // when one is mapped); the rest bid with the heuristic, for comparing the two.
+    public static int[] playGame(long seed, int playerCount, int tableSeats) {
+        Deck deck = new Deck();
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] hands = new long[playerCount];
+        int[] bets = new int[playerCount];
+        int[] handsWon = new int[playerCount];
+        int[] scores = new int[playerCount];
+        int[] trickSeats = new int[CardMask.DECK_SIZE];
+        int initiator = 0;
+
+        for (int round = 1; round <= GameRules.TOTAL_ROUNDS; round++) {
+            deck.shuffle(random);
+            int cardsThisRound = GameRules.cardsForRound(round);
+            for (int i = 0; i < cardsThisRound; i++) {
+                for (int seat = 0; seat < playerCount; seat++) {
+                    int card = deck.draw();
+                    if (card != CardMask.NO_CARD) {
+                        hands[seat] |= CardMask.bit(card);
+                    }
+                }
+            }
+            Suits trumpSuit = null;
+            if (GameRules.hasTrumpForRound(round)) {
+                int trumpCard = deck.draw();
+                trumpSuit = trumpCard != CardMask.NO_CARD ? CardMask.suit(trumpCard) : null;
+            }
+
+            for (int i = 0; i < playerCount; i++) {
+                int seat = (initiator + i) % playerCount;
+                bets[seat] = seat < tableSeats
+                    ? BotStrategy.chooseBet(hands[seat], trumpSuit, cardsThisRound)
+                    : BotStrategy.heuristicBet(hands[seat], trumpSuit, cardsThisRound);
+                handsWon[seat] = 0;
+            }
+
+            for (int trick = 0; trick < cardsThisRound; trick++) {
+                long trickMask = 0L;
+                Suits leadSuit = null;
+                int topDog = CardMask.NO_CARD;
+                for (int i = 0; i < playerCount; i++) {
+                    int seat = (initiator + i) % playerCount;
+                    int card = BotStrategy.chooseCard(
+                        hands[seat],
+                        handsWon[seat],
+                        bets[seat],
+                        trumpSuit,
+                        leadSuit,
+                        topDog
+                    );
+                    hands[seat] &= ~CardMask.bit(card);
+                    trickMask |= CardMask.bit(card);
+                    trickSeats[card] = seat;
+                    if (leadSuit == null) {
+                        leadSuit = CardMask.suit(card);
+                    }
+                    topDog = CardMask.trickWinner(trickMask, trumpSuit, leadSuit);
+                }
+                int winner = trickSeats[topDog];
+                handsWon[winner]++;
+                initiator = winner;
+            }
+
+            for (int seat = 0; seat < playerCount; seat++) {
+                scores[seat] += GameRules.scoreChange(bets[seat], handsWon[seat]);
+            }
+            initiator = GameRules.initiatorAfterRound(round, playerCount);
+        }
+        return scores;
+    }
+
+    // Seed for the index-th game of a run, so results do not depend on how the run
+    // was split across threads.
+    static long gameSeed(long baseSeed, long index) {
+        return baseSeed + index * 0x9E3779B97F4A7C15L;
+    }
+
+    // Score distribution over a batch of games; batches merge pairwise.
+    public static final class Summary {
+        private final int playerCount;
+        private final long[] scoreCounts = new long[MAX_SCORE - MIN_SCORE + 1];
+        private final long[] seatScoreTotals;
+        private final long[] seatWins;
+        private long games;
+
+        Summary(int playerCount) {
+            this.playerCount = playerCount;
+            this.seatScoreTotals = new long[playerCount];
+            this.seatWins = new long[playerCount];
+        }
+
+        void add(int[] scores) {
+            games++;
+            int best = Integer.MIN_VALUE;
+            for (int seat = 0; seat < playerCount; seat++) {
+                scoreCounts[scores[seat] - MIN_SCORE]++;
+                seatScoreTotals[seat] += scores[seat];
+                best = Math.max(best, scores[seat]);
+            }
+            // Every seat tied for the top score counts as a win.
+            for (int seat = 0; seat < playerCount; seat++) {
+                if (scores[seat] == best) {
+                    seatWins[seat]++;
+                }
+            }
+        }
+
+        Summary merge(Summary other) {
+            games += other.games;
+            for (int i = 0; i < scoreCounts.length; i++) {
+                scoreCounts[i] += other.scoreCounts[i];
+            }
+            for (int seat = 0; seat < playerCount; seat++) {
+                seatScoreTotals[seat] += other.seatScoreTotals[seat];
+                seatWins[seat] += other.seatWins[seat];
+            }
+            return this;
+        }
+
+        public long getGames() {
+            return games;
+        }
+
+        public JSONObject toJson() {
+            long samples = games * playerCount;
+            long total = 0;
+            for (long seatTotal : seatScoreTotals) {
+                total += seatTotal;
+            }
+            JSONObject score = new JSONObject();
+            score.put("mean", samples > 0 ? (double) total / samples : 0);
+            score.put("min", percentile(samples, 0));
+            score.put("p10", percentile(samples, 0.10));
+            score.put("p50", percentile(samples, 0.50));
+            score.put("p90", percentile(samples, 0.90));
+            score.put("max", percentile(samples, 1));
+
+            JSONArray seats = new JSONArray();
+            for (int seat = 0; seat < playerCount; seat++) {
+                JSONObject seatJson = new JSONObject();
+                seatJson.put("seat", seat);
+                seatJson.put("meanScore", games > 0 ? (double) seatScoreTotals[seat] / games : 0);
+                seatJson.put("winRate", games > 0 ? (double) seatWins[seat] / games : 0);
+                seats.put(seatJson);
+            }
+
+            JSONObject json = new JSONObject();
+            json.put("games", games);
+            json.put("players", playerCount);
+            json.put("score", score);
+            json.put("seats", seats);
+            return json;
+        }
+
+        private int percentile(long samples, double fraction) {
+            if (samples == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * samples));
+            long seen = 0;
+            for (int i = 0; i < scoreCounts.length; i++) {
+                seen += scoreCounts[i];
+                if (seen >= rank) {
+                    return i + MIN_SCORE;
+                }
+            }
+            return MAX_SCORE;
+        }
+    }
+
+    private static final class Batch extends RecursiveTask<Summary> {
+        private static final long serialVersionUID = 1L;
+
+        private final long baseSeed;
+        private final int playerCount;
+        private final int tableSeats;
+        private final long from;
+        private final long to;
+
+        Batch(long baseSeed, int playerCount, int tableSeats, long from, long to) {
+            this.baseSeed = baseSeed;
+            this.playerCount = playerCount;
+            this.tableSeats = tableSeats;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Summary compute() {
+            if (to - from <= SEQUENTIAL_GAMES) {
+                Summary summary = new Summary(playerCount);
+                for (long index = from; index < to; index++) {
+                    summary.add(playGame(gameSeed(baseSeed, index), playerCount, tableSeats));
+                }
+                return summary;
+            }
+            long middle = (from + to) >>> 1;
+            Batch left = new Batch(baseSeed, playerCount, tableSeats, from, middle);
+            left.fork();
+            Summary right = new Batch(baseSeed, playerCount, tableSeats, middle, to).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    public static Summary run(ForkJoinPool pool, long games, int playerCount, int tableSeats, long baseSeed) {
+        if (playerCount < 2 || playerCount > GameRules.MAX_PLAYERS) {
+            throw new IllegalArgumentException("Players must be between 2 and " + GameRules.MAX_PLAYERS + ".");
+        }
+        return pool.invoke(new Batch(baseSeed, playerCount, tableSeats, 0, Math.max(0, games)));
+    }
+
+    public static void main(String[] args) {
+        long games = 100_000;
+        int playerCount = GameRules.MAX_PLAYERS;
+        long seed = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int tableSeats = -1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--games":
+                    games = Long.parseLong(args[i + 1]);
+                    break;
+                case "--players":
+                    playerCount = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--table-seats":
+                    tableSeats = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Math.max(1, Integer.parseInt(args[i + 1]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long startNanos = System.nanoTime();
+            if (tableSeats < 0) {
+                tableSeats = playerCount;
+            }
+            Summary summary = run(pool, games, playerCount, tableSeats, seed);
+            long elapsedNanos = System.nanoTime() - startNanos;
+
+            JSONObject report = summary.toJson();
+            report.put("seed", seed);
+            report.put("threads", threads);
+            report.put("tableSeats", tableSeats);
+            report.put("handStrengthTable", HandStrengthTable.isLoaded());
+            report.put("elapsedMs", elapsedNanos / 1_000_000.0);
+            report.put("gamesPerSecond", elapsedNanos > 0 ? summary.getGames() * 1e9 / elapsedNanos : 0);
+            System.out.println(report.toString(2));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Best case makes the largest bet every round; worst case misses by the whole hand.
+    private static int scoreBound(boolean best) {
+        int total = 0;
+        for (int round = 1; round <= GameRules.TOTAL_ROUNDS; round++) {
+            int cards = GameRules.cardsForRound(round);
+            total += best ? Math.max(GameRules.scoreChange(0, 0), GameRules.scoreChange(cards, cards)) : -cards;
+        }
+        return total;
+    }
+}
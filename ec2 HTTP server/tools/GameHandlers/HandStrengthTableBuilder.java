@@ -0,0 +1,212 @@
+package GameHandlers;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Offline generator for HandStrengthTable. Deals random rounds, bids them with the
+// heuristic and plays them out with BotStrategy on every seat, and credits each trick
+// to the suit holding the winning card came from. The table entry for a holding is
+// the average number of tricks it took; holdings seen fewer than MIN_SAMPLES times
+// inherit the value of the holding with its lowest card removed.
+//
+//   java -cp "ohhell-server.jar:ohhell-tools.jar:lib/json-20240303.jar" GameHandlers.HandStrengthTableBuilder \
+//       --deals 200000 --players 5 --seed 1 --out data/hand-strength.bin
+public final class HandStrengthTableBuilder {
+    private static final int MIN_SAMPLES = 30;
+    private static final int SEQUENTIAL_DEALS = 2_048;
+    private static final int SUIT_SIZE = 13;
+
+    private HandStrengthTableBuilder() {}
+
+    private static final class Counts {
+        final long[] tricks = new long[HandStrengthTable.entryCount()];
+        final int[] seen = new int[HandStrengthTable.entryCount()];
+
+        Counts merge(Counts other) {
+            for (int i = 0; i < tricks.length; i++) {
+                tricks[i] += other.tricks[i];
+                seen[i] += other.seen[i];
+            }
+            return this;
+        }
+    }
+
+    private static final class Deals extends RecursiveTask<Counts> {
+        private static final long serialVersionUID = 1L;
+
+        private final long seed;
+        private final int playerCount;
+        private final long from;
+        private final long to;
+
+        Deals(long seed, int playerCount, long from, long to) {
+            this.seed = seed;
+            this.playerCount = playerCount;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Counts compute() {
+            if (to - from <= SEQUENTIAL_DEALS) {
+                Counts counts = new Counts();
+                Deck deck = new Deck();
+                for (long index = from; index < to; index++) {
+                    SplittableRandom random = new SplittableRandom(GameSimulator.gameSeed(seed, index));
+                    // Every deal covers all ten round sizes, and the no-trump round at ten cards.
+                    for (int roundSize = 1; roundSize <= GameRules.MAX_HAND_CARDS; roundSize++) {
+                        playRound(deck, random, playerCount, roundSize, true, counts);
+                    }
+                    playRound(deck, random, playerCount, GameRules.MAX_HAND_CARDS, false, counts);
+                }
+                return counts;
+            }
+            long middle = (from + to) >>> 1;
+            Deals left = new Deals(seed, playerCount, from, middle);
+            left.fork();
+            Counts right = new Deals(seed, playerCount, middle, to).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    private static void playRound(
+        Deck deck,
+        SplittableRandom random,
+        int playerCount,
+        int roundSize,
+        boolean withTrump,
+        Counts counts
+    ) {
+        deck.shuffle(random);
+        long[] dealt = new long[playerCount];
+        for (int i = 0; i < roundSize; i++) {
+            for (int seat = 0; seat < playerCount; seat++) {
+                dealt[seat] |= CardMask.bit(deck.draw());
+            }
+        }
+        Suits trumpSuit = withTrump ? CardMask.suit(deck.draw()) : null;
+        int initiator = random.nextInt(playerCount);
+        long[] hands = dealt.clone();
+        int[] bets = new int[playerCount];
+        int[] handsWon = new int[playerCount];
+        long[] winningCards = new long[playerCount];
+        for (int seat = 0; seat < playerCount; seat++) {
+            bets[seat] = BotStrategy.heuristicBet(hands[seat], trumpSuit, roundSize);
+        }
+        int[] trickSeats = new int[CardMask.DECK_SIZE];
+        for (int trick = 0; trick < roundSize; trick++) {
+            long trickMask = 0L;
+            Suits leadSuit = null;
+            int topDog = CardMask.NO_CARD;
+            for (int i = 0; i < playerCount; i++) {
+                int seat = (initiator + i) % playerCount;
+                int card = BotStrategy.chooseCard(hands[seat], handsWon[seat], bets[seat], trumpSuit, leadSuit, topDog);
+                hands[seat] &= ~CardMask.bit(card);
+                trickMask |= CardMask.bit(card);
+                trickSeats[card] = seat;
+                if (leadSuit == null) {
+                    leadSuit = CardMask.suit(card);
+                }
+                topDog = CardMask.trickWinner(trickMask, trumpSuit, leadSuit);
+            }
+            int winner = trickSeats[topDog];
+            handsWon[winner]++;
+            winningCards[winner] |= CardMask.bit(topDog);
+            initiator = winner;
+        }
+        for (int seat = 0; seat < playerCount; seat++) {
+            for (Suits suit : Suits.values()) {
+                int shift = suit.ordinal() * SUIT_SIZE;
+                int holding = (int) ((dealt[seat] >>> shift) & (HandStrengthTable.HOLDINGS - 1));
+                if (holding == 0) {
+                    continue;
+                }
+                int kind = trumpSuit == null
+                    ? HandStrengthTable.KIND_NO_TRUMP
+                    : suit == trumpSuit ? HandStrengthTable.KIND_TRUMP : HandStrengthTable.KIND_SIDE;
+                int index = HandStrengthTable.index(roundSize, kind, holding);
+                counts.tricks[index] += Long.bitCount(winningCards[seat] & CardMask.suitMask(suit));
+                counts.seen[index]++;
+            }
+        }
+    }
+
+    // Entries in increasing holding order, so a holding's parent (lowest card
+    // removed, a smaller number) is always resolved first.
+    static short[] resolve(Counts counts) {
+        short[] values = new short[HandStrengthTable.entryCount()];
+        for (int roundSize = 1; roundSize <= GameRules.MAX_HAND_CARDS; roundSize++) {
+            for (int kind = 0; kind < HandStrengthTable.KINDS; kind++) {
+                for (int holding = 1; holding < HandStrengthTable.HOLDINGS; holding++) {
+                    int index = HandStrengthTable.index(roundSize, kind, holding);
+                    if (counts.seen[index] >= MIN_SAMPLES) {
+                        double mean = (double) counts.tricks[index] / counts.seen[index];
+                        values[index] = (short) Math.round(mean * HandStrengthTable.SCALE);
+                    } else {
+                        int parent = holding & (holding - 1);
+                        values[index] = parent == 0 ? 0 : values[HandStrengthTable.index(roundSize, kind, parent)];
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    static void write(short[] values, Path out) throws IOException {
+        Path parent = out.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (OutputStream file = Files.newOutputStream(out);
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(file))) {
+            data.writeInt(HandStrengthTable.MAGIC);
+            data.writeInt(HandStrengthTable.FORMAT_VERSION);
+            data.writeInt(GameRules.MAX_HAND_CARDS);
+            data.writeInt(HandStrengthTable.KINDS);
+            for (short value : values) {
+                data.writeShort(value);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        long deals = 200_000;
+        int playerCount = GameRules.MAX_PLAYERS;
+        long seed = 1;
+        Path out = Path.of("data/hand-strength.bin");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--deals":
+                    deals = Long.parseLong(args[i + 1]);
+                    break;
+                case "--players":
+                    playerCount = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--out":
+                    out = Path.of(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        long startNanos = System.nanoTime();
+        Counts counts = ForkJoinPool.commonPool().invoke(new Deals(seed, playerCount, 0, deals));
+        write(resolve(counts), out);
+        System.out.printf(
+            "Wrote %s from %d deals in %.1f s%n",
+            out,
+            deals,
+            (System.nanoTime() - startNanos) / 1e9
+        );
+    }
+}
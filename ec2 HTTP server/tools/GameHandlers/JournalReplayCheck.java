@@ -0,0 +1,185 @@
+package GameHandlers;
+
+import HTTPHandlers.ServerTime;
+import HTTPHandlers.VirtualClock;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+// Kill-and-restart check for crash recovery. For each scenario it runs a seeded
+// two-human game in a child JVM under a VirtualClock with a fresh journal directory,
+// halts that JVM at a chosen moment (no shutdown hooks, like a crash) after saving
+// the game's captureSnapshot(), then starts a second child that recovers from the
+// journal alone and compares the rebuilt game's snapshot byte for byte. Deadlines
+// and the push version are left out: a restart starts those afresh.
+//
+//   java -cp "ohhell-server.jar:ohhell-tools.jar:lib/json-20240303.jar" GameHandlers.JournalReplayCheck [--seed 7]
+//
+// Exits 1 if any scenario's snapshots differ.
+public final class JournalReplayCheck {
+    private static final int MAX_STEPS = 200_000;
+    private static final long CLOCK_START_MS = 1_700_000_000_000L;
+
+    private JournalReplayCheck() {}
+
+    private static final class Scenario {
+        final String name;
+        // Round after which the second human forfeits and is replaced by a bot; 0 never.
+        final int forfeitAfterRound;
+        final Predicate<Game> crashWhen;
+
+        Scenario(String name, int forfeitAfterRound, Predicate<Game> crashWhen) {
+            this.name = name;
+            this.forfeitAfterRound = forfeitAfterRound;
+            this.crashWhen = crashWhen;
+        }
+    }
+
+    private static final List<Scenario> SCENARIOS = List.of(
+        new Scenario("betting", 0, game -> game.getRound() >= 2 && game.getPhase() == GamePhase.BETTING
+            && game.getPlayers().stream().anyMatch(Player::hasPlacedBet)),
+        new Scenario("mid-trick", 0, game -> game.getRound() >= 3 && game.getTableCards().size() == 2),
+        new Scenario("mid-trick after bot replacement", 2, game -> game.getRound() >= 4
+            && game.getTableCards().size() == 3),
+        new Scenario("late round after bot replacement", 1, game -> game.getRound() >= 12
+            && game.getTableCards().size() == 1)
+    );
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("crash")) {
+            crash(SCENARIOS.get(Integer.parseInt(args[1])), Long.parseLong(args[2]), Path.of(args[3]));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("recover")) {
+            recover(Path.of(args[1]));
+            return;
+        }
+        long seed = 7;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--seed")) {
+                seed = Long.parseLong(args[i + 1]);
+            }
+        }
+        int failures = 0;
+        for (int index = 0; index < SCENARIOS.size(); index++) {
+            Path dir = Files.createTempDirectory("ohhell-replay-check-");
+            try {
+                String outcome = runScenario(index, seed, dir);
+                System.out.println(SCENARIOS.get(index).name + ": " + outcome);
+                if (!outcome.startsWith("ok")) {
+                    failures++;
+                }
+            } finally {
+                deleteTree(dir);
+            }
+        }
+        System.out.println(failures == 0 ? "All scenarios replayed exactly." : failures + " scenario(s) differ.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static String runScenario(int index, long seed, Path dir) throws IOException, InterruptedException {
+        int crashed = child(dir, "crash", String.valueOf(index), String.valueOf(seed), dir.toString());
+        if (crashed != 0 || !Files.exists(dir.resolve("expected.bin"))) {
+            return "FAILED (crash point never reached, exit " + crashed + ")";
+        }
+        int recovered = child(dir, "recover", dir.toString());
+        return recovered == 0
+            ? "ok (" + Files.readString(dir.resolve("result.txt")) + ")"
+            : "FAILED (" + Files.readString(dir.resolve("result.txt")) + ")";
+    }
+
+    // Same classpath, a private journal, no snapshot or history, and every game
+    // command run on the thread that advances the clock.
+    private static int child(Path dir, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(
+            Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp", System.getProperty("java.class.path"),
+            "-Dohhell.game.mailboxWorkers=0",
+            "-Dohhell.push.transport=local",
+            "-Dohhell.journal.dir=" + dir.resolve("journal"),
+            "-Dohhell.snapshot.enabled=false",
+            "-Dohhell.history.enabled=false",
+            JournalReplayCheck.class.getName()
+        ));
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(dir.resolve(args[0] + ".log").toFile())
+            .start();
+        return process.waitFor();
+    }
+
+    private static void crash(Scenario scenario, long seed, Path dir) throws IOException {
+        VirtualClock clock = installClock();
+        GameJournal.recover(Collections.emptyMap());
+        User host = User.getUser("replay-check-1", "alice", "replay-check-c1");
+        User.addUserOnline(host);
+        User guest = User.getUser("replay-check-2", "bob", "replay-check-c2");
+        User.addUserOnline(guest);
+        Game game = new Game(host, seed);
+        GameHandler.addGameToLobby(game);
+        GameHandler.addUserToGame(guest, game.getGameID());
+        GameHandler.start(game);
+        for (int steps = 0; steps < MAX_STEPS && clock.advanceToNext(); steps++) {
+            if (scenario.forfeitAfterRound > 0 && guest.getGameID() == game.getGameID()
+                && game.getRound() > scenario.forfeitAfterRound) {
+                GameHandler.forfeitUser(guest);
+            }
+            if (scenario.crashWhen.test(game)) {
+                Files.write(dir.resolve("expected.bin"), game.captureSnapshot(true));
+                GameJournal.close();
+                Runtime.getRuntime().halt(0);
+            }
+        }
+        Runtime.getRuntime().halt(2);
+    }
+
+    private static void recover(Path dir) throws IOException {
+        installClock();
+        GameJournal.recover(Collections.emptyMap());
+        byte[] expected = Files.readAllBytes(dir.resolve("expected.bin"));
+        ArrayList<Game> games = GameRegistry.inGameGames();
+        String result;
+        int status;
+        if (games.size() != 1) {
+            result = "expected 1 recovered game, found " + games.size();
+            status = 1;
+        } else {
+            byte[] actual = games.get(0).captureSnapshot(true);
+            int mismatch = Arrays.mismatch(expected, actual);
+            result = mismatch < 0
+                ? expected.length + " snapshot bytes match"
+                : "snapshots differ at byte " + mismatch + " of " + expected.length + "/" + actual.length;
+            status = mismatch < 0 ? 0 : 1;
+        }
+        Files.writeString(dir.resolve("result.txt"), result);
+        GameJournal.close();
+        Runtime.getRuntime().halt(status);
+    }
+
+    private static VirtualClock installClock() {
+        VirtualClock clock = new VirtualClock(CLOCK_START_MS);
+        ServerTime.use(clock);
+        return clock;
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        List<Path> paths = new ArrayList<>();
+        try (var walk = Files.walk(dir)) {
+            walk.forEach(paths::add);
+        }
+        Collections.reverse(paths);
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+}